@@ -0,0 +1,42 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * SinkCallback that remembers the latest result so a benchmark can wait for a specific value to reach the sink.
+ */
+class BenchmarkSinkCallback<ResultType> extends Graphy.SinkCallback<ResultType> {
+  private volatile ResultType latest = null;
+
+  @Override
+  protected void onNewResult(ResultType result) {
+    latest = result;
+  }
+
+  @Override
+  protected void onNewException(Exception exception) {
+    latest = null;
+  }
+
+  @Override
+  protected void onUnset() {
+    latest = null;
+  }
+
+  ResultType getLatest() {
+    return latest;
+  }
+
+  /**
+   * Spins until the sink has seen expected.
+   */
+  void await(ResultType expected) {
+    while (!expected.equals(latest)) {
+      Thread.yield();
+    }
+  }
+
+  static <ResultType> BenchmarkSinkCallback<ResultType> sink(Node<ResultType> node) {
+    BenchmarkSinkCallback<ResultType> callback = new BenchmarkSinkCallback<ResultType>();
+    Graphy.sink(node, callback);
+    return callback;
+  }
+}
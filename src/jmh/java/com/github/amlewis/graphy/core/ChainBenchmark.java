@@ -0,0 +1,61 @@
+package com.github.amlewis.graphy.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A deep chain of TransformNodes, each adding one to its input. Measures the time for a change at the head of the chain
+ * to reach a sink at its tail. The dispatch mode only affects BATCHED propagation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmark {
+  @Param({"1", "10", "100"})
+  public int depth;
+
+  @Param({"BATCHED", "RANKED"})
+  public Graphy.PropagationMode propagationMode;
+
+  @Param({"EXECUTOR", "INLINE", "ADAPTIVE"})
+  public Graphy.DispatchMode dispatchMode;
+
+  private ValueNode<Integer> head;
+  private BenchmarkSinkCallback<Integer> callback;
+  private int value = 0;
+
+  @Setup
+  public void setUp() {
+    Graphy.getInstance().setPropagationMode(propagationMode);
+    Graphy.getInstance().setDefaultDispatchMode(dispatchMode);
+    TransformNode.Function<Integer, Integer> increment = new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        return input + 1;
+      }
+    };
+    head = ValueNode.of(value);
+    Node<Integer> tail = head;
+    for (int i = 0; i < depth; ++i) {
+      tail = TransformNode.of(increment, tail);
+    }
+    callback = BenchmarkSinkCallback.sink(tail);
+    callback.await(value + depth);
+  }
+
+  @TearDown
+  public void tearDown() {
+    callback.deregister();
+    Graphy.getInstance().setDefaultDispatchMode(Graphy.DispatchMode.EXECUTOR);
+  }
+
+  @Benchmark
+  public void chain() {
+    head.setValue(++value);
+    callback.await(value + depth);
+  }
+}
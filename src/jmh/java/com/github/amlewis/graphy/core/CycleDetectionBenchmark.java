@@ -0,0 +1,74 @@
+package com.github.amlewis.graphy.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of activating a large layered graph, with cycle detection on and off. Every node depends on two
+ * nodes in the layer below, and the graph is activated from a single node at the top, so each edge is added through
+ * Node.activate(activator) and ranks are raised across the graph as it goes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CycleDetectionBenchmark {
+  private static final int WIDTH = 100;
+
+  @Param({"10000", "100000"})
+  public int size;
+
+  @Param({"false", "true"})
+  public boolean cycleDetection;
+
+  private Node<Integer> top;
+
+  private static final class PairNode extends StateNode<Integer> {
+    PairNode(Node<?> left, Node<?> right) {
+      super(left, right);
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      return 0;
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setUp() {
+    Graphy.getInstance().setCycleDetectionEnabled(cycleDetection);
+    List<Node<?>> layer = new ArrayList<Node<?>>(WIDTH);
+    for (int i = 0; i < WIDTH; ++i) {
+      layer.add(new ValueNode<Integer>());
+    }
+    for (int built = WIDTH; built < size; built += WIDTH) {
+      List<Node<?>> next = new ArrayList<Node<?>>(WIDTH);
+      for (int i = 0; i < WIDTH; ++i) {
+        next.add(new PairNode(layer.get(i), layer.get((i + 1) % WIDTH)));
+      }
+      layer = next;
+    }
+    top = new StateNode<Integer>(layer) {
+      @Override
+      protected Integer processResult() throws Exception {
+        return 0;
+      }
+    };
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Graphy.getInstance().setCycleDetectionEnabled(false);
+  }
+
+  @Benchmark
+  public Node<Integer> activate() {
+    top.activate(null);
+    return top;
+  }
+}
@@ -0,0 +1,93 @@
+package com.github.amlewis.graphy.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stacked diamonds of StateNodes: each layer splits its input in two and joins the halves back together. Besides the
+ * usual timings, reports how many times the join nodes were processed per change as a secondary metric, which is where
+ * redundant recomputation shows up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiamondBenchmark {
+  @Param({"1", "8", "32"})
+  public int layers;
+
+  @Param({"BATCHED", "RANKED"})
+  public Graphy.PropagationMode propagationMode;
+
+  private static final AtomicLong joins = new AtomicLong(0);
+
+  private static class SplitNode extends StateNode<Integer> {
+    private final Node<Integer> input;
+
+    SplitNode(Node<Integer> input) {
+      super(input);
+      this.input = input;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      return input.get();
+    }
+  }
+
+  private static class JoinNode extends StateNode<Integer> {
+    private final Node<Integer> left;
+    private final Node<Integer> right;
+
+    JoinNode(Node<Integer> left, Node<Integer> right) {
+      super(left, right);
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      joins.incrementAndGet();
+      return Math.max(left.get(), right.get());
+    }
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class JoinCounter {
+    public long joins;
+  }
+
+  private ValueNode<Integer> top;
+  private BenchmarkSinkCallback<Integer> callback;
+  private int value = 0;
+
+  @Setup
+  public void setUp() {
+    Graphy.getInstance().setPropagationMode(propagationMode);
+    top = ValueNode.of(value);
+    Node<Integer> bottom = top;
+    for (int i = 0; i < layers; ++i) {
+      bottom = new JoinNode(new SplitNode(bottom), new SplitNode(bottom));
+    }
+    callback = BenchmarkSinkCallback.sink(bottom);
+    callback.await(value);
+  }
+
+  @TearDown
+  public void tearDown() {
+    callback.deregister();
+  }
+
+  @Benchmark
+  public void diamond(JoinCounter counter) {
+    long joinsBefore = joins.get();
+    top.setValue(++value);
+    callback.await(value);
+    counter.joins += joins.get() - joinsBefore;
+  }
+}
@@ -0,0 +1,78 @@
+package com.github.amlewis.graphy.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many ValueNodes summed by a single node, either a StateNode that scans every input or an AggregateNode. Measures the
+ * time for a change to one input to reach a sink on the sum.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanInBenchmark {
+  @Param({"100", "10000", "50000"})
+  public int width;
+
+  @Param({"true", "false"})
+  public boolean aggregate;
+
+  private final List<ValueNode<Long>> inputs = new ArrayList<ValueNode<Long>>();
+  private BenchmarkSinkCallback<Long> callback;
+  private long sum = 0;
+  private int next = 0;
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < width; ++i) {
+      inputs.add(ValueNode.of(0L));
+    }
+    Node<Long> sumNode;
+    if (aggregate) {
+      sumNode = AggregateNode.of(new AggregateNode.Monoid<Long>() {
+        @Override
+        public Long identity() {
+          return 0L;
+        }
+
+        @Override
+        public Long combine(Long left, Long right) {
+          return left + right;
+        }
+      }, inputs);
+    } else {
+      sumNode = new StateNode<Long>(new ArrayList<Node<?>>(inputs)) {
+        @Override
+        protected Long processResult() throws Exception {
+          long sum = 0;
+          for (ValueNode<Long> input : inputs) {
+            sum += input.get();
+          }
+          return sum;
+        }
+      };
+    }
+    callback = BenchmarkSinkCallback.sink(sumNode);
+    callback.await(sum);
+  }
+
+  @TearDown
+  public void tearDown() {
+    callback.deregister();
+    inputs.clear();
+  }
+
+  @Benchmark
+  public void fanIn() {
+    ValueNode<Long> input = inputs.get(next);
+    next = (next + 1) % width;
+    input.setValue(input.get() + 1);
+    callback.await(++sum);
+  }
+}
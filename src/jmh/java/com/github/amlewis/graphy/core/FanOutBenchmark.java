@@ -0,0 +1,65 @@
+package com.github.amlewis.graphy.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single ValueNode with many TransformNode parents, each of which is sunk. Measures the time until every sink has seen
+ * a new value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+  @Param({"10", "100", "1000"})
+  public int width;
+
+  @Param({"BATCHED", "RANKED"})
+  public Graphy.PropagationMode propagationMode;
+
+  private ValueNode<Integer> valueNode;
+  private final List<BenchmarkSinkCallback<Integer>> callbacks = new ArrayList<BenchmarkSinkCallback<Integer>>();
+  private int value = 0;
+
+  @Setup
+  public void setUp() {
+    Graphy.getInstance().setPropagationMode(propagationMode);
+    valueNode = ValueNode.of(value);
+    TransformNode.Function<Integer, Integer> identity = new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        return input;
+      }
+    };
+    for (int i = 0; i < width; ++i) {
+      callbacks.add(BenchmarkSinkCallback.sink(TransformNode.of(identity, valueNode)));
+    }
+    awaitAll(value);
+  }
+
+  @TearDown
+  public void tearDown() {
+    for (BenchmarkSinkCallback<Integer> callback : callbacks) {
+      callback.deregister();
+    }
+    callbacks.clear();
+  }
+
+  private void awaitAll(Integer expected) {
+    for (BenchmarkSinkCallback<Integer> callback : callbacks) {
+      callback.await(expected);
+    }
+  }
+
+  @Benchmark
+  public void fanOut() {
+    valueNode.setValue(++value);
+    awaitAll(value);
+  }
+}
@@ -0,0 +1,42 @@
+package com.github.amlewis.graphy.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from ValueNode.setValue until the new value reaches a SinkCallback, with nothing in between.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SinkLatencyBenchmark {
+  @Param({"BATCHED", "RANKED"})
+  public Graphy.PropagationMode propagationMode;
+
+  private ValueNode<Integer> valueNode;
+  private BenchmarkSinkCallback<Integer> callback;
+  private int value = 0;
+
+  @Setup
+  public void setUp() {
+    Graphy.getInstance().setPropagationMode(propagationMode);
+    valueNode = ValueNode.of(value);
+    callback = BenchmarkSinkCallback.sink(valueNode);
+    callback.await(value);
+  }
+
+  @TearDown
+  public void tearDown() {
+    callback.deregister();
+  }
+
+  @Benchmark
+  public void setValueToSink() {
+    valueNode.setValue(++value);
+    callback.await(value);
+  }
+}
@@ -0,0 +1,88 @@
+package com.github.amlewis.graphy.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flips an IfNode between its branches and a TryNode between its main and exception nodes, measuring the time until the
+ * switched result reaches a sink.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwitchingBenchmark {
+  @Param({"BATCHED", "RANKED"})
+  public Graphy.PropagationMode propagationMode;
+
+  private static final Exception FAILURE = new Exception("Benchmark failure");
+
+  private ValueNode<Boolean> condition;
+  private BenchmarkSinkCallback<Integer> ifCallback;
+  private boolean conditionValue = true;
+
+  private ValueNode<Integer> main;
+  private BenchmarkSinkCallback<Integer> tryCallback;
+  private boolean mainFailing = false;
+
+  @Setup
+  public void setUp() {
+    Graphy.getInstance().setPropagationMode(propagationMode);
+    TransformNode.Function<Boolean, Boolean> identity = new TransformNode.Function<Boolean, Boolean>() {
+      @Override
+      public Boolean apply(Boolean input) {
+        return input;
+      }
+    };
+    TransformNode.Function<Integer, Integer> constant = new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        return input;
+      }
+    };
+
+    condition = ValueNode.of(conditionValue);
+    IfNode<Integer> ifNode = new IfNode.Builder<Integer>()
+        .conditionNode(TransformNode.of(identity, condition))
+        .onTrueNode(TransformNode.of(constant, ValueNode.of(1)))
+        .onFalseNode(TransformNode.of(constant, ValueNode.of(0)))
+        .build();
+    ifCallback = BenchmarkSinkCallback.sink(ifNode);
+    ifCallback.await(1);
+
+    main = ValueNode.of(1);
+    TryNode<Integer> tryNode = new TryNode.Builder<Integer>()
+        .mainNode(main)
+        .onExceptionNode(ValueNode.of(0))
+        .build();
+    tryCallback = BenchmarkSinkCallback.sink(tryNode);
+    tryCallback.await(1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    ifCallback.deregister();
+    tryCallback.deregister();
+  }
+
+  @Benchmark
+  public void ifSwitch() {
+    conditionValue = !conditionValue;
+    condition.setValue(conditionValue);
+    ifCallback.await(conditionValue ? 1 : 0);
+  }
+
+  @Benchmark
+  public void trySwitch() {
+    mainFailing = !mainFailing;
+    if (mainFailing) {
+      main.setValue(FAILURE);
+    } else {
+      main.setValue(1);
+    }
+    tryCallback.await(mainFailing ? 0 : 1);
+  }
+}
@@ -0,0 +1,216 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Combines the results of many dependencies with an associative Monoid, such as a sum, min or max. Partial results are
+ * kept in a segment tree over the dependencies, so when a single dependency changes only its path to the root is
+ * recombined, costing O(log n) rather than a scan of every dependency. Dependencies are combined in the order given.
+ * <p/>
+ * Updates to many dependencies at once, such as on activation, recombine only the subtrees containing them, splitting
+ * large subtrees across the common ForkJoinPool.
+ * <p/>
+ * Dependencies can be rewired with addDependency, removeDependency and replaceDependency like any StateNode. The tree is
+ * rebuilt over the new dependencies the next time this node processes, which costs a full O(n) combine.
+ */
+public final class AggregateNode<ValueType> extends StateNode<ValueType> {
+  /**
+   * An associative combine with an identity. combine may be called concurrently for disjoint values.
+   */
+  public static interface Monoid<ValueType> {
+    ValueType identity();
+
+    ValueType combine(ValueType left, ValueType right);
+  }
+
+  public static <ValueType> AggregateNode<ValueType> of(Monoid<ValueType> monoid, Collection<? extends Node<? extends ValueType>> dependencies) {
+    return new AggregateNode<ValueType>(monoid, dependencies);
+  }
+
+  // Updates of at least this many dependencies are recombined with fork/join.
+  static final int PARALLEL_THRESHOLD = 1024;
+  // Subtrees with fewer leaves than this are recombined on the current thread.
+  private static final int SEQUENTIAL_SUBTREE_SIZE = 4096;
+
+  private final Monoid<ValueType> monoid;
+  // Replaced when dependencies change. Only processResult replaces it, so it is stable while processing.
+  private volatile Tree tree;
+
+  public AggregateNode(Monoid<ValueType> monoid, Collection<? extends Node<? extends ValueType>> dependencies) {
+    super(new ArrayList<Node<?>>(dependencies));
+    this.monoid = monoid;
+    this.tree = new Tree(getDependencyVersion(), getDependencies());
+  }
+
+  @Override
+  void onDependencyUpdated(Node<?> dependency) {
+    tree.queue(dependency);
+    super.onDependencyUpdated(dependency);
+  }
+
+  @Override
+  protected ValueType processResult() throws Exception {
+    Tree tree = this.tree;
+    int dependencyVersion = getDependencyVersion();
+    if (tree.dependencyVersion != dependencyVersion) {
+      // Published before reading any leaf, so updates from here on are queued on the new tree. Every change to the
+      // dependencies triggers a process, which sees the new version and rebuilds, however it races with this one.
+      tree = new Tree(dependencyVersion, getDependencies());
+      this.tree = tree;
+      tree.queueAll();
+    }
+    return tree.process();
+  }
+
+  /**
+   * A segment tree over a fixed list of dependencies: the root is 1, the children of i are 2i and 2i + 1, and leaf i is
+   * at leafOffset + i. The values are only touched while processing, so they need no locking.
+   */
+  private final class Tree {
+    // The version of the dependencies the leaves were taken from.
+    private final int dependencyVersion;
+    private final List<Node<?>> leaves;
+    private final Map<Node<?>, Integer> leafIndices;
+    private final int leafOffset;
+    private final Object[] values;
+    private final boolean[] stale;
+
+    // Dependencies updated since they were last read. A dependency is queued at most once until it is read.
+    private final ConcurrentLinkedQueue<Integer> updated = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicIntegerArray queued;
+
+    Tree(int dependencyVersion, List<Node<?>> leaves) {
+      this.dependencyVersion = dependencyVersion;
+      this.leaves = leaves;
+      this.leafIndices = new IdentityHashMap<Node<?>, Integer>(leaves.size());
+      for (int i = 0; i < leaves.size(); ++i) {
+        leafIndices.put(leaves.get(i), i);
+      }
+
+      int leafOffset = 1;
+      while (leafOffset < leaves.size()) {
+        leafOffset <<= 1;
+      }
+      this.leafOffset = leafOffset;
+      this.values = new Object[2 * leafOffset];
+      Arrays.fill(values, monoid.identity());
+      this.stale = new boolean[2 * leafOffset];
+      this.queued = new AtomicIntegerArray(leaves.size());
+    }
+
+    void queue(Node<?> dependency) {
+      Integer index = leafIndices.get(dependency);
+      if (index != null) {
+        queue(index);
+      }
+    }
+
+    private void queue(int index) {
+      if (queued.compareAndSet(index, 0, 1)) {
+        updated.add(index);
+      }
+    }
+
+    void queueAll() {
+      for (int i = 0; i < leaves.size(); ++i) {
+        queue(i);
+      }
+    }
+
+    ValueType process() {
+      List<Integer> indices = new ArrayList<Integer>();
+      Integer index;
+      while ((index = updated.poll()) != null) {
+        // Cleared before reading, so an update racing with the read queues the dependency again.
+        queued.set(index, 0);
+        indices.add(index);
+      }
+
+      try {
+        if (indices.size() < PARALLEL_THRESHOLD) {
+          for (int i : indices) {
+            int position = leafOffset + i;
+            values[position] = leaf(i);
+            for (position >>= 1; position > 0; position >>= 1) {
+              values[position] = combine(position);
+            }
+          }
+        } else {
+          for (int i : indices) {
+            for (int position = leafOffset + i; position > 0 && !stale[position]; position >>= 1) {
+              stale[position] = true;
+            }
+          }
+          ForkJoinPool.commonPool().invoke(new Recombine(this, 1, leafOffset));
+        }
+      } catch (RuntimeException e) {
+        // Read again next time, since the tree may be part way through being updated.
+        for (int i : indices) {
+          queue(i);
+        }
+        throw e;
+      }
+      return root();
+    }
+
+    private Object leaf(int index) {
+      return leaves.get(index).get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValueType root() {
+      return (ValueType) values[1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValueType combine(int position) {
+      return monoid.combine((ValueType) values[2 * position], (ValueType) values[2 * position + 1]);
+    }
+
+    private void recombine(int position) {
+      if (!stale[position]) {
+        return;
+      }
+      if (position >= leafOffset) {
+        values[position] = leaf(position - leafOffset);
+      } else {
+        recombine(2 * position);
+        recombine(2 * position + 1);
+        values[position] = combine(position);
+      }
+      stale[position] = false;
+    }
+  }
+
+  /**
+   * Recombines the stale nodes under position, which covers width leaves.
+   */
+  private static final class Recombine extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient AggregateNode<?>.Tree tree;
+    private final int position;
+    private final int width;
+
+    Recombine(AggregateNode<?>.Tree tree, int position, int width) {
+      this.tree = tree;
+      this.position = position;
+      this.width = width;
+    }
+
+    @Override
+    protected void compute() {
+      if (width >= SEQUENTIAL_SUBTREE_SIZE && tree.stale[2 * position] && tree.stale[2 * position + 1]) {
+        invokeAll(new Recombine(tree, 2 * position, width / 2), new Recombine(tree, 2 * position + 1, width / 2));
+        tree.values[position] = tree.combine(position);
+        tree.stale[position] = false;
+      } else {
+        tree.recombine(position);
+      }
+    }
+  }
+}
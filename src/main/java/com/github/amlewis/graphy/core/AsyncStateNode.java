@@ -0,0 +1,199 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * StateNode whose result is computed asynchronously, for processing that waits on I/O such as a database or RPC call.
+ * processResultAsync only has to start the work, so no processing thread is held while the stage is outstanding, and
+ * the result is set from whichever thread completes it.
+ * <p/>
+ * Every call to processResultAsync starts a new generation. Only the latest generation's stage can set a result, so
+ * when dependencies change while a stage is outstanding the stage is superseded by the next one, and is cancelled if it
+ * supports it. Updates that arrive while a stage is outstanding but leave every dependency's result as it was when the
+ * stage started, such as the repeated notifications during activation, keep the outstanding stage instead. Cancelling
+ * the node, which also happens when a dependency becomes unready or exceptional and when the node is deactivated,
+ * supersedes the outstanding stage without starting another.
+ * <p/>
+ * With a ResultCache (see StateNode.setResultCache), a cached result is used without calling processResultAsync, and a
+ * stage's result is stored when it completes, as long as the dependencies haven't changed since it started.
+ * <p/>
+ * NodeMetrics and GraphProfiler processing times only cover starting the stage.
+ */
+public abstract class AsyncStateNode<ResultType> extends StateNode<ResultType> {
+  private final AtomicLong generation = new AtomicLong(0);
+  private final AtomicReference<Outstanding<ResultType>> inFlight = new AtomicReference<Outstanding<ResultType>>();
+
+  public AsyncStateNode(Node<?>... dependencies) {
+    super(dependencies);
+  }
+
+  public AsyncStateNode(Collection<Node<?>> dependencies) {
+    super(dependencies);
+  }
+
+  /**
+   * Starts computing this node's result. Dependencies should be read before returning, since they may have changed by
+   * the time the stage completes.
+   * @return a stage completing with the result, or exceptionally
+   * @throws Exception - any exception that occurs while starting
+   */
+  protected abstract CompletionStage<ResultType> processResultAsync() throws Exception;
+
+  /**
+   * Computes the result synchronously, by waiting for processResultAsync's stage. The node's own processing never
+   * calls this, since it doesn't block; it is for callers that want this node's computation run directly.
+   */
+  @Override
+  protected final ResultType processResult() throws Exception {
+    CompletionStage<ResultType> stage = processResultAsync();
+    try {
+      return stage.toCompletableFuture().get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  /**
+   * A cached result supersedes any outstanding stage.
+   */
+  @Override
+  void publishCached(NodeResult<ResultType> cached) {
+    generation.incrementAndGet();
+    cancelStage(inFlight.getAndSet(null), false);
+    super.publishCached(cached);
+  }
+
+  @Override
+  void compute(ResultCache.Lookup<ResultType> lookup) {
+    List<Node<?>> dependencies = getDependencies();
+    NodeResult<?>[] inputs = new NodeResult<?>[dependencies.size()];
+    for (int i = 0; i < inputs.length; ++i) {
+      inputs[i] = dependencies.get(i).getResult();
+    }
+    Outstanding<ResultType> previous = inFlight.get();
+    if (previous != null && previous.generation == generation.get() && previous.hasInputs(dependencies, inputs)) {
+      // Still computing from the same inputs.
+      return;
+    }
+
+    final long current = generation.incrementAndGet();
+    if (previous != null && inFlight.compareAndSet(previous, null)) {
+      cancelStage(previous, false);
+    }
+
+    CompletionStage<ResultType> stage;
+    try {
+      stage = processResultAsync();
+    } catch (Exception e) {
+      if (!shouldCancel() && generation.get() == current) {
+        setProcessException(e);
+      }
+      return;
+    }
+
+    if (stage == null) {
+      if (!shouldCancel() && generation.get() == current) {
+        setProcessException(new NullPointerException("processResultAsync returned null"));
+      }
+      return;
+    }
+
+    Outstanding<ResultType> outstanding = new Outstanding<ResultType>(current, stage, dependencies, inputs);
+    inFlight.set(outstanding);
+    // The node may have been cancelled before the stage was published.
+    if (generation.get() != current && inFlight.compareAndSet(outstanding, null)) {
+      cancelStage(outstanding, false);
+      return;
+    }
+
+    final ResultCache.Lookup<ResultType> stageLookup = lookup;
+    stage.whenComplete(new BiConsumer<ResultType, Throwable>() {
+      @Override
+      public void accept(ResultType result, Throwable throwable) {
+        onStageComplete(current, stageLookup, result, throwable);
+      }
+    });
+  }
+
+  private void onStageComplete(long stageGeneration, ResultCache.Lookup<ResultType> lookup, ResultType result, Throwable throwable) {
+    Outstanding<ResultType> outstanding = inFlight.get();
+    if (generation.get() != stageGeneration) {
+      return;
+    }
+    if (outstanding != null && outstanding.generation == stageGeneration) {
+      inFlight.compareAndSet(outstanding, null);
+    }
+
+    if (throwable instanceof CompletionException && throwable.getCause() != null) {
+      throwable = throwable.getCause();
+    }
+    if (throwable == null) {
+      if (lookup != null) {
+        lookup.store(result);
+      }
+      setResult(result);
+    } else if (throwable instanceof Exception) {
+      setProcessException((Exception) throwable);
+    } else {
+      setProcessException(new CompletionException(throwable));
+    }
+  }
+
+  /**
+   * Also supersedes the outstanding stage, if any, cancelling it if it supports it.
+   */
+  @Override
+  public void cancel(boolean mayInterruptIfRunning) {
+    generation.incrementAndGet();
+    super.cancel(mayInterruptIfRunning);
+    cancelStage(inFlight.getAndSet(null), mayInterruptIfRunning);
+  }
+
+  private static void cancelStage(Outstanding<?> outstanding, boolean mayInterruptIfRunning) {
+    if (outstanding == null) {
+      return;
+    }
+    try {
+      outstanding.stage.toCompletableFuture().cancel(mayInterruptIfRunning);
+    } catch (UnsupportedOperationException e) {
+      // The stage can't be cancelled, so its result will just be ignored.
+    }
+  }
+
+  /**
+   * A stage that hasn't completed yet, and the dependencies and their results when it was started.
+   */
+  private static final class Outstanding<ResultType> {
+    private final long generation;
+    private final CompletionStage<ResultType> stage;
+    private final List<Node<?>> dependencies;
+    private final NodeResult<?>[] inputs;
+
+    Outstanding(long generation, CompletionStage<ResultType> stage, List<Node<?>> dependencies, NodeResult<?>[] inputs) {
+      this.generation = generation;
+      this.stage = stage;
+      this.dependencies = dependencies;
+      this.inputs = inputs;
+    }
+
+    boolean hasInputs(List<Node<?>> dependencies, NodeResult<?>[] inputs) {
+      if (dependencies.size() != this.dependencies.size()) {
+        return false;
+      }
+      for (int i = 0; i < inputs.length; ++i) {
+        if (dependencies.get(i) != this.dependencies.get(i) || inputs[i] != this.inputs[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
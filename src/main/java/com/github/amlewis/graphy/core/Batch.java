@@ -0,0 +1,64 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ValueNode writes staged by a thread between Graphy.beginBatch() and Graphy.commitBatch(). Only the last write to each
+ * node is kept. Each nesting level stages into its own map, which is merged into the level below when it commits and
+ * discarded when it aborts, so an aborted inner batch doesn't affect the batches around it.
+ */
+final class Batch {
+  private static final ThreadLocal<Batch> currentBatch = new ThreadLocal<Batch>();
+
+  // Innermost level first.
+  private final ArrayDeque<Map<Node<?>, NodeResult<?>>> levels = new ArrayDeque<Map<Node<?>, NodeResult<?>>>();
+
+  static Batch current() {
+    return currentBatch.get();
+  }
+
+  static void begin() {
+    Batch batch = currentBatch.get();
+    if (batch == null) {
+      batch = new Batch();
+      currentBatch.set(batch);
+    }
+    batch.levels.push(new LinkedHashMap<Node<?>, NodeResult<?>>());
+  }
+
+  static void commit() {
+    Batch batch = currentBatch.get();
+    if (batch == null) {
+      throw new IllegalStateException("No batch in progress!");
+    }
+    Map<Node<?>, NodeResult<?>> stagedResults = batch.levels.pop();
+    if (batch.levels.isEmpty()) {
+      currentBatch.remove();
+      if (!stagedResults.isEmpty()) {
+        Graphy.getInstance().getPropagationScheduler().setResults(stagedResults);
+      }
+    } else {
+      // Nodes the enclosing level already wrote keep their position there.
+      batch.levels.peek().putAll(stagedResults);
+    }
+  }
+
+  static void abort() {
+    Batch batch = currentBatch.get();
+    if (batch == null) {
+      // Called from Graphy.batch's finally, so don't hide the exception that got us here.
+      return;
+    }
+    batch.levels.pop();
+    if (batch.levels.isEmpty()) {
+      currentBatch.remove();
+    }
+  }
+
+  <ResultType> void stage(Node<ResultType> node, NodeResult<ResultType> result) {
+    // A node written again keeps its original position, so nodes are applied in the order they were first written.
+    levels.peek().put(node, result);
+  }
+}
@@ -0,0 +1,165 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Default PropagationScheduler. Rather than submitting one task per parent to an executor, updated nodes are placed on
+ * a shared run queue and a small, fixed set of worker threads drains the queue in batches, calling onDependencyUpdated
+ * on each parent directly. A node is on the queue at most once at any given time, so repeated
+ * updates to a node that hasn't been drained yet are coalesced into a single notification.
+ * <p/>
+ * Nodes that prefer inline dispatch (see Graphy.DispatchMode) are processed on the updating thread instead of their
+ * ExecutorService, and the parents of a node processed that way are notified on the same thread rather than through
+ * the run queue, so a chain of cheap nodes is processed in a single pass. MAX_INLINE_DEPTH bounds how deep such a chain
+ * goes on one thread before the rest is handed off as usual.
+ */
+class BatchedPropagationScheduler extends PropagationScheduler {
+  static final int DEFAULT_BATCH_SIZE = 64;
+  static final int MAX_INLINE_DEPTH = 32;
+
+  // How many inline processes and notifications are on the current thread's stack.
+  private static final ThreadLocal<int[]> inlineDepth = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private final LinkedBlockingQueue<Node<?>> runQueue = new LinkedBlockingQueue<Node<?>>();
+  private final int batchSize;
+  private final Thread[] workers;
+  private volatile boolean shutdown = false;
+
+  BatchedPropagationScheduler() {
+    this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), DEFAULT_BATCH_SIZE);
+  }
+
+  BatchedPropagationScheduler(int threadCount, int batchSize) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("threadCount must be positive!");
+    }
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be positive!");
+    }
+    this.batchSize = batchSize;
+    this.workers = new Thread[threadCount];
+    ThreadFactory threadFactory = new WorkerThreadFactory("graphy-propagation");
+    for (int i = 0; i < threadCount; ++i) {
+      workers[i] = threadFactory.newThread(new Worker());
+      workers[i].start();
+    }
+  }
+
+  @Override
+  <ResultType> void setResult(Node<ResultType> node, NodeResult<ResultType> result) {
+    if (node.applyResult(result)) {
+      notifyParents(node);
+    }
+  }
+
+  /**
+   * Delivers notifications for the whole batch on the calling thread, so downstream nodes are updated back to back and
+   * their refreshes coalesce, rather than being spread across the worker threads.
+   */
+  @Override
+  void setResults(Map<Node<?>, NodeResult<?>> results) {
+    List<Node<?>> changed = new ArrayList<Node<?>>(results.size());
+    for (Map.Entry<Node<?>, NodeResult<?>> entry : results.entrySet()) {
+      if (applyResult(entry.getKey(), entry.getValue())) {
+        changed.add(entry.getKey());
+      }
+    }
+    for (Node<?> node : changed) {
+      node.deliverToParents();
+    }
+  }
+
+  @Override
+  boolean appliesImmediately(Node<?> node) {
+    return true;
+  }
+
+  /**
+   * Marks node as needing its parents notified. If the node is already waiting on the run queue this is a no-op.
+   */
+  @Override
+  void notifyParents(Node<?> node) {
+    int[] depth = inlineDepth.get();
+    if (depth[0] > 0 && depth[0] < MAX_INLINE_DEPTH && !Node.holdsActivationLock()) {
+      // node was processed inline, so carry on down the chain on this thread.
+      ++depth[0];
+      try {
+        node.deliverToParents();
+      } finally {
+        --depth[0];
+      }
+      return;
+    }
+    if (node.markNotifyQueued()) {
+      runQueue.offer(node);
+    }
+  }
+
+  @Override
+  void update(ProcessingNode<?> node) {
+    if (node.prefersInline()) {
+      int[] depth = inlineDepth.get();
+      if (depth[0] < MAX_INLINE_DEPTH && !Node.holdsActivationLock()) {
+        ++depth[0];
+        try {
+          node.refreshInline();
+        } finally {
+          --depth[0];
+        }
+        return;
+      }
+    }
+    node.refresh();
+  }
+
+  /**
+   * Stops the worker threads once the run queue has been drained.
+   */
+  @Override
+  void shutdown() {
+    shutdown = true;
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+  }
+
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      List<Node<?>> batch = new ArrayList<Node<?>>(batchSize);
+      while (true) {
+        try {
+          if (shutdown && runQueue.isEmpty()) {
+            return;
+          }
+          batch.add(runQueue.take());
+        } catch (InterruptedException e) {
+          continue;
+        }
+        runQueue.drainTo(batch, batchSize - 1);
+
+        for (int i = 0; i < batch.size(); ++i) {
+          Node<?> node = batch.get(i);
+          // Clear the flag before delivering so an update racing with delivery re-queues the node.
+          node.clearNotifyQueued();
+          try {
+            node.deliverToParents();
+          } catch (RuntimeException e) {
+            reportUncaughtException(e);
+          }
+        }
+        batch.clear();
+      }
+    }
+  }
+
+}
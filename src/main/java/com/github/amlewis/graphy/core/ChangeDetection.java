@@ -0,0 +1,76 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * Decides whether a new result is the same as a node's current one. Unchanged results are dropped without notifying
+ * parents, and SinkCallbacks aren't called for them.
+ * <p/>
+ * EQUALS is the default, but calls equals() on every update, which for large collections can cost more than computing
+ * them. IDENTITY only compares references, VERSION compares Versioned stamps, and subclasses can supply any other
+ * equivalence. Set on a single node with Node.setChangeDetection, or for every node with
+ * Graphy.setDefaultChangeDetection.
+ */
+public abstract class ChangeDetection<ValueType> {
+  /**
+   * Treats every distinct reference as a change. Results created with NodeResult.of share one instance for null,
+   * Booleans and Integers from -128 to 127, so setting an equal but distinct boxed Integer in that range again counts as
+   * unchanged.
+   */
+  public static final ChangeDetection<Object> IDENTITY = new ChangeDetection<Object>() {
+    @Override
+    protected boolean isEquivalent(Object previous, Object next) {
+      return false;
+    }
+  };
+
+  public static final ChangeDetection<Object> EQUALS = new ChangeDetection<Object>() {
+    @Override
+    protected boolean isEquivalent(Object previous, Object next) {
+      return previous.equals(next);
+    }
+  };
+
+  /**
+   * Per node only, on nodes whose results are Versioned. It can't be Graphy's default, since other nodes' results aren't.
+   */
+  public static final ChangeDetection<Versioned> VERSION = new ChangeDetection<Versioned>() {
+    @Override
+    protected boolean isEquivalent(Versioned previous, Versioned next) {
+      return previous.getVersion() == next.getVersion();
+    }
+  };
+
+  /**
+   * Only called for two distinct, non-null values.
+   */
+  protected abstract boolean isEquivalent(ValueType previous, ValueType next);
+
+  final boolean isUnchanged(NodeResult<? extends ValueType> previous, NodeResult<? extends ValueType> next) {
+    if (previous == next) {
+      return true;
+    }
+    if (previous == null || next == null) {
+      return false;
+    }
+
+    if (previous.isException() || next.isException()) {
+      return previous.isException() && next.isException() && previous.getException().equals(next.getException());
+    }
+
+    ValueType previousValue = previous.getResult();
+    ValueType nextValue = next.getResult();
+    if (previousValue == nextValue) {
+      return true;
+    }
+    if (previousValue == null || nextValue == null) {
+      return false;
+    }
+    return isEquivalent(previousValue, nextValue);
+  }
+
+  /**
+   * Implemented by values that carry a stamp which changes whenever they do, for use with ChangeDetection.VERSION.
+   */
+  public interface Versioned {
+    long getVersion();
+  }
+}
@@ -0,0 +1,50 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Passes on its input's result only once the input has stopped changing for the given delay. A burst of updates
+ * produces a single result, delay after the last update in the burst.
+ */
+public final class DebounceNode<ResultType> extends FlowControlNode<ResultType> {
+  public static <ResultType> DebounceNode<ResultType> of(Node<ResultType> input, long delay, TimeUnit unit) {
+    return new DebounceNode<ResultType>(input, delay, unit);
+  }
+
+  private final long delayNanos;
+  private final AtomicBoolean timerPending = new AtomicBoolean(false);
+  private volatile long lastUpdateNanos;
+
+  public DebounceNode(Node<ResultType> input, long delay, TimeUnit unit) {
+    super(input);
+    this.delayNanos = unit.toNanos(delay);
+  }
+
+  @Override
+  void onDependencyUpdated(Node<?> dependency) {
+    lastUpdateNanos = System.nanoTime();
+    // Rather than rescheduling on every update, a single pending timer re-arms itself until the input goes quiet.
+    if (timerPending.compareAndSet(false, true)) {
+      schedule(timer, delayNanos);
+    }
+  }
+
+  private final Runnable timer = new Runnable() {
+    @Override
+    public void run() {
+      long remainingNanos = lastUpdateNanos + delayNanos - System.nanoTime();
+      if (remainingNanos > 0) {
+        schedule(this, remainingNanos);
+      } else {
+        timerPending.set(false);
+        updateFromTimer();
+      }
+    }
+  };
+
+  @Override
+  void resetTimers() {
+    timerPending.set(false);
+  }
+}
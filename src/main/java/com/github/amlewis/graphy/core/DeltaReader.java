@@ -0,0 +1,43 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.List;
+
+/**
+ * Tracks how far a node has read its IncrementalMap input. Only used from the owning node's processResult, so it
+ * doesn't need to be thread safe.
+ */
+final class DeltaReader<KeyType, ValueType> {
+  private IncrementalMap<KeyType, ValueType> lastRead = null;
+  private long lastVersion = -1;
+
+  /**
+   * @return the changes since the last read, or null if the reader has to start again from a snapshot, taken with
+   * readSnapshot.
+   */
+  List<IncrementalMap.Change<KeyType, ValueType>> read(IncrementalMap<KeyType, ValueType> input) {
+    if (lastRead == null || !lastRead.isSameMap(input)) {
+      return null;
+    }
+    List<IncrementalMap.Change<KeyType, ValueType>> changes = input.changesSince(lastVersion);
+    if (changes != null) {
+      lastRead = input;
+      lastVersion = Math.max(lastVersion, input.getVersion());
+    }
+    return changes;
+  }
+
+  IncrementalMap.Snapshot<KeyType, ValueType> readSnapshot(IncrementalMap<KeyType, ValueType> input) {
+    IncrementalMap.Snapshot<KeyType, ValueType> snapshot = input.snapshot();
+    lastRead = input;
+    lastVersion = snapshot.getVersion();
+    return snapshot;
+  }
+
+  /**
+   * Forgets what has been read, so the next read starts from a snapshot. For when applying changes failed part way.
+   */
+  void reset() {
+    lastRead = null;
+    lastVersion = -1;
+  }
+}
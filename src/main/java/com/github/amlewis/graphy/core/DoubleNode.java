@@ -0,0 +1,11 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * Implemented by nodes that can hand out their double result without boxing it.
+ */
+public interface DoubleNode {
+  /**
+   * Unboxed equivalent of Node.get().
+   */
+  double getDouble();
+}
@@ -0,0 +1,18 @@
+package com.github.amlewis.graphy.core;
+
+final class DoubleResult extends PrimitiveResult<Double> {
+  @Override
+  Double box(long bits) {
+    return Double.valueOf(Double.longBitsToDouble(bits));
+  }
+
+  @Override
+  long unbox(Double value) {
+    return Double.doubleToRawLongBits(value.doubleValue());
+  }
+
+  double getDouble() {
+    long bits = getBits();
+    return Double.longBitsToDouble(bits);
+  }
+}
@@ -0,0 +1,49 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * StateNode for doubles. Implement processDouble() instead of processResult(), and read double dependencies with doubleOf() to
+ * avoid boxing on the way in as well as on the way out.
+ */
+public abstract class DoubleStateNode extends PrimitiveStateNode<Double, DoubleResult> implements DoubleNode {
+  public DoubleStateNode(Node<?>... dependencies) {
+    this(Arrays.asList(dependencies));
+  }
+
+  public DoubleStateNode(Collection<Node<?>> dependencies) {
+    super(new DoubleResult(), dependencies);
+  }
+
+  /**
+   * @return double - Returns result of processing
+   * @throws Exception - any exception that occurs during processing
+   */
+  protected abstract double processDouble() throws Exception;
+
+  @Override
+  protected final Double processResult() throws Exception {
+    return processDouble();
+  }
+
+  /**
+   * Reads dependency without boxing if it is a DoubleNode.
+   */
+  protected static double doubleOf(Node<Double> dependency) {
+    if (dependency instanceof DoubleNode) {
+      return ((DoubleNode) dependency).getDouble();
+    }
+    return dependency.get();
+  }
+
+  @Override
+  final long processBits() throws Exception {
+    return Double.doubleToRawLongBits(processDouble());
+  }
+
+  @Override
+  public double getDouble() {
+    return result.getDouble();
+  }
+}
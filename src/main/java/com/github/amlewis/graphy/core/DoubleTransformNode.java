@@ -0,0 +1,24 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * TransformNode for doubles. If the node being transformed is a DoubleNode, the whole transform runs without boxing.
+ */
+public final class DoubleTransformNode extends DoubleStateNode {
+  public static DoubleTransformNode of(TransformNode.DoubleFunction transform, Node<Double> nodeToTransform) {
+    return new DoubleTransformNode(transform, nodeToTransform);
+  }
+
+  private final TransformNode.DoubleFunction transform;
+  private final Node<Double> nodeToTransform;
+
+  public DoubleTransformNode(TransformNode.DoubleFunction transform, Node<Double> nodeToTransform) {
+    super(nodeToTransform);
+    this.transform = transform;
+    this.nodeToTransform = nodeToTransform;
+  }
+
+  @Override
+  protected double processDouble() throws Exception {
+    return transform.apply(doubleOf(nodeToTransform));
+  }
+}
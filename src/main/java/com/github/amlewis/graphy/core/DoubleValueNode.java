@@ -0,0 +1,33 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * ValueNode for doubles. Setting a value doesn't allocate, and setting the current value again is a no-op.
+ */
+public class DoubleValueNode extends PrimitiveValueNode<Double, DoubleResult> implements DoubleNode {
+  public static DoubleValueNode of(double value) {
+    return new DoubleValueNode(value);
+  }
+
+  public DoubleValueNode() {
+    super(new DoubleResult());
+  }
+
+  public DoubleValueNode(double value) {
+    this();
+    setValue(value);
+  }
+
+  public DoubleValueNode(Exception exception) {
+    this();
+    setValue(exception);
+  }
+
+  public void setValue(double value) {
+    setBits(Double.doubleToRawLongBits(value));
+  }
+
+  @Override
+  public double getDouble() {
+    return result.getDouble();
+  }
+}
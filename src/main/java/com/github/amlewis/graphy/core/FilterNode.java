@@ -0,0 +1,45 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incremental filter: keeps the entries of an IncrementalMap that match predicate, only testing the entries that
+ * changed.
+ */
+public final class FilterNode<KeyType, ValueType> extends IncrementalMapNode<KeyType, ValueType, KeyType, ValueType> {
+  public static interface Predicate<KeyType, ValueType> {
+    boolean apply(KeyType key, ValueType value);
+  }
+
+  public static <KeyType, ValueType> FilterNode<KeyType, ValueType> of(Predicate<KeyType, ValueType> predicate, Node<IncrementalMap<KeyType, ValueType>> input) {
+    return new FilterNode<KeyType, ValueType>(predicate, input, IncrementalMap.DEFAULT_LOG_CAPACITY);
+  }
+
+  private final Predicate<KeyType, ValueType> predicate;
+
+  public FilterNode(Predicate<KeyType, ValueType> predicate, Node<IncrementalMap<KeyType, ValueType>> input, int logCapacity) {
+    super(input, logCapacity);
+    this.predicate = predicate;
+  }
+
+  @Override
+  void rebuild(Map<KeyType, ValueType> contents) {
+    Map<KeyType, ValueType> matching = new HashMap<KeyType, ValueType>();
+    for (Map.Entry<KeyType, ValueType> entry : contents.entrySet()) {
+      if (predicate.apply(entry.getKey(), entry.getValue())) {
+        matching.put(entry.getKey(), entry.getValue());
+      }
+    }
+    output.reset(matching);
+  }
+
+  @Override
+  void apply(IncrementalMap.Change<KeyType, ValueType> change) {
+    if (!change.isRemove() && predicate.apply(change.getKey(), change.getValue())) {
+      output.put(change.getKey(), change.getValue());
+    } else {
+      output.remove(change.getKey());
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package com.github.amlewis.graphy.core;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -10,7 +12,7 @@ public final class FirstValueNode<ResultType> extends Node<ResultType> {
     return new FirstValueNode<ResultType>(child);
   }
 
-  private Node<ResultType> child;
+  private volatile Node<ResultType> child;
   private AtomicBoolean resultSet = new AtomicBoolean(false);
 
   public FirstValueNode(Node<ResultType> child) {
@@ -19,19 +21,43 @@ public final class FirstValueNode<ResultType> extends Node<ResultType> {
 
   @Override
   public void activate() {
+    // The child is released once the first result is taken, after which there is nothing left to activate.
+    Node<ResultType> child = this.child;
+    if (child == null || resultSet.get()) {
+      return;
+    }
     child.activate(this);
     onDependencyUpdated(child);
   }
 
+  @Override
+  protected void deactivate() {
+    Node<ResultType> child = this.child;
+    if (child != null) {
+      child.deactivate(this);
+    }
+  }
+
+  /**
+   * Empty once the first result has been taken, since the child is released then.
+   */
+  @Override
+  List<Node<?>> getDependencies() {
+    Node<ResultType> child = this.child;
+    return child == null ? Collections.<Node<?>>emptyList() : Collections.<Node<?>>singletonList(child);
+  }
+
   @Override
   void onDependencyUpdated(Node<?> dependency) {
-    if (!resultSet.get()) {
-      NodeResult<ResultType> result = child.getResult();
-      if (result != null && resultSet.compareAndSet(false, true)) {
-        setResult(result);
-        child.deactivate(this);
-        child = null;
-      }
+    Node<ResultType> child = this.child;
+    if (child == null || resultSet.get()) {
+      return;
+    }
+    NodeResult<ResultType> result = child.getResult();
+    if (result != null && resultSet.compareAndSet(false, true)) {
+      setResult(result);
+      child.deactivate(this);
+      this.child = null;
     }
   }
 }
@@ -0,0 +1,82 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base for nodes that pass their input's result through, but limit how often it is passed on. Subclasses decide when
+ * to call update(), usually from a task on Graphy's shared timer, and processing always publishes the input's latest
+ * result.
+ * <p/>
+ * Timer tasks are scheduled with schedule() and call updateFromTimer() rather than update(). Deactivating cancels the
+ * pending timer and stops any task that is already running from processing the node, then calls resetTimers() so
+ * subclasses can clear their timer state.
+ */
+abstract class FlowControlNode<ResultType> extends ProcessingNode<ResultType> {
+  private final Node<ResultType> input;
+  // Guarded by this.
+  private boolean timersEnabled = false;
+  private ScheduledFuture<?> timer = null;
+
+  FlowControlNode(Node<ResultType> input) {
+    this.input = input;
+  }
+
+  @Override
+  protected void activate() {
+    synchronized (this) {
+      // Also reset here, since a late notification after deactivating may have left timer state behind.
+      resetTimers();
+      timersEnabled = true;
+    }
+    input.activate(this);
+    onDependencyUpdated(input);
+  }
+
+  @Override
+  protected void deactivate() {
+    synchronized (this) {
+      timersEnabled = false;
+      if (timer != null) {
+        timer.cancel(false);
+        timer = null;
+      }
+      resetTimers();
+    }
+    cancel();
+    input.deactivate(this);
+  }
+
+  /**
+   * Clears any state describing a pending timer. Called with this node's lock held.
+   */
+  abstract void resetTimers();
+
+  /**
+   * Runs task on Graphy's shared timer after delayNanos, unless this node is inactive. Replaces any timer scheduled
+   * before, so subclasses should only have one pending at a time.
+   */
+  final synchronized void schedule(Runnable task, long delayNanos) {
+    if (timersEnabled) {
+      timer = Graphy.getInstance().getTimerExecutorService().schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  final synchronized void updateFromTimer() {
+    if (timersEnabled) {
+      update();
+    }
+  }
+
+  @Override
+  void process() {
+    setResult(input.getResult());
+  }
+
+  @Override
+  List<Node<?>> getDependencies() {
+    return Collections.<Node<?>>singletonList(input);
+  }
+}
@@ -0,0 +1,558 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Profiles how a single change propagates through the graph. profile() runs the change, records when each node
+ * affected by it was processed and when its result changed, and waits for the change to reach every sink. The returned
+ * Profile holds per-node timings and the critical path: the chain of nodes, from the changed node to the last sink to
+ * finish, that each waited on the one before it. Profiles can be exported as Graphviz DOT or JSON.
+ * <p/>
+ * Only one profile runs at a time. While none is running, profiling costs a single volatile read per result and process.
+ */
+public final class GraphProfiler {
+  // Consecutive checks, a millisecond apart, that must find nothing in flight before a profile is considered finished.
+  private static final int QUIET_POLLS = 3;
+
+  private static volatile Recording activeRecording = null;
+
+  static Recording activeRecording() {
+    return activeRecording;
+  }
+
+  private GraphProfiler() {
+
+  }
+
+  public static <ValueType> Profile profile(final ValueNode<ValueType> source, final ValueType value, long timeout, TimeUnit unit) throws InterruptedException {
+    return profile(source, new Runnable() {
+      @Override
+      public void run() {
+        source.setValue(value);
+      }
+    }, timeout, unit);
+  }
+
+  /**
+   * Runs change, which should change source's result, and records its propagation until it has reached every sink that
+   * depends on source and nothing affected by it is still waiting to be processed, or until timeout. Sinks whose input
+   * doesn't change are never reached, so a profile of a change that is filtered out along the way always waits for the
+   * full timeout. See Profile.isComplete().
+   */
+  public static synchronized Profile profile(Node<?> source, Runnable change, long timeout, TimeUnit unit) throws InterruptedException {
+    Recording recording = new Recording(source);
+    activeRecording = recording;
+    boolean complete;
+    try {
+      recording.start();
+      change.run();
+      complete = recording.awaitSinks(timeout, unit);
+    } finally {
+      activeRecording = null;
+    }
+    return recording.toProfile(complete);
+  }
+
+  /**
+   * Mutable timings for a single node, while recording. All times are relative to the start of the recording, and -1
+   * if they never happened.
+   */
+  private static final class Timing {
+    private final Node<?> node;
+    private final int id;
+    private final boolean affected;
+    private final List<Timing> dependencies = new ArrayList<Timing>();
+    private final AtomicLong resultNanos = new AtomicLong(-1);
+    private final AtomicLong firstProcessStartNanos = new AtomicLong(-1);
+    private final AtomicLong lastProcessStartNanos = new AtomicLong(-1);
+    private final AtomicLong lastProcessEndNanos = new AtomicLong(-1);
+    private final AtomicLong processingNanos = new AtomicLong(0);
+    private final AtomicLong processCount = new AtomicLong(0);
+    // Whether an update has been requested but hasn't started processing, and whether the node is processing.
+    private volatile boolean pending = false;
+    private volatile boolean processing = false;
+
+    Timing(Node<?> node, int id, boolean affected) {
+      this.node = node;
+      this.id = id;
+      this.affected = affected;
+    }
+
+    /**
+     * @return when parents could first act on this node's final state: when its result last changed, or if it didn't
+     * change, when it finished processing.
+     */
+    long completionNanos() {
+      long resultNanos = this.resultNanos.get();
+      return resultNanos >= 0 ? resultNanos : lastProcessEndNanos.get();
+    }
+  }
+
+  static final class Recording {
+    private final Timing source;
+    private final Map<Node<?>, Timing> timings = new IdentityHashMap<Node<?>, Timing>();
+    private final List<Timing> order = new ArrayList<Timing>();
+    private final Set<Node<?>> pendingSinks = Collections.newSetFromMap(new IdentityHashMap<Node<?>, Boolean>());
+    private final CountDownLatch sinksReached;
+    private volatile long startNanos = 0;
+    private long endNanos = 0;
+
+    Recording(Node<?> source) {
+      // Everything above source can be affected by the change.
+      this.source = add(source, true);
+      for (int i = 0; i < order.size(); ++i) {
+        for (Node<?> parent : order.get(i).node.getParents()) {
+          if (!timings.containsKey(parent)) {
+            add(parent, true);
+          }
+        }
+      }
+
+      // Then pull in every other input of the affected nodes, so the exported graph shows what each node depends on.
+      for (int i = 0; i < order.size(); ++i) {
+        Timing timing = order.get(i);
+        for (Node<?> dependency : timing.node.getDependencies()) {
+          Timing dependencyTiming = timings.get(dependency);
+          if (dependencyTiming == null) {
+            dependencyTiming = add(dependency, false);
+          }
+          timing.dependencies.add(dependencyTiming);
+        }
+      }
+
+      for (Timing timing : order) {
+        if (timing.affected && timing.node.isSink()) {
+          pendingSinks.add(timing.node);
+        }
+      }
+      sinksReached = new CountDownLatch(pendingSinks.size());
+    }
+
+    private Timing add(Node<?> node, boolean affected) {
+      Timing timing = new Timing(node, order.size(), affected);
+      timings.put(node, timing);
+      order.add(timing);
+      return timing;
+    }
+
+    void start() {
+      startNanos = System.nanoTime();
+    }
+
+    /**
+     * In BATCHED mode a sink can be reached by a partial update before the rest of the change has arrived, so once every
+     * sink has been reached this also waits for the affected nodes to go quiet.
+     */
+    boolean awaitSinks(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      boolean complete = sinksReached.await(timeout, unit);
+      int quietPolls = 0;
+      while (complete && quietPolls < QUIET_POLLS) {
+        if (isQuiet()) {
+          ++quietPolls;
+        } else {
+          quietPolls = 0;
+        }
+        if (System.nanoTime() - deadline >= 0) {
+          complete = false;
+        } else {
+          Thread.sleep(1);
+        }
+      }
+      endNanos = System.nanoTime();
+      return complete;
+    }
+
+    private boolean isQuiet() {
+      for (Timing timing : order) {
+        if (timing.affected && (timing.pending || timing.processing || timing.node.isNotifyQueued())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void updateRequested(Node<?> node) {
+      Timing timing = timings.get(node);
+      if (timing != null) {
+        timing.pending = true;
+      }
+    }
+
+    void processStarted(Node<?> node) {
+      Timing timing = timings.get(node);
+      if (timing != null) {
+        timing.processing = true;
+        timing.pending = false;
+      }
+    }
+
+    void resultChanged(Node<?> node) {
+      Timing timing = timings.get(node);
+      if (timing != null) {
+        raise(timing.resultNanos, System.nanoTime() - startNanos);
+      }
+    }
+
+    void processed(Node<?> node, long start, long end) {
+      Timing timing = timings.get(node);
+      if (timing == null) {
+        return;
+      }
+      timing.processing = false;
+      // A process that started before the change can't have been caused by it.
+      if (start < startNanos) {
+        return;
+      }
+      long relativeStart = start - startNanos;
+      timing.firstProcessStartNanos.compareAndSet(-1, relativeStart);
+      raise(timing.lastProcessStartNanos, relativeStart);
+      raise(timing.lastProcessEndNanos, end - startNanos);
+      timing.processingNanos.addAndGet(end - start);
+      timing.processCount.incrementAndGet();
+
+      if (node.isSink()) {
+        synchronized (pendingSinks) {
+          if (pendingSinks.remove(node)) {
+            sinksReached.countDown();
+          }
+        }
+      }
+    }
+
+    private static void raise(AtomicLong value, long candidate) {
+      while (true) {
+        long current = value.get();
+        if (current >= candidate || value.compareAndSet(current, candidate)) {
+          return;
+        }
+      }
+    }
+
+    Profile toProfile(boolean complete) {
+      Set<Timing> critical = Collections.newSetFromMap(new IdentityHashMap<Timing, Boolean>());
+      List<Integer> criticalPath = new ArrayList<Integer>();
+      for (Timing timing : criticalPath()) {
+        critical.add(timing);
+        criticalPath.add(timing.id);
+      }
+
+      List<NodeTiming> nodes = new ArrayList<NodeTiming>(order.size());
+      for (Timing timing : order) {
+        List<Integer> dependencyIds = new ArrayList<Integer>(timing.dependencies.size());
+        for (Timing dependency : timing.dependencies) {
+          dependencyIds.add(dependency.id);
+        }
+        nodes.add(new NodeTiming(timing, dependencyIds, critical.contains(timing)));
+      }
+      return new Profile(nodes, criticalPath, endNanos - startNanos, complete);
+    }
+
+    /**
+     * Walks back from the sink that finished last, at each step moving to the dependency that finished last before the
+     * node last started processing, which is the dependency the node was waiting on.
+     */
+    private List<Timing> criticalPath() {
+      Timing end = null;
+      for (Timing timing : order) {
+        if (timing.affected && timing.node.isSink() && timing.completionNanos() >= 0 && (end == null || timing.completionNanos() > end.completionNanos())) {
+          end = timing;
+        }
+      }
+      if (end == null) {
+        for (Timing timing : order) {
+          if (timing.affected && timing.completionNanos() >= 0 && (end == null || timing.completionNanos() > end.completionNanos())) {
+            end = timing;
+          }
+        }
+      }
+
+      if (end == null) {
+        end = source;
+      }
+
+      LinkedList<Timing> path = new LinkedList<Timing>();
+      Set<Timing> visited = Collections.newSetFromMap(new IdentityHashMap<Timing, Boolean>());
+      Timing current = end;
+      while (current != null && visited.add(current)) {
+        path.addFirst(current);
+        if (current == source) {
+          break;
+        }
+        long bound = current.lastProcessStartNanos.get() >= 0 ? current.lastProcessStartNanos.get() : current.completionNanos();
+        Timing waitedOn = null;
+        for (Timing dependency : current.dependencies) {
+          long completion = dependency.completionNanos();
+          if (completion >= 0 && completion <= bound && (waitedOn == null || completion > waitedOn.completionNanos())) {
+            waitedOn = dependency;
+          }
+        }
+        current = waitedOn;
+      }
+      return path;
+    }
+  }
+
+  /**
+   * Timings for a single node. Times are in nanoseconds since the change started, or -1 if they didn't happen during the
+   * profile. Nodes that aren't affected by the change are included as the other inputs of nodes that are, and are never
+   * timed.
+   */
+  public static final class NodeTiming {
+    private final int id;
+    private final String name;
+    private final String type;
+    private final int rank;
+    private final boolean affected;
+    private final boolean sink;
+    private final boolean critical;
+    private final long resultNanos;
+    private final long processStartNanos;
+    private final long processEndNanos;
+    private final long processingNanos;
+    private final long processCount;
+    private final List<Integer> dependencyIds;
+
+    NodeTiming(Timing timing, List<Integer> dependencyIds, boolean critical) {
+      this.id = timing.id;
+      this.name = timing.node.getName();
+      this.type = timing.node.getClass().getSimpleName();
+      this.rank = timing.node.getRank();
+      this.affected = timing.affected;
+      this.sink = timing.node.isSink();
+      this.critical = critical;
+      this.resultNanos = timing.resultNanos.get();
+      this.processStartNanos = timing.firstProcessStartNanos.get();
+      this.processEndNanos = timing.lastProcessEndNanos.get();
+      this.processingNanos = timing.processingNanos.get();
+      this.processCount = timing.processCount.get();
+      this.dependencyIds = Collections.unmodifiableList(dependencyIds);
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public int getRank() {
+      return rank;
+    }
+
+    public boolean isAffected() {
+      return affected;
+    }
+
+    public boolean isSink() {
+      return sink;
+    }
+
+    public boolean isOnCriticalPath() {
+      return critical;
+    }
+
+    /**
+     * @return when the node's result last changed.
+     */
+    public long getResultNanos() {
+      return resultNanos;
+    }
+
+    /**
+     * @return when the node first started processing.
+     */
+    public long getProcessStartNanos() {
+      return processStartNanos;
+    }
+
+    /**
+     * @return when the node last finished processing.
+     */
+    public long getProcessEndNanos() {
+      return processEndNanos;
+    }
+
+    /**
+     * @return total time spent processing, across all processes.
+     */
+    public long getProcessingNanos() {
+      return processingNanos;
+    }
+
+    public long getProcessCount() {
+      return processCount;
+    }
+
+    public List<Integer> getDependencyIds() {
+      return dependencyIds;
+    }
+  }
+
+  public static final class Profile {
+    private final List<NodeTiming> nodes;
+    private final List<Integer> criticalPath;
+    private final long durationNanos;
+    private final boolean complete;
+
+    Profile(List<NodeTiming> nodes, List<Integer> criticalPath, long durationNanos, boolean complete) {
+      this.nodes = Collections.unmodifiableList(nodes);
+      this.criticalPath = Collections.unmodifiableList(criticalPath);
+      this.durationNanos = durationNanos;
+      this.complete = complete;
+    }
+
+    /**
+     * @return every node in the profile, indexed by id. The changed node is always first.
+     */
+    public List<NodeTiming> getNodes() {
+      return nodes;
+    }
+
+    /**
+     * @return the critical path, starting at the changed node.
+     */
+    public List<NodeTiming> getCriticalPath() {
+      List<NodeTiming> path = new ArrayList<NodeTiming>(criticalPath.size());
+      for (int id : criticalPath) {
+        path.add(nodes.get(id));
+      }
+      return path;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    /**
+     * @return false if the profile timed out before the change reached every sink.
+     */
+    public boolean isComplete() {
+      return complete;
+    }
+
+    public String toDot() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("digraph graphy {\n");
+      builder.append("  rankdir=BT;\n");
+      builder.append("  node [shape=box, fontname=\"monospace\"];\n");
+      for (NodeTiming node : nodes) {
+        builder.append("  n").append(node.id).append(" [label=\"").append(escapeDot(node.name)).append("\\n").append(escapeDot(node.type));
+        if (node.resultNanos >= 0) {
+          builder.append("\\nresult @ ").append(micros(node.resultNanos));
+        }
+        if (node.processCount > 0) {
+          builder.append("\\nprocess ").append(micros(node.processingNanos)).append(" x").append(node.processCount);
+        }
+        builder.append("\"");
+        if (!node.affected) {
+          builder.append(", color=gray, fontcolor=gray");
+        } else if (node.critical) {
+          builder.append(", color=red, penwidth=2");
+        }
+        if (node.sink) {
+          builder.append(", shape=doubleoctagon");
+        }
+        builder.append("];\n");
+      }
+      for (NodeTiming node : nodes) {
+        for (int dependencyId : node.dependencyIds) {
+          builder.append("  n").append(dependencyId).append(" -> n").append(node.id);
+          if (isCriticalEdge(dependencyId, node.id)) {
+            builder.append(" [color=red, penwidth=2]");
+          }
+          builder.append(";\n");
+        }
+      }
+      builder.append("}\n");
+      return builder.toString();
+    }
+
+    public String toJson() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("{\"durationNanos\":").append(durationNanos);
+      builder.append(",\"complete\":").append(complete);
+      builder.append(",\"nodes\":[");
+      for (int i = 0; i < nodes.size(); ++i) {
+        NodeTiming node = nodes.get(i);
+        if (i > 0) {
+          builder.append(',');
+        }
+        builder.append("{\"id\":").append(node.id);
+        builder.append(",\"name\":\"").append(escapeJson(node.name)).append('"');
+        builder.append(",\"type\":\"").append(escapeJson(node.type)).append('"');
+        builder.append(",\"rank\":").append(node.rank);
+        builder.append(",\"affected\":").append(node.affected);
+        builder.append(",\"sink\":").append(node.sink);
+        builder.append(",\"critical\":").append(node.critical);
+        builder.append(",\"resultNanos\":").append(node.resultNanos);
+        builder.append(",\"processStartNanos\":").append(node.processStartNanos);
+        builder.append(",\"processEndNanos\":").append(node.processEndNanos);
+        builder.append(",\"processingNanos\":").append(node.processingNanos);
+        builder.append(",\"processCount\":").append(node.processCount);
+        builder.append(",\"dependencies\":").append(node.dependencyIds.toString().replace(" ", ""));
+        builder.append('}');
+      }
+      builder.append("],\"criticalPath\":").append(criticalPath.toString().replace(" ", ""));
+      builder.append('}');
+      return builder.toString();
+    }
+
+    private boolean isCriticalEdge(int from, int to) {
+      for (int i = 1; i < criticalPath.size(); ++i) {
+        if (criticalPath.get(i - 1) == from && criticalPath.get(i) == to) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static String micros(long nanos) {
+      return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+    }
+
+    /**
+     * Escapes a string for a quoted DOT label. DOT has no numeric escapes, so line breaks become DOT's \n and other
+     * control characters become spaces.
+     */
+    private static String escapeDot(String string) {
+      StringBuilder builder = new StringBuilder(string.length());
+      for (int i = 0; i < string.length(); ++i) {
+        char c = string.charAt(i);
+        if (c == '"' || c == '\\') {
+          builder.append('\\').append(c);
+        } else if (c == '\n') {
+          builder.append("\\n");
+        } else if (c < 0x20) {
+          builder.append(' ');
+        } else {
+          builder.append(c);
+        }
+      }
+      return builder.toString();
+    }
+
+    private static String escapeJson(String string) {
+      StringBuilder builder = new StringBuilder(string.length());
+      for (int i = 0; i < string.length(); ++i) {
+        char c = string.charAt(i);
+        if (c == '"' || c == '\\') {
+          builder.append('\\').append(c);
+        } else if (c < 0x20) {
+          builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+        } else {
+          builder.append(c);
+        }
+      }
+      return builder.toString();
+    }
+  }
+}
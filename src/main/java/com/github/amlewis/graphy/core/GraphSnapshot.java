@@ -0,0 +1,295 @@
+package com.github.amlewis.graphy.core;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the results of registered nodes to a file, and restores them on startup so expensive nodes don't have to be
+ * recomputed. Nodes are matched by name, so each registered node must have a unique name set with
+ * Node.setName, and each is written with its own Serializer. Exceptions and unset results aren't saved.
+ * <p/>
+ * A restored ProcessingNode skips processing for as long as each of its dependencies still holds the result restored
+ * for it by the same restore, so it only recomputes once an input differs from the snapshot. Register the inputs of
+ * the expensive nodes too, and restore before sinking anything, so the restored results are in place before nodes
+ * are activated. Setting an input to a value equal to its restored one doesn't count as a change.
+ * <p/>
+ * Snapshots should be written while the graph is quiet, since a node that is processing when its result is written may
+ * not match its dependencies' results. Files are written to a temporary file and then moved into place, so a crash
+ * never leaves a partial snapshot behind.
+ * <p/>
+ * Restoring memory-maps the file. Java has no way to unmap a buffer, so each mapping lives until the buffer is garbage
+ * collected; on platforms that lock mapped files, that can keep a just-restored file from being replaced or deleted for
+ * a while.
+ */
+public final class GraphSnapshot {
+  private static final long MAGIC = 0x4752415048590001L;
+
+  /**
+   * Converts a node's results to and from bytes.
+   */
+  public static interface Serializer<ValueType> {
+    byte[] serialize(ValueType value) throws IOException;
+
+    ValueType deserialize(byte[] bytes) throws IOException;
+  }
+
+  /**
+   * @return a Serializer using Java serialization.
+   */
+  public static <ValueType extends Serializable> Serializer<ValueType> javaSerializer() {
+    return new Serializer<ValueType>() {
+      @Override
+      public byte[] serialize(ValueType value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(value);
+        output.close();
+        return bytes.toByteArray();
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public ValueType deserialize(byte[] bytes) throws IOException {
+        ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+          return (ValueType) input.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IOException("Unknown class in snapshot", e);
+        } finally {
+          input.close();
+        }
+      }
+    };
+  }
+
+  private final Map<String, Registration<?>> registrations = new LinkedHashMap<String, Registration<?>>();
+
+  /**
+   * Registers node, which must have a name that no other registered node has.
+   */
+  public synchronized <ValueType> GraphSnapshot register(Node<ValueType> node, Serializer<ValueType> serializer) {
+    if (!node.hasName()) {
+      throw new IllegalArgumentException("Nodes must be named to be snapshotted!");
+    }
+    String name = node.getName();
+    if (registrations.containsKey(name)) {
+      throw new IllegalArgumentException("A node named " + name + " is already registered!");
+    }
+    registrations.put(name, new Registration<ValueType>(node, serializer));
+    return this;
+  }
+
+  /**
+   * Writes the current result of every registered node that has one.
+   * @return the number of results written
+   */
+  public int write(Path file) throws IOException {
+    List<byte[]> names = new ArrayList<byte[]>();
+    List<byte[]> payloads = new ArrayList<byte[]>();
+    long size = 8 + 4;
+    for (Registration<?> registration : registrations()) {
+      byte[] payload = registration.serialize();
+      if (payload != null) {
+        byte[] name = registration.node.getName().getBytes(StandardCharsets.UTF_8);
+        names.add(name);
+        payloads.add(payload);
+        size += 4 + name.length + 4 + 8 + payload.length;
+      }
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot too large to write: " + size + " bytes");
+    }
+
+    Path directory = file.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      buffer.putLong(MAGIC);
+      buffer.putInt(names.size());
+      for (int i = 0; i < names.size(); ++i) {
+        buffer.putInt(names.get(i).length);
+        buffer.put(names.get(i));
+        buffer.putInt(payloads.get(i).length);
+        buffer.putLong(checksum(payloads.get(i)));
+        buffer.put(payloads.get(i));
+      }
+      buffer.flip();
+
+      FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+      try {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return names.size();
+  }
+
+  /**
+   * Sets the result of every registered node found in file. Entries for nodes that aren't registered are ignored, and
+   * entries that fail their checksum or can't be deserialized are skipped, leaving those nodes to be computed. The
+   * whole file is read before any result is set, so a file that turns out to be truncated or corrupt restores nothing.
+   * @return the number of nodes restored
+   */
+  public int restore(Path file) throws IOException {
+    Map<String, Registration<?>> registrations;
+    synchronized (this) {
+      registrations = new HashMap<String, Registration<?>>(this.registrations);
+    }
+
+    List<Decoded<?>> decoded = new ArrayList<Decoded<?>>();
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      // The mapping outlives the channel until the buffer is collected; nothing read from it is kept.
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      try {
+        if (buffer.getLong() != MAGIC) {
+          throw new IOException(file + " isn't a graph snapshot");
+        }
+        int count = buffer.getInt();
+        for (int i = 0; i < count; ++i) {
+          byte[] name = new byte[readLength(buffer, file)];
+          buffer.get(name);
+          int payloadLength = buffer.getInt();
+          long checksum = buffer.getLong();
+          if (payloadLength < 0 || payloadLength > buffer.remaining()) {
+            throw new IOException(file + " is corrupt");
+          }
+          byte[] payload = new byte[payloadLength];
+          buffer.get(payload);
+
+          Registration<?> registration = registrations.get(new String(name, StandardCharsets.UTF_8));
+          if (registration != null && checksum(payload) == checksum) {
+            Decoded<?> entry = registration.decode(payload);
+            if (entry != null) {
+              decoded.add(entry);
+            }
+          }
+        }
+      } catch (BufferUnderflowException e) {
+        throw new IOException(file + " is truncated", e);
+      }
+    } finally {
+      channel.close();
+    }
+
+    Map<Node<?>, NodeResult<?>> restored = new IdentityHashMap<Node<?>, NodeResult<?>>();
+    for (Decoded<?> entry : decoded) {
+      restored.put(entry.registration.node, entry.apply());
+    }
+
+    // Only once every result is in place, so each node can check that its dependencies were restored alongside it.
+    for (Node<?> node : restored.keySet()) {
+      if (node instanceof ProcessingNode) {
+        Map<Node<?>, NodeResult<?>> inputs = new IdentityHashMap<Node<?>, NodeResult<?>>();
+        for (Node<?> dependency : node.getDependencies()) {
+          NodeResult<?> input = restored.get(dependency);
+          if (input == null || dependency.getResult() != input) {
+            inputs = null;
+            break;
+          }
+          inputs.put(dependency, input);
+        }
+        if (inputs != null) {
+          ((ProcessingNode<?>) node).markRestored(inputs);
+        }
+      }
+    }
+    return restored.size();
+  }
+
+  /**
+   * Reads a length, checking it against what's left of the file before anything is allocated for it.
+   */
+  private static int readLength(ByteBuffer buffer, Path file) throws IOException {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException(file + " is corrupt");
+    }
+    return length;
+  }
+
+  private synchronized List<Registration<?>> registrations() {
+    return new ArrayList<Registration<?>>(registrations.values());
+  }
+
+  private static long checksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return crc.getValue();
+  }
+
+  private static final class Registration<ValueType> {
+    private final Node<ValueType> node;
+    private final Serializer<ValueType> serializer;
+
+    Registration(Node<ValueType> node, Serializer<ValueType> serializer) {
+      this.node = node;
+      this.serializer = serializer;
+    }
+
+    /**
+     * @return the serialized result, or null if there's nothing to save.
+     */
+    byte[] serialize() throws IOException {
+      NodeResult<ValueType> result = node.getResult();
+      if (result == null || result.isException()) {
+        return null;
+      }
+      return serializer.serialize(result.getResult());
+    }
+
+    /**
+     * @return payload's result, ready to be set on the node, or null if it couldn't be deserialized.
+     */
+    Decoded<ValueType> decode(byte[] payload) {
+      try {
+        return new Decoded<ValueType>(this, NodeResult.of(serializer.deserialize(payload)));
+      } catch (IOException e) {
+        return null;
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+  }
+
+  private static final class Decoded<ValueType> {
+    private final Registration<ValueType> registration;
+    private final NodeResult<ValueType> result;
+
+    Decoded(Registration<ValueType> registration, NodeResult<ValueType> result) {
+      this.registration = registration;
+      this.result = result;
+    }
+
+    /**
+     * @return the result set on the node.
+     */
+    NodeResult<ValueType> apply() {
+      registration.node.setResult(result);
+      // The node may already have had an equal result, in which case it keeps that one.
+      return registration.node.getResult();
+    }
+  }
+}
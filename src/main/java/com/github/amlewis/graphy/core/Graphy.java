@@ -1,8 +1,9 @@
 package com.github.amlewis.graphy.core;
 
+import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 /**
  * Created by amlewis on 7/11/15.
@@ -29,6 +30,46 @@ public class Graphy {
     return graphyExecutorService;
   }
 
+  /**
+   * BATCHED propagates on a small pool of threads and processes nodes concurrently on their ExecutorServices. A node may
+   * be processed several times for a single upstream change, and may briefly see a mix of old and new inputs.
+   * <p/>
+   * RANKED propagates in topological order on a single thread, so each node is processed at most once per upstream
+   * change and always sees consistent inputs. Results set from outside the graph become visible when the next wave
+   * starts.
+   */
+  public enum PropagationMode {
+    BATCHED,
+    RANKED
+  }
+
+  private volatile PropagationMode propagationMode = PropagationMode.BATCHED;
+  private volatile PropagationScheduler propagationScheduler = new BatchedPropagationScheduler();
+
+  PropagationScheduler getPropagationScheduler() {
+    return propagationScheduler;
+  }
+
+  public PropagationMode getPropagationMode() {
+    return propagationMode;
+  }
+
+  /**
+   * Switches how updates are propagated. Work already scheduled under the previous mode is allowed to finish.
+   */
+  public synchronized void setPropagationMode(PropagationMode propagationMode) {
+    if (propagationMode == null) {
+      throw new IllegalArgumentException("PropagationMode cannot be null!");
+    }
+    if (this.propagationMode == propagationMode) {
+      return;
+    }
+    PropagationScheduler previous = this.propagationScheduler;
+    this.propagationScheduler = propagationMode == PropagationMode.RANKED ? new RankedPropagationScheduler() : new BatchedPropagationScheduler();
+    this.propagationMode = propagationMode;
+    previous.shutdown();
+  }
+
   private volatile ExecutorService defaultProcessingExecutorService = graphyExecutorService;
 
   ExecutorService getDefaultProcessingExecutorService() {
@@ -39,43 +80,271 @@ public class Graphy {
     this.defaultProcessingExecutorService = executorService;
   }
 
+  /**
+   * How BATCHED mode runs a ProcessingNode once its dependencies update.
+   * <p/>
+   * EXECUTOR processes it on its ExecutorService. INLINE processes it directly on the thread that delivered the update,
+   * and that thread goes on to notify its parents directly too, so a chain of inline nodes runs like a chain of calls
+   * rather than handing off between threads at every hop. ADAPTIVE measures each node's processing time and runs it
+   * inline while its moving average is at most the inline cost threshold, offloading it otherwise. ADAPTIVE nodes are
+   * offloaded until they have been measured once.
+   * <p/>
+   * Inline chains are bounded in depth, and nodes are never processed inline while the thread is activating or
+   * deactivating nodes, in which case they are offloaded as with EXECUTOR. RANKED mode always processes inline on its
+   * wave thread.
+   */
+  public enum DispatchMode {
+    EXECUTOR,
+    INLINE,
+    ADAPTIVE
+  }
+
+  private volatile DispatchMode defaultDispatchMode = DispatchMode.EXECUTOR;
+
+  /**
+   * The DispatchMode of nodes that haven't had one set. DispatchMode.EXECUTOR unless changed.
+   */
+  public DispatchMode getDefaultDispatchMode() {
+    return defaultDispatchMode;
+  }
+
+  public void setDefaultDispatchMode(DispatchMode dispatchMode) {
+    if (dispatchMode == null) {
+      throw new IllegalArgumentException("DispatchMode cannot be null!");
+    }
+    this.defaultDispatchMode = dispatchMode;
+  }
+
+  private volatile long inlineCostThresholdNanos = TimeUnit.MICROSECONDS.toNanos(20);
+
+  long getInlineCostThresholdNanos() {
+    return inlineCostThresholdNanos;
+  }
+
+  /**
+   * The average processing time at or below which an ADAPTIVE node is processed inline. 20 microseconds unless changed.
+   */
+  public void setInlineCostThreshold(long threshold, TimeUnit unit) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold must not be negative!");
+    }
+    this.inlineCostThresholdNanos = unit.toNanos(threshold);
+  }
+
+  private volatile ChangeDetection<Object> defaultChangeDetection = ChangeDetection.EQUALS;
+
+  /**
+   * The ChangeDetection used by nodes that haven't had one set. ChangeDetection.EQUALS unless changed.
+   */
+  public ChangeDetection<Object> getDefaultChangeDetection() {
+    return defaultChangeDetection;
+  }
+
+  /**
+   * Sets the ChangeDetection of nodes that haven't had one set. It is applied to results of every type, so it must be a
+   * ChangeDetection<Object>. Type specific ones such as ChangeDetection.VERSION are set per node with
+   * Node.setChangeDetection.
+   */
+  public void setDefaultChangeDetection(ChangeDetection<Object> changeDetection) {
+    if (changeDetection == null) {
+      throw new IllegalArgumentException("ChangeDetection cannot be null!");
+    }
+    this.defaultChangeDetection = changeDetection;
+  }
+
+  private volatile boolean cycleDetectionEnabled = false;
+
+  public boolean isCycleDetectionEnabled() {
+    return cycleDetectionEnabled;
+  }
+
+  /**
+   * When enabled, activating a node that would make the graph cyclic throws a Node.CycleDetectedException. Detection is
+   * incremental: it piggybacks on the rank maintenance done for every new edge, so only the region above the new edge
+   * whose ranks change is visited. Disabled by default, in which case cycles are tolerated.
+   */
+  public void setCycleDetectionEnabled(boolean cycleDetectionEnabled) {
+    this.cycleDetectionEnabled = cycleDetectionEnabled;
+  }
+
+  // Metrics
+
+  private volatile boolean metricsEnabled = false;
+  private final NodeMetrics.Registry metricsRegistry = new NodeMetrics.Registry();
+
+  NodeMetrics.Registry getMetricsRegistry() {
+    return metricsRegistry;
+  }
+
+  public boolean isMetricsEnabled() {
+    return metricsEnabled;
+  }
+
+  /**
+   * Turns per-node metrics on or off. See NodeMetrics.
+   */
+  public void setMetricsEnabled(boolean metricsEnabled) {
+    this.metricsEnabled = metricsEnabled;
+  }
+
+  /**
+   * @return the current metrics of every live node that has recorded metrics, in the order they started recording.
+   */
+  public List<NodeMetrics.Snapshot> pollMetrics() {
+    return metricsRegistry.poll();
+  }
+
+  private volatile ScheduledExecutorService timerExecutorService = Executors.newSingleThreadScheduledExecutor(new PropagationScheduler.WorkerThreadFactory("graphy-timer"));
+
+  /**
+   * Shared by every time based node (DebounceNode, ThrottleNode, SampleNode), so they don't each need their own timer.
+   */
+  ScheduledExecutorService getTimerExecutorService() {
+    return timerExecutorService;
+  }
+
+  public void setTimerExecutorService(ScheduledExecutorService timerExecutorService) {
+    this.timerExecutorService = timerExecutorService;
+  }
+
+  // Batching ValueNode writes
+
+  /**
+   * Runs writes as a single batch. ValueNode.setValue/unset calls made by writes on this thread are staged and applied
+   * together when it returns, and parents are only notified once every write has been applied, so each downstream node
+   * is refreshed once for the whole batch instead of once per write. In RANKED mode the batch is applied at the start of
+   * a single wave, so no node ever sees it partially applied. In BATCHED mode a node that is already processing when the
+   * batch is applied may briefly see part of it, but is then refreshed again with all of it.
+   * <p/>
+   * If writes throws, none of its writes are applied. Batches may be nested, in which case nothing is applied until the
+   * outermost one finishes, and an enclosing batch that catches the exception carries on with its own writes.
+   */
+  public static void batch(Runnable writes) {
+    beginBatch();
+    boolean committed = false;
+    try {
+      writes.run();
+      committed = true;
+    } finally {
+      if (committed) {
+        commitBatch();
+      } else {
+        abortBatch();
+      }
+    }
+  }
+
+  /**
+   * Starts staging ValueNode writes made on this thread until the matching commitBatch().
+   */
+  public static void beginBatch() {
+    Batch.begin();
+  }
+
+  /**
+   * Ends the innermost batch started on this thread. When the outermost batch ends, all staged writes are applied.
+   */
+  public static void commitBatch() {
+    Batch.commit();
+  }
+
+  /**
+   * Discards the writes staged by the innermost batch on this thread and ends it. Writes staged by enclosing batches
+   * are kept.
+   */
+  public static void abortBatch() {
+    Batch.abort();
+  }
+
   // Sinking Nodes
   public static <ResultType> void sink(Node<ResultType> node, SinkCallback<ResultType> callback) {
-    new SinkNode<ResultType>(node, callback);
+    new SinkNode<ResultType>(node, callback, 0);
   }
 
-  public static <ResultType> Future<ResultType> sinkFirstResultFuture(Node<ResultType> node) {
+  /**
+   * Sinks node at the given priority, which every node feeding the sink inherits. See Node.setPriority.
+   */
+  public static <ResultType> void sink(Node<ResultType> node, SinkCallback<ResultType> callback, int priority) {
+    new SinkNode<ResultType>(node, callback, priority);
+  }
+
+  /**
+   * @return a future completed with node's first result. Cancelling it, or timing it out with orTimeout, deregisters the
+   * sink, so any nodes that were only being computed for it are deactivated and their pending processing is cancelled.
+   * cancel(true) also interrupts any of those nodes that are processing at the time.
+   */
+  public static <ResultType> CompletableFuture<ResultType> sinkFirstResultFuture(Node<ResultType> node) {
     SinkCallback.FutureSinkCallback<ResultType> futureSinkCallback = new SinkCallback.FutureSinkCallback<ResultType>();
     SinkNode.sink(FirstValueNode.wrap(node), futureSinkCallback);
-    return futureSinkCallback;
+    return futureSinkCallback.getFuture();
   }
 
   public static <ResultType> ResultType sinkFirstResult(Node<ResultType> node) throws ExecutionException, InterruptedException {
     return sinkFirstResultFuture(node).get();
   }
 
+  /**
+   * On timeout, upstream work done only for this result is cancelled, as if by cancel(true).
+   */
   public static <ResultType> ResultType sinkFirstResult(Node<ResultType> node, long timeout, TimeUnit unit) throws ExecutionException, InterruptedException, TimeoutException {
-    return sinkFirstResultFuture(node).get(timeout, unit);
+    CompletableFuture<ResultType> future = sinkFirstResultFuture(node);
+    try {
+      return future.get(timeout, unit);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw e;
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    }
   }
 
+  /**
+   * Offers each new result to a deque of the given capacity. This is lossy: once the deque is full, new results are
+   * dropped until the consumer catches up, and upstream keeps computing regardless. Use sinkToPublisher for
+   * backpressure.
+   */
   public static <ResultType> BlockingDeque<NodeResult<ResultType>> sinkToBlockingDeque(Node<ResultType> node, int capacity) {
     Graphy.SinkLinkedBlockingDeque<ResultType> queueSink = new Graphy.SinkLinkedBlockingDeque<ResultType>(capacity);
     Graphy.sink(node, queueSink.getCallback());
     return queueSink;
   }
 
+  /**
+   * Publishes node's results with backpressure. Upstream is only observed while a subscriber has outstanding demand,
+   * or for 100 milliseconds after it runs out, and a slow subscriber only ever receives the latest result. See
+   * SinkPublisher.
+   */
+  public static <ResultType> Flow.Publisher<NodeResult<ResultType>> sinkToPublisher(Node<ResultType> node) {
+    return sinkToPublisher(node, 100, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Publishes node's results with backpressure, observing upstream for gracePeriod after a subscriber's demand runs
+   * out. A subscriber that requests more within the grace period doesn't make upstream recompute; a grace period of
+   * zero pauses upstream as soon as demand runs out.
+   */
+  public static <ResultType> Flow.Publisher<NodeResult<ResultType>> sinkToPublisher(Node<ResultType> node, long gracePeriod, TimeUnit unit) {
+    if (gracePeriod < 0) {
+      throw new IllegalArgumentException("Grace period cannot be negative!");
+    }
+    return new SinkPublisher<ResultType>(node, unit.toNanos(gracePeriod));
+  }
+
   private static final class SinkNode<ResultType> extends ProcessingNode<Void> {
     public static <ResultType> void sink(Node<ResultType> nodeToSink, SinkCallback<ResultType> callback) {
-      new SinkNode<ResultType>(nodeToSink, callback);
+      new SinkNode<ResultType>(nodeToSink, callback, 0);
     }
 
     private Node<ResultType> nodeToSink;
     private SinkCallback<ResultType> callback;
 
-    public SinkNode(Node<ResultType> nodeToSink, SinkCallback<ResultType> callback) {
+    public SinkNode(Node<ResultType> nodeToSink, SinkCallback<ResultType> callback, int priority) {
       this.nodeToSink = nodeToSink;
       this.callback = callback;
       this.callback.addRef(this);
+      // Set before activating, so nodeToSink's subgraph is refreshed at this priority from the start.
+      setPriority(priority);
       activate();
     }
 
@@ -96,18 +365,60 @@ public class Graphy {
       update();
     }
 
+    @Override
     protected void deactivate() {
+      cancel();
       nodeToSink.deactivate(this);
     }
 
+    @Override
+    List<Node<?>> getDependencies() {
+      return Collections.<Node<?>>singletonList(nodeToSink);
+    }
+
+    /**
+     * Interrupts processing of every node below this sink that is no longer active, stopping at nodes that are still
+     * observed by something else.
+     */
+    void interruptUnobserved() {
+      Set<Node<?>> visited = Collections.newSetFromMap(new IdentityHashMap<Node<?>, Boolean>());
+      List<Node<?>> stack = new ArrayList<Node<?>>();
+      stack.add(this);
+      while (!stack.isEmpty()) {
+        Node<?> node = stack.remove(stack.size() - 1);
+        if (node != this && node.isActive()) {
+          continue;
+        }
+        if (node instanceof ProcessingNode) {
+          ((ProcessingNode<?>) node).cancel(true);
+        }
+        for (Node<?> dependency : node.getDependencies()) {
+          if (visited.add(dependency)) {
+            stack.add(dependency);
+          }
+        }
+      }
+    }
+
+    @Override
+    boolean isSink() {
+      return true;
+    }
+
     private NodeResult<ResultType> lastResult = null;
 
     @Override
     void process() {
+      if (shouldCancel()) {
+        // Deregistered while this pass was running.
+        return;
+      }
       NodeResult<ResultType> result = nodeToSink.getResult();
 
-      if (lastResult != result && (lastResult == null || !lastResult.equals(result))) {
-        if (result.isException()) {
+      if (!nodeToSink.isUnchanged(lastResult, result)) {
+        if (result == null) {
+          callback.onUnset();
+        } else if (result.isException()) {
           callback.onNewException(result.getException());
         } else {
           callback.onNewResult(result.getResult());
@@ -141,71 +452,77 @@ public class Graphy {
     protected abstract void onUnset();
 
     public final void deregister() {
+      deregister(false);
+    }
+
+    /**
+     * Deregisters the sink, deactivating anything upstream that nothing else observes. With mayInterruptIfRunning, any
+     * of those nodes that are processing at the time are also interrupted.
+     */
+    public final void deregister(boolean mayInterruptIfRunning) {
       SinkNode<ResultType> node = nodeRef.get();
       if (node != null) {
         node.deactivate();
+        if (mayInterruptIfRunning) {
+          node.interruptUnobserved();
+        }
       }
     }
 
-    static class FutureSinkCallback<ResultType> extends SinkCallback<ResultType> implements Future<ResultType> {
-      private ArrayBlockingQueue<NodeResult<ResultType>> resultQueue = new ArrayBlockingQueue<NodeResult<ResultType>>(1);
-      private AtomicBoolean cancelled = new AtomicBoolean(false);
+    /**
+     * Completes a CompletableFuture with the first result. However the future completes, including by cancellation or
+     * by timing out through orTimeout, the sink is deregistered.
+     */
+    static class FutureSinkCallback<ResultType> extends SinkCallback<ResultType> {
+      private final SinkFuture<ResultType> future = new SinkFuture<ResultType>();
+
+      FutureSinkCallback() {
+        future.whenComplete(new BiConsumer<ResultType, Throwable>() {
+          @Override
+          public void accept(ResultType result, Throwable throwable) {
+            deregister(future.mayInterruptIfRunning || throwable instanceof TimeoutException);
+          }
+        });
+      }
+
+      CompletableFuture<ResultType> getFuture() {
+        return future;
+      }
 
       @Override
       public void onNewResult(ResultType result) {
-        this.resultQueue.offer(new NodeResult<ResultType>(result));
+        future.complete(result);
       }
 
       @Override
       public void onNewException(Exception exception) {
-        this.resultQueue.offer(new NodeResult<ResultType>(exception));
+        future.completeExceptionally(exception);
       }
 
       @Override
       protected void onUnset() {
         // Do nothing. Since FutureSinkCallback is used exclusively after FirstValueNode, and FirstValueNode never calls unset, we should be fine doing nothing.
       }
+    }
 
-      @Override
-      public boolean cancel(boolean mayInterruptIfRunning) {
-        // TODO: Support cancelling
-        return false;
-      }
-
-      @Override
-      public boolean isCancelled() {
-        // TODO: Support cancelling
-        return false;
-      }
-
-      @Override
-      public boolean isDone() {
-        return !resultQueue.isEmpty();
-      }
+    private static final class SinkFuture<ResultType> extends CompletableFuture<ResultType> {
+      private volatile boolean mayInterruptIfRunning = false;
 
       @Override
-      public ResultType get() throws InterruptedException, ExecutionException {
-        // TODO: Delay between take and offer may lead to a different result being placed instead or a bad call to isDone()
-        NodeResult<ResultType> result = resultQueue.take();
-        resultQueue.offer(result);
-        if (result.isException()) {
-          throw new ExecutionException(result.getException());
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        // Recorded before cancelling, since cancelling runs the completion that releases the sink.
+        if (mayInterruptIfRunning) {
+          this.mayInterruptIfRunning = true;
         }
-        return result.getResult();
+        return super.cancel(mayInterruptIfRunning);
       }
 
+      /**
+       * Dependent futures are plain CompletableFutures, so cancelling them doesn't release the sink.
+       */
       @Override
-      public ResultType get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        // TODO: Delay between take and offer may lead to a different result being placed instead or a bad call to isDone()
-        NodeResult<ResultType> result = resultQueue.take();
-        if (result == null) {
-          throw new TimeoutException();
-        }
-        resultQueue.offer(result, timeout, unit);
-        if (result.isException()) {
-          throw new ExecutionException(result.getException());
-        }
-        return result.getResult();
+      public <U> CompletableFuture<U> newIncompleteFuture() {
+        return new CompletableFuture<U>();
       }
     }
   }
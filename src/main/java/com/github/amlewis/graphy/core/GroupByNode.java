@@ -0,0 +1,88 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incremental group by: groups the entries of an IncrementalMap by groupFunction and folds each group with reducer,
+ * giving an IncrementalMap from group to result. Only the groups an input change leaves and joins are updated, and a
+ * group is removed once its last entry leaves.
+ */
+public final class GroupByNode<KeyType, ValueType, GroupType, ResultType> extends IncrementalMapNode<KeyType, ValueType, GroupType, ResultType> {
+  public static interface GroupFunction<KeyType, ValueType, GroupType> {
+    GroupType apply(KeyType key, ValueType value);
+  }
+
+  public static <KeyType, ValueType, GroupType, ResultType> GroupByNode<KeyType, ValueType, GroupType, ResultType> of(GroupFunction<KeyType, ValueType, GroupType> groupFunction, ReduceNode.Reducer<ValueType, ResultType> reducer, Node<IncrementalMap<KeyType, ValueType>> input) {
+    return new GroupByNode<KeyType, ValueType, GroupType, ResultType>(groupFunction, reducer, input, IncrementalMap.DEFAULT_LOG_CAPACITY);
+  }
+
+  private final GroupFunction<KeyType, ValueType, GroupType> groupFunction;
+  private final ReduceNode.Reducer<ValueType, ResultType> reducer;
+  // Which group each input entry is in, and how many entries each group has.
+  private final Map<KeyType, GroupType> groups = new HashMap<KeyType, GroupType>();
+  private final Map<GroupType, Integer> groupSizes = new HashMap<GroupType, Integer>();
+
+  public GroupByNode(GroupFunction<KeyType, ValueType, GroupType> groupFunction, ReduceNode.Reducer<ValueType, ResultType> reducer, Node<IncrementalMap<KeyType, ValueType>> input, int logCapacity) {
+    super(input, logCapacity);
+    this.groupFunction = groupFunction;
+    this.reducer = reducer;
+  }
+
+  @Override
+  void rebuild(Map<KeyType, ValueType> contents) {
+    groups.clear();
+    groupSizes.clear();
+    Map<GroupType, ResultType> results = new HashMap<GroupType, ResultType>();
+    for (Map.Entry<KeyType, ValueType> entry : contents.entrySet()) {
+      GroupType group = groupFunction.apply(entry.getKey(), entry.getValue());
+      groups.put(entry.getKey(), group);
+      ResultType result = results.containsKey(group) ? results.get(group) : reducer.identity();
+      results.put(group, reducer.add(result, entry.getValue()));
+      increment(group, 1);
+    }
+    output.reset(results);
+  }
+
+  @Override
+  void apply(IncrementalMap.Change<KeyType, ValueType> change) {
+    KeyType key = change.getKey();
+    GroupType previousGroup = change.isInsert() ? null : groups.remove(key);
+    GroupType group = change.isRemove() ? null : groupFunction.apply(key, change.getValue());
+
+    if (!change.isInsert() && !change.isRemove() && equal(previousGroup, group)) {
+      // Stayed in the same group, so update it in place.
+      groups.put(key, group);
+      output.put(group, reducer.add(reducer.remove(output.get(group), change.getPreviousValue()), change.getValue()));
+      return;
+    }
+
+    if (!change.isInsert()) {
+      if (increment(previousGroup, -1) == 0) {
+        output.remove(previousGroup);
+      } else {
+        output.put(previousGroup, reducer.remove(output.get(previousGroup), change.getPreviousValue()));
+      }
+    }
+    if (!change.isRemove()) {
+      groups.put(key, group);
+      ResultType result = increment(group, 1) == 1 ? reducer.identity() : output.get(group);
+      output.put(group, reducer.add(result, change.getValue()));
+    }
+  }
+
+  private int increment(GroupType group, int delta) {
+    Integer size = groupSizes.get(group);
+    int next = (size == null ? 0 : size) + delta;
+    if (next == 0) {
+      groupSizes.remove(group);
+    } else {
+      groupSizes.put(group, next);
+    }
+    return next;
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
@@ -1,5 +1,7 @@
 package com.github.amlewis.graphy.core;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -10,21 +12,25 @@ public final class IfNode<ResultType> extends ProcessingNode<ResultType> {
   private final StateNode<Boolean> conditionNode;
   private final StateNode<ResultType> onTrueNode;
   private final StateNode<ResultType> onFalseNode;
-  private final AtomicBoolean OnTrueShouldActivate;
+  private final boolean onTrueLazy;
+  private final boolean onFalseLazy;
+  private final AtomicBoolean onTrueShouldActivate;
   private final AtomicBoolean onFalseShouldActivate;
 
   private IfNode(StateNode<Boolean> conditionNode, StateNode<ResultType> onTrueNode, boolean onTrueLazy, StateNode<ResultType> onFalseNode, boolean onFalseLazy) {
     this.conditionNode = conditionNode;
     this.onTrueNode = onTrueNode;
     this.onFalseNode = onFalseNode;
-    this.OnTrueShouldActivate = new AtomicBoolean(onTrueLazy);
+    this.onTrueLazy = onTrueLazy;
+    this.onFalseLazy = onFalseLazy;
+    this.onTrueShouldActivate = new AtomicBoolean(onTrueLazy);
     this.onFalseShouldActivate = new AtomicBoolean(onFalseLazy);
   }
 
   @Override
    protected void activate() {
     conditionNode.activate(this);
-    if (!OnTrueShouldActivate.get()) {
+    if (!onTrueShouldActivate.get()) {
       onTrueNode.activate(this);
     }
     if (!onFalseShouldActivate.get()) {
@@ -33,6 +39,20 @@ public final class IfNode<ResultType> extends ProcessingNode<ResultType> {
     update();
   }
 
+  @Override
+  protected void deactivate() {
+    cancel();
+    conditionNode.deactivate(this);
+    if (!onTrueShouldActivate.get()) {
+      onTrueNode.deactivate(this);
+    }
+    if (!onFalseShouldActivate.get()) {
+      onFalseNode.deactivate(this);
+    }
+    onTrueShouldActivate.set(onTrueLazy);
+    onFalseShouldActivate.set(onFalseLazy);
+  }
+
   @Override
   void onDependencyUpdated(Node<?> dependency) {
     update();
@@ -43,14 +63,10 @@ public final class IfNode<ResultType> extends ProcessingNode<ResultType> {
     NodeResult<Boolean> conditionResult = conditionNode.getResult();
     if (conditionResult != null && !conditionResult.isException()) {
       if (conditionResult.getResult().booleanValue()) {
-        if (OnTrueShouldActivate.compareAndSet(true, false)) {
-          onTrueNode.activate(this);
-        }
+        activateLazily(onTrueShouldActivate, onTrueNode);
         setResult(onTrueNode.getResult());
       } else {
-        if (onFalseShouldActivate.compareAndSet(true, false)) {
-          onFalseNode.activate(this);
-        }
+        activateLazily(onFalseShouldActivate, onFalseNode);
         setResult(onFalseNode.getResult());
       }
     } else if (conditionResult != null && conditionResult.isException()) {
@@ -60,6 +76,14 @@ public final class IfNode<ResultType> extends ProcessingNode<ResultType> {
     }
   }
 
+  /**
+   * Includes both branches, even if a lazy branch hasn't been activated yet.
+   */
+  @Override
+  List<Node<?>> getDependencies() {
+    return Arrays.<Node<?>>asList(conditionNode, onTrueNode, onFalseNode);
+  }
+
   // TODO: Builder constructor should always require any required nodes?
   public static class Builder<ResultType> {
     private StateNode<Boolean> conditionNode = null;
@@ -72,30 +96,32 @@ public final class IfNode<ResultType> extends ProcessingNode<ResultType> {
     public Builder() {
     }
 
-    public Builder conditionNode(StateNode<Boolean> conditionNode) {
+    public Builder<ResultType> conditionNode(StateNode<Boolean> conditionNode) {
       this.conditionNode = conditionNode;
       return this;
     }
 
-    public Builder onTrueNode(StateNode<ResultType> onTrueNode) {
+    public Builder<ResultType> onTrueNode(StateNode<ResultType> onTrueNode) {
       return onTrueNode(onTrueNode, false);
     }
 
-    public Builder onTrueNode(StateNode<ResultType> onTrueNode, boolean lazy) {
+    public Builder<ResultType> onTrueNode(StateNode<ResultType> onTrueNode, boolean lazy) {
       this.onTrueNode = onTrueNode;
+      this.onTrueLazy = lazy;
       return this;
     }
 
-    public Builder onFalseNode(StateNode<ResultType> onFalseNode) {
+    public Builder<ResultType> onFalseNode(StateNode<ResultType> onFalseNode) {
       return onFalseNode(onFalseNode, false);
     }
 
-    public Builder onFalseNode(StateNode<ResultType> onFalseNode, boolean lazy) {
+    public Builder<ResultType> onFalseNode(StateNode<ResultType> onFalseNode, boolean lazy) {
       this.onFalseNode = onFalseNode;
+      this.onFalseLazy = lazy;
       return this;
     }
 
-    public Builder executorService(ExecutorService executorService) {
+    public Builder<ResultType> executorService(ExecutorService executorService) {
       this.executorService = executorService;
       return this;
     }
@@ -0,0 +1,276 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.*;
+
+/**
+ * Result of the incremental collection nodes (MapSourceNode, MapValuesNode, FilterNode and GroupByNode). Each version
+ * of a node's map is a new IncrementalMap, but all versions share the node's backing map and a log of recent changes,
+ * so downstream nodes can process just the changes since the version they last saw instead of the whole map, and
+ * publishing a version costs only as much as the change.
+ * <p/>
+ * get, size and containsKey read the backing map, which may already be ahead of this version. Use changesSince to
+ * catch up from an earlier version, and snapshot to start from scratch. Versions compare with equals by version, so
+ * the default ChangeDetection never compares contents.
+ */
+public final class IncrementalMap<KeyType, ValueType> implements ChangeDetection.Versioned {
+  static final int DEFAULT_LOG_CAPACITY = 1 << 16;
+
+  private final Log<KeyType, ValueType> log;
+  private final long version;
+
+  private IncrementalMap(Log<KeyType, ValueType> log, long version) {
+    this.log = log;
+    this.version = version;
+  }
+
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  public ValueType get(KeyType key) {
+    return log.get(key);
+  }
+
+  public boolean containsKey(KeyType key) {
+    return log.containsKey(key);
+  }
+
+  public int size() {
+    return log.size();
+  }
+
+  /**
+   * @return the changes after version up to and including this version, in order, or null if the log no longer goes
+   * back that far, in which case the caller has to start again from a snapshot.
+   */
+  public List<Change<KeyType, ValueType>> changesSince(long version) {
+    return log.changesSince(version, this.version);
+  }
+
+  /**
+   * @return a copy of the backing map, which may be ahead of this version. Costs as much as the whole map.
+   */
+  public Snapshot<KeyType, ValueType> snapshot() {
+    return log.snapshot();
+  }
+
+  /**
+   * @return true if other is a version of the same map.
+   */
+  boolean isSameMap(IncrementalMap<?, ?> other) {
+    return other != null && log == other.log;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof IncrementalMap)) {
+      return false;
+    }
+    IncrementalMap<?, ?> that = (IncrementalMap<?, ?>) other;
+    return log == that.log && version == that.version;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(log) + (int) (version ^ (version >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return "IncrementalMap(version " + version + ", " + size() + " entries)";
+  }
+
+  /**
+   * A single insert, update or remove. Inserts have no previous value and removes have no value. Maps don't hold null
+   * values.
+   */
+  public static final class Change<KeyType, ValueType> {
+    private final KeyType key;
+    private final ValueType previousValue;
+    private final ValueType value;
+    private final long version;
+
+    Change(KeyType key, ValueType previousValue, ValueType value, long version) {
+      this.key = key;
+      this.previousValue = previousValue;
+      this.value = value;
+      this.version = version;
+    }
+
+    public KeyType getKey() {
+      return key;
+    }
+
+    /**
+     * @return the value before this change, or null for an insert.
+     */
+    public ValueType getPreviousValue() {
+      return previousValue;
+    }
+
+    /**
+     * @return the value after this change, or null for a remove.
+     */
+    public ValueType getValue() {
+      return value;
+    }
+
+    public boolean isInsert() {
+      return previousValue == null;
+    }
+
+    public boolean isRemove() {
+      return value == null;
+    }
+
+    @Override
+    public String toString() {
+      return key + ": " + previousValue + " -> " + value;
+    }
+  }
+
+  /**
+   * The contents of a map as of a version.
+   */
+  public static final class Snapshot<KeyType, ValueType> {
+    private final Map<KeyType, ValueType> contents;
+    private final long version;
+
+    Snapshot(Map<KeyType, ValueType> contents, long version) {
+      this.contents = contents;
+      this.version = version;
+    }
+
+    public Map<KeyType, ValueType> getContents() {
+      return contents;
+    }
+
+    /**
+     * @return the version the contents are as of, which can be passed to changesSince to catch up from.
+     */
+    public long getVersion() {
+      return version;
+    }
+  }
+
+  /**
+   * The backing map and change log shared by every version of a node's map. Only the owning node writes, and it holds
+   * the log's lock across each batch of changes and the publish that ends it, so readers never see part of a version or
+   * changes that haven't been published.
+   */
+  static final class Log<KeyType, ValueType> {
+    private final Map<KeyType, ValueType> contents = new HashMap<KeyType, ValueType>();
+    private final ArrayDeque<Change<KeyType, ValueType>> changes = new ArrayDeque<Change<KeyType, ValueType>>();
+    private final int capacity;
+    private long version = 0;
+    private boolean dirty = false;
+    // changesSince can't serve requests from before this version, because some of its changes were dropped.
+    private long retainedFrom = 0;
+    private IncrementalMap<KeyType, ValueType> current = new IncrementalMap<KeyType, ValueType>(this, 0);
+
+    Log(int capacity) {
+      if (capacity < 1) {
+        throw new IllegalArgumentException("capacity must be positive!");
+      }
+      this.capacity = capacity;
+    }
+
+    synchronized ValueType get(KeyType key) {
+      return contents.get(key);
+    }
+
+    synchronized boolean containsKey(KeyType key) {
+      return contents.containsKey(key);
+    }
+
+    synchronized int size() {
+      return contents.size();
+    }
+
+    synchronized void put(KeyType key, ValueType value) {
+      if (value == null) {
+        remove(key);
+        return;
+      }
+      ValueType previous = contents.put(key, value);
+      if (previous == null || !previous.equals(value)) {
+        record(new Change<KeyType, ValueType>(key, previous, value, version + 1));
+      }
+    }
+
+    synchronized void remove(KeyType key) {
+      ValueType previous = contents.remove(key);
+      if (previous != null) {
+        record(new Change<KeyType, ValueType>(key, previous, null, version + 1));
+      }
+    }
+
+    /**
+     * Replaces the whole map in the next version. The log is discarded, so readers behind it start from a snapshot.
+     */
+    synchronized void reset(Map<KeyType, ValueType> contents) {
+      this.contents.clear();
+      this.contents.putAll(contents);
+      changes.clear();
+      retainedFrom = version + 1;
+      dirty = true;
+    }
+
+    private void record(Change<KeyType, ValueType> change) {
+      changes.addLast(change);
+      if (changes.size() > capacity) {
+        retainedFrom = Math.max(retainedFrom, changes.removeFirst().version);
+      }
+      dirty = true;
+    }
+
+    /**
+     * @return the current version, which is a new one if anything changed since the last publish.
+     */
+    synchronized IncrementalMap<KeyType, ValueType> publish() {
+      if (dirty) {
+        dirty = false;
+        current = new IncrementalMap<KeyType, ValueType>(this, ++version);
+      }
+      return current;
+    }
+
+    synchronized IncrementalMap<KeyType, ValueType> current() {
+      return current;
+    }
+
+    synchronized List<Change<KeyType, ValueType>> changesSince(long from, long to) {
+      if (from >= to) {
+        return Collections.emptyList();
+      }
+      if (from < retainedFrom) {
+        return null;
+      }
+      List<Change<KeyType, ValueType>> result = new ArrayList<Change<KeyType, ValueType>>();
+      Iterator<Change<KeyType, ValueType>> iterator = changes.descendingIterator();
+      while (iterator.hasNext()) {
+        Change<KeyType, ValueType> change = iterator.next();
+        if (change.version <= from) {
+          break;
+        }
+        if (change.version <= to) {
+          result.add(change);
+        }
+      }
+      Collections.reverse(result);
+      return result;
+    }
+
+    /**
+     * The owning node publishes each write under this lock, so there are never unpublished changes here and the
+     * snapshot is as of the published version.
+     */
+    synchronized Snapshot<KeyType, ValueType> snapshot() {
+      return new Snapshot<KeyType, ValueType>(new HashMap<KeyType, ValueType>(contents), version);
+    }
+  }
+}
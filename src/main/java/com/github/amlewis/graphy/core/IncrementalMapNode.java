@@ -0,0 +1,56 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of the incremental collection nodes that turn one IncrementalMap into another. Each update applies only the
+ * changes to the input since the last one, and publishes the resulting output changes as a new version. When the input
+ * can't supply those changes, because this is the first update, the input was replaced or this node fell further
+ * behind than the input's log, the output is rebuilt from a snapshot of the whole input instead.
+ * <p/>
+ * The output log's lock is held while changes are applied, so readers of the output never see a partial version.
+ */
+abstract class IncrementalMapNode<InputKeyType, InputValueType, KeyType, ValueType> extends StateNode<IncrementalMap<KeyType, ValueType>> {
+  private final Node<IncrementalMap<InputKeyType, InputValueType>> input;
+  private final DeltaReader<InputKeyType, InputValueType> reader = new DeltaReader<InputKeyType, InputValueType>();
+  final IncrementalMap.Log<KeyType, ValueType> output;
+
+  IncrementalMapNode(Node<IncrementalMap<InputKeyType, InputValueType>> input, int logCapacity) {
+    super(input);
+    this.input = input;
+    this.output = new IncrementalMap.Log<KeyType, ValueType>(logCapacity);
+  }
+
+  @Override
+  protected final IncrementalMap<KeyType, ValueType> processResult() throws Exception {
+    IncrementalMap<InputKeyType, InputValueType> current = input.get();
+    synchronized (output) {
+      try {
+        List<IncrementalMap.Change<InputKeyType, InputValueType>> changes = reader.read(current);
+        if (changes == null) {
+          rebuild(reader.readSnapshot(current).getContents());
+        } else {
+          for (IncrementalMap.Change<InputKeyType, InputValueType> change : changes) {
+            apply(change);
+          }
+        }
+      } catch (RuntimeException e) {
+        // Some changes may have been applied, so start again from a snapshot next time.
+        reader.reset();
+        throw e;
+      }
+      return output.publish();
+    }
+  }
+
+  /**
+   * Replaces the output with the result of the whole input, through output.reset.
+   */
+  abstract void rebuild(Map<InputKeyType, InputValueType> contents);
+
+  /**
+   * Applies a single change to the output, through output.put and output.remove.
+   */
+  abstract void apply(IncrementalMap.Change<InputKeyType, InputValueType> change);
+}
@@ -0,0 +1,11 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * Implemented by nodes that can hand out their int result without boxing it.
+ */
+public interface IntNode {
+  /**
+   * Unboxed equivalent of Node.get().
+   */
+  int getInt();
+}
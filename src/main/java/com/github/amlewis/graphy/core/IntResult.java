@@ -0,0 +1,18 @@
+package com.github.amlewis.graphy.core;
+
+final class IntResult extends PrimitiveResult<Integer> {
+  @Override
+  Integer box(long bits) {
+    return Integer.valueOf((int) bits);
+  }
+
+  @Override
+  long unbox(Integer value) {
+    return value.intValue();
+  }
+
+  int getInt() {
+    long bits = getBits();
+    return (int) bits;
+  }
+}
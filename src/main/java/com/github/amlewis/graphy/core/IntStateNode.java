@@ -0,0 +1,49 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * StateNode for ints. Implement processInt() instead of processResult(), and read int dependencies with intOf() to
+ * avoid boxing on the way in as well as on the way out.
+ */
+public abstract class IntStateNode extends PrimitiveStateNode<Integer, IntResult> implements IntNode {
+  public IntStateNode(Node<?>... dependencies) {
+    this(Arrays.asList(dependencies));
+  }
+
+  public IntStateNode(Collection<Node<?>> dependencies) {
+    super(new IntResult(), dependencies);
+  }
+
+  /**
+   * @return int - Returns result of processing
+   * @throws Exception - any exception that occurs during processing
+   */
+  protected abstract int processInt() throws Exception;
+
+  @Override
+  protected final Integer processResult() throws Exception {
+    return processInt();
+  }
+
+  /**
+   * Reads dependency without boxing if it is a IntNode.
+   */
+  protected static int intOf(Node<Integer> dependency) {
+    if (dependency instanceof IntNode) {
+      return ((IntNode) dependency).getInt();
+    }
+    return dependency.get();
+  }
+
+  @Override
+  final long processBits() throws Exception {
+    return processInt();
+  }
+
+  @Override
+  public int getInt() {
+    return result.getInt();
+  }
+}
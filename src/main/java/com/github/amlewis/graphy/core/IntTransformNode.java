@@ -0,0 +1,24 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * TransformNode for ints. If the node being transformed is a IntNode, the whole transform runs without boxing.
+ */
+public final class IntTransformNode extends IntStateNode {
+  public static IntTransformNode of(TransformNode.IntFunction transform, Node<Integer> nodeToTransform) {
+    return new IntTransformNode(transform, nodeToTransform);
+  }
+
+  private final TransformNode.IntFunction transform;
+  private final Node<Integer> nodeToTransform;
+
+  public IntTransformNode(TransformNode.IntFunction transform, Node<Integer> nodeToTransform) {
+    super(nodeToTransform);
+    this.transform = transform;
+    this.nodeToTransform = nodeToTransform;
+  }
+
+  @Override
+  protected int processInt() throws Exception {
+    return transform.apply(intOf(nodeToTransform));
+  }
+}
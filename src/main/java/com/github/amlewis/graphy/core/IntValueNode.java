@@ -0,0 +1,33 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * ValueNode for ints. Setting a value doesn't allocate, and setting the current value again is a no-op.
+ */
+public class IntValueNode extends PrimitiveValueNode<Integer, IntResult> implements IntNode {
+  public static IntValueNode of(int value) {
+    return new IntValueNode(value);
+  }
+
+  public IntValueNode() {
+    super(new IntResult());
+  }
+
+  public IntValueNode(int value) {
+    this();
+    setValue(value);
+  }
+
+  public IntValueNode(Exception exception) {
+    this();
+    setValue(exception);
+  }
+
+  public void setValue(int value) {
+    setBits(value);
+  }
+
+  @Override
+  public int getInt() {
+    return result.getInt();
+  }
+}
@@ -0,0 +1,11 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * Implemented by nodes that can hand out their long result without boxing it.
+ */
+public interface LongNode {
+  /**
+   * Unboxed equivalent of Node.get().
+   */
+  long getLong();
+}
@@ -0,0 +1,18 @@
+package com.github.amlewis.graphy.core;
+
+final class LongResult extends PrimitiveResult<Long> {
+  @Override
+  Long box(long bits) {
+    return Long.valueOf(bits);
+  }
+
+  @Override
+  long unbox(Long value) {
+    return value.longValue();
+  }
+
+  long getLong() {
+    long bits = getBits();
+    return bits;
+  }
+}
@@ -0,0 +1,49 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * StateNode for longs. Implement processLong() instead of processResult(), and read long dependencies with longOf() to
+ * avoid boxing on the way in as well as on the way out.
+ */
+public abstract class LongStateNode extends PrimitiveStateNode<Long, LongResult> implements LongNode {
+  public LongStateNode(Node<?>... dependencies) {
+    this(Arrays.asList(dependencies));
+  }
+
+  public LongStateNode(Collection<Node<?>> dependencies) {
+    super(new LongResult(), dependencies);
+  }
+
+  /**
+   * @return long - Returns result of processing
+   * @throws Exception - any exception that occurs during processing
+   */
+  protected abstract long processLong() throws Exception;
+
+  @Override
+  protected final Long processResult() throws Exception {
+    return processLong();
+  }
+
+  /**
+   * Reads dependency without boxing if it is a LongNode.
+   */
+  protected static long longOf(Node<Long> dependency) {
+    if (dependency instanceof LongNode) {
+      return ((LongNode) dependency).getLong();
+    }
+    return dependency.get();
+  }
+
+  @Override
+  final long processBits() throws Exception {
+    return processLong();
+  }
+
+  @Override
+  public long getLong() {
+    return result.getLong();
+  }
+}
@@ -0,0 +1,24 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * TransformNode for longs. If the node being transformed is a LongNode, the whole transform runs without boxing.
+ */
+public final class LongTransformNode extends LongStateNode {
+  public static LongTransformNode of(TransformNode.LongFunction transform, Node<Long> nodeToTransform) {
+    return new LongTransformNode(transform, nodeToTransform);
+  }
+
+  private final TransformNode.LongFunction transform;
+  private final Node<Long> nodeToTransform;
+
+  public LongTransformNode(TransformNode.LongFunction transform, Node<Long> nodeToTransform) {
+    super(nodeToTransform);
+    this.transform = transform;
+    this.nodeToTransform = nodeToTransform;
+  }
+
+  @Override
+  protected long processLong() throws Exception {
+    return transform.apply(longOf(nodeToTransform));
+  }
+}
@@ -0,0 +1,33 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * ValueNode for longs. Setting a value doesn't allocate, and setting the current value again is a no-op.
+ */
+public class LongValueNode extends PrimitiveValueNode<Long, LongResult> implements LongNode {
+  public static LongValueNode of(long value) {
+    return new LongValueNode(value);
+  }
+
+  public LongValueNode() {
+    super(new LongResult());
+  }
+
+  public LongValueNode(long value) {
+    this();
+    setValue(value);
+  }
+
+  public LongValueNode(Exception exception) {
+    this();
+    setValue(exception);
+  }
+
+  public void setValue(long value) {
+    setBits(value);
+  }
+
+  @Override
+  public long getLong() {
+    return result.getLong();
+  }
+}
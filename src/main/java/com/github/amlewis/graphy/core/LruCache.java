@@ -0,0 +1,94 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least-recently-used cache that can be limited by entry count, by total weight, or both. Null keys and values
+ * are allowed. Thread safe.
+ */
+final class LruCache<KeyType, ValueType> {
+  static final long UNBOUNDED = Long.MAX_VALUE;
+
+  private final LinkedHashMap<KeyType, Entry<ValueType>> entries = new LinkedHashMap<KeyType, Entry<ValueType>>(16, 0.75f, true);
+  private final long maximumSize;
+  private final long maximumWeight;
+  private final MemoizingTransformNode.Weigher<? super ValueType, ? super KeyType> weigher;
+  private long totalWeight = 0;
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long evictionCount = 0;
+
+  LruCache(long maximumSize, long maximumWeight,
+      MemoizingTransformNode.Weigher<? super ValueType, ? super KeyType> weigher) {
+    if (maximumSize < 0 || maximumWeight < 0) {
+      throw new IllegalArgumentException("Cache limits cannot be negative!");
+    }
+    if (maximumWeight != UNBOUNDED && weigher == null) {
+      throw new IllegalArgumentException("A weigher is required to limit a cache by weight!");
+    }
+    this.maximumSize = maximumSize;
+    this.maximumWeight = maximumWeight;
+    this.weigher = weigher;
+  }
+
+  /**
+   * @return the cached entry for key, or null on a miss. Entries are used so that a cached null can be told apart from
+   * a miss.
+   */
+  synchronized Entry<ValueType> get(KeyType key) {
+    Entry<ValueType> entry = entries.get(key);
+    if (entry != null) {
+      ++hitCount;
+    } else {
+      ++missCount;
+    }
+    return entry;
+  }
+
+  synchronized void put(KeyType key, ValueType value) {
+    long weight = weigher == null ? 1 : weigher.weigh(key, value);
+    if (weight < 0) {
+      throw new IllegalStateException("Weights cannot be negative!");
+    }
+    Entry<ValueType> previous = entries.put(key, new Entry<ValueType>(value, weight));
+    if (previous != null) {
+      totalWeight -= previous.weight;
+    }
+    totalWeight += weight;
+
+    Iterator<Map.Entry<KeyType, Entry<ValueType>>> eldest = entries.entrySet().iterator();
+    while ((entries.size() > maximumSize || totalWeight > maximumWeight) && eldest.hasNext()) {
+      totalWeight -= eldest.next().getValue().weight;
+      eldest.remove();
+      ++evictionCount;
+    }
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    totalWeight = 0;
+  }
+
+  /**
+   * @return the counters and occupancy, all read together so they're consistent with each other.
+   */
+  synchronized MemoizingTransformNode.CacheStats stats() {
+    return new MemoizingTransformNode.CacheStats(hitCount, missCount, evictionCount, entries.size(), totalWeight);
+  }
+
+  static final class Entry<ValueType> {
+    private final ValueType value;
+    private final long weight;
+
+    Entry(ValueType value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+
+    ValueType getValue() {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Mutable map at the root of an incremental collection graph. Each write publishes a new version of its IncrementalMap
+ * carrying just the entries it changed, so MapValuesNode, FilterNode, GroupByNode and ReduceNode downstream only do
+ * work proportional to the change. Writes that don't change anything don't publish a version.
+ * <p/>
+ * The log of recent changes holds logCapacity changes. Readers that fall further behind than that recompute from a
+ * snapshot of the whole map. Inside a batch (see Graphy.batch) writes are applied to the map straight away, but the new
+ * version isn't published to parents until the batch commits.
+ */
+public class MapSourceNode<KeyType, ValueType> extends Node<IncrementalMap<KeyType, ValueType>> {
+  public static <KeyType, ValueType> MapSourceNode<KeyType, ValueType> of(Map<KeyType, ValueType> contents) {
+    MapSourceNode<KeyType, ValueType> node = new MapSourceNode<KeyType, ValueType>();
+    node.putAll(contents);
+    return node;
+  }
+
+  private final IncrementalMap.Log<KeyType, ValueType> log;
+
+  public MapSourceNode() {
+    this(IncrementalMap.DEFAULT_LOG_CAPACITY);
+  }
+
+  public MapSourceNode(int logCapacity) {
+    log = new IncrementalMap.Log<KeyType, ValueType>(logCapacity);
+    setResult(log.current());
+  }
+
+  /**
+   * Puts value, or removes key if value is null.
+   */
+  public void put(KeyType key, ValueType value) {
+    boolean changed;
+    synchronized (log) {
+      log.put(key, value);
+      changed = log.current() != log.publish();
+    }
+    publishIfChanged(changed);
+  }
+
+  public void remove(KeyType key) {
+    boolean changed;
+    synchronized (log) {
+      log.remove(key);
+      changed = log.current() != log.publish();
+    }
+    publishIfChanged(changed);
+  }
+
+  /**
+   * Puts every entry as a single version.
+   */
+  public void putAll(Map<? extends KeyType, ? extends ValueType> entries) {
+    boolean changed;
+    synchronized (log) {
+      for (Map.Entry<? extends KeyType, ? extends ValueType> entry : entries.entrySet()) {
+        log.put(entry.getKey(), entry.getValue());
+      }
+      changed = log.current() != log.publish();
+    }
+    publishIfChanged(changed);
+  }
+
+  /**
+   * Removes every key as a single version.
+   */
+  public void removeAll(Collection<? extends KeyType> keys) {
+    boolean changed;
+    synchronized (log) {
+      for (KeyType key : keys) {
+        log.remove(key);
+      }
+      changed = log.current() != log.publish();
+    }
+    publishIfChanged(changed);
+  }
+
+  /**
+   * Replaces the whole map. Readers recompute from a snapshot rather than reading the change.
+   */
+  public void replaceAll(Map<KeyType, ValueType> contents) {
+    boolean changed;
+    synchronized (log) {
+      log.reset(contents);
+      changed = log.current() != log.publish();
+    }
+    publishIfChanged(changed);
+  }
+
+  /**
+   * Each write publishes its version under the log's lock, so no two versions share a number and a snapshot never
+   * includes unpublished changes. Parents are notified outside the lock, so they can't be notified while it is held.
+   * Concurrent writers may get here in either order, so this always sets the latest version rather than the one its own
+   * write created.
+   */
+  private void publishIfChanged(boolean changed) {
+    if (!changed) {
+      return;
+    }
+    Batch batch = Batch.current();
+    if (batch != null) {
+      batch.stage(this, NodeResult.of(log.current()));
+    } else {
+      setResult(log.current());
+    }
+  }
+
+  @Override
+  public void activate() {
+    // No activation needed
+  }
+
+  @Override
+  void onDependencyUpdated(Node<?> dependency) {
+    // No dependencies.
+  }
+}
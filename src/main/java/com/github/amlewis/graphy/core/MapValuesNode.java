@@ -0,0 +1,42 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incremental map: transforms each value of an IncrementalMap, only transforming the entries that changed. Entries
+ * whose transformed value is null are left out.
+ */
+public final class MapValuesNode<KeyType, ValueType, InputType> extends IncrementalMapNode<KeyType, InputType, KeyType, ValueType> {
+  public static <KeyType, ValueType, InputType> MapValuesNode<KeyType, ValueType, InputType> of(TransformNode.Function<ValueType, InputType> transform, Node<IncrementalMap<KeyType, InputType>> input) {
+    return new MapValuesNode<KeyType, ValueType, InputType>(transform, input, IncrementalMap.DEFAULT_LOG_CAPACITY);
+  }
+
+  private final TransformNode.Function<ValueType, InputType> transform;
+
+  public MapValuesNode(TransformNode.Function<ValueType, InputType> transform, Node<IncrementalMap<KeyType, InputType>> input, int logCapacity) {
+    super(input, logCapacity);
+    this.transform = transform;
+  }
+
+  @Override
+  void rebuild(Map<KeyType, InputType> contents) {
+    Map<KeyType, ValueType> transformed = new HashMap<KeyType, ValueType>(contents.size() * 2);
+    for (Map.Entry<KeyType, InputType> entry : contents.entrySet()) {
+      ValueType value = transform.apply(entry.getValue());
+      if (value != null) {
+        transformed.put(entry.getKey(), value);
+      }
+    }
+    output.reset(transformed);
+  }
+
+  @Override
+  void apply(IncrementalMap.Change<KeyType, InputType> change) {
+    if (change.isRemove()) {
+      output.remove(change.getKey());
+    } else {
+      output.put(change.getKey(), transform.apply(change.getValue()));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * TransformNode that remembers the results of recent inputs, so an input that flips between a small set of recurring
+ * values only pays for the transform the first time it sees each one. Inputs are compared with equals(), so they need
+ * sensible equals() and hashCode() implementations. Exceptions thrown by the transform are never cached.
+ */
+public final class MemoizingTransformNode<ResultType, InputType> extends StateNode<ResultType> {
+  /**
+   * Gives the weight of a cached entry when the cache is bounded by weight.
+   */
+  public static interface Weigher<ResultType, InputType> {
+    long weigh(InputType input, ResultType result);
+  }
+
+  private final TransformNode.Function<ResultType, InputType> transform;
+  private final Node<InputType> nodeToTransform;
+  private final LruCache<InputType, ResultType> cache;
+
+  private MemoizingTransformNode(TransformNode.Function<ResultType, InputType> transform, Node<InputType> nodeToTransform, LruCache<InputType, ResultType> cache) {
+    super(nodeToTransform);
+    this.transform = transform;
+    this.nodeToTransform = nodeToTransform;
+    this.cache = cache;
+  }
+
+  @Override
+  protected ResultType processResult() throws Exception {
+    InputType input = nodeToTransform.get();
+    LruCache.Entry<ResultType> cached = cache.get(input);
+    if (cached != null) {
+      return cached.getValue();
+    }
+    ResultType result = transform.apply(input);
+    cache.put(input, result);
+    return result;
+  }
+
+  public CacheStats getCacheStats() {
+    return cache.stats();
+  }
+
+  public void clearCache() {
+    cache.clear();
+  }
+
+  /**
+   * Point in time snapshot of a MemoizingTransformNode's cache.
+   */
+  public static final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int size;
+    private final long weight;
+
+    CacheStats(long hitCount, long missCount, long evictionCount, int size, long weight) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.size = size;
+      this.weight = weight;
+    }
+
+    public long getHitCount() {
+      return hitCount;
+    }
+
+    public long getMissCount() {
+      return missCount;
+    }
+
+    public double getHitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long getEvictionCount() {
+      return evictionCount;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * @return total weight of the cached entries, or the entry count if the cache isn't bounded by weight.
+     */
+    public long getWeight() {
+      return weight;
+    }
+
+    @Override
+    public String toString() {
+      return "CacheStats{hitCount=" + hitCount + ", missCount=" + missCount + ", evictionCount=" + evictionCount
+          + ", size=" + size + ", weight=" + weight + "}";
+    }
+  }
+
+  public static class Builder<ResultType, InputType> {
+    public static final long DEFAULT_MAXIMUM_SIZE = 64;
+
+    private final TransformNode.Function<ResultType, InputType> transform;
+    private final Node<InputType> nodeToTransform;
+    private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private boolean maximumSizeSet = false;
+    private long maximumWeight = LruCache.UNBOUNDED;
+    private Weigher<ResultType, InputType> weigher = null;
+
+    public Builder(TransformNode.Function<ResultType, InputType> transform, Node<InputType> nodeToTransform) {
+      this.transform = transform;
+      this.nodeToTransform = nodeToTransform;
+    }
+
+    public Builder<ResultType, InputType> maximumSize(long maximumSize) {
+      this.maximumSize = maximumSize;
+      this.maximumSizeSet = true;
+      return this;
+    }
+
+    /**
+     * Bounds the cache by total weight instead of entry count, unless maximumSize is also set explicitly.
+     */
+    public Builder<ResultType, InputType> maximumWeight(long maximumWeight, Weigher<ResultType, InputType> weigher) {
+      if (!maximumSizeSet) {
+        maximumSize = LruCache.UNBOUNDED;
+      }
+      this.maximumWeight = maximumWeight;
+      this.weigher = weigher;
+      return this;
+    }
+
+    public MemoizingTransformNode<ResultType, InputType> build() {
+      return new MemoizingTransformNode<ResultType, InputType>(transform, nodeToTransform,
+          new LruCache<InputType, ResultType>(maximumSize, maximumWeight, weigher));
+    }
+  }
+}
@@ -2,16 +2,18 @@ package com.github.amlewis.graphy.core;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Created by amlewis on 7/12/15.
  */
 abstract class Node<ResultType> {
-  private final Set<Node<?>> parents = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Node<?>, Boolean>()));
-  private NodeResult<ResultType> result = null;
+  private final ParentRegistry parents = new ParentRegistry();
+  private volatile NodeResult<ResultType> result = null;
+  private volatile String name = null;
 
   public ResultType get() {
-    NodeResult<ResultType> result = this.result;
+    NodeResult<ResultType> result = getResult();
     if (result == null) {
       throw new NodeNotProcessedException("Node hasn't completed processing!");
     }
@@ -27,67 +29,504 @@ abstract class Node<ResultType> {
     return result;
   }
 
-  private AtomicBoolean isActive = new AtomicBoolean(false);
+  /**
+   * Equivalent to getResult() != null, but lets nodes that don't store a NodeResult answer without creating one.
+   */
+  boolean hasResult() {
+    return result != null;
+  }
+
+  /**
+   * @return the exception this node resulted in, or null if it isn't set or didn't result in an exception.
+   */
+  Exception getException() {
+    NodeResult<ResultType> result = this.result;
+    return result == null ? null : result.getException();
+  }
+
+  // Null uses Graphy's default.
+  private volatile ChangeDetection<? super ResultType> changeDetection = null;
+
+  /**
+   * Sets how this node decides whether a new result is unchanged, overriding Graphy.getDefaultChangeDetection(). Pass
+   * null to go back to the default.
+   */
+  public void setChangeDetection(ChangeDetection<? super ResultType> changeDetection) {
+    this.changeDetection = changeDetection;
+  }
+
+  public ChangeDetection<? super ResultType> getChangeDetection() {
+    ChangeDetection<? super ResultType> changeDetection = this.changeDetection;
+    // Not a conditional expression, which Java 7 can't type as ChangeDetection<? super ResultType>.
+    if (changeDetection != null) {
+      return changeDetection;
+    }
+    return Graphy.getInstance().getDefaultChangeDetection();
+  }
+
+  boolean isUnchanged(NodeResult<ResultType> previous, NodeResult<ResultType> next) {
+    return getChangeDetection().isUnchanged(previous, next);
+  }
+
+  /**
+   * Names this node in metrics and other debugging output.
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  boolean hasName() {
+    return name != null;
+  }
+
+  /**
+   * @return the name set with setName, or the class name and identity hash code if there isn't one.
+   */
+  public String getName() {
+    String name = this.name;
+    return name != null ? name : getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this));
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<Node, NodeMetrics> METRICS = AtomicReferenceFieldUpdater.newUpdater(Node.class, NodeMetrics.class, "metrics");
+  private volatile NodeMetrics metrics = null;
+
+  /**
+   * @return this node's metrics, creating them if needed, or null if metrics are disabled.
+   */
+  final NodeMetrics metrics() {
+    Graphy graphy = Graphy.getInstance();
+    if (!graphy.isMetricsEnabled()) {
+      return null;
+    }
+    NodeMetrics metrics = this.metrics;
+    if (metrics == null) {
+      if (METRICS.compareAndSet(this, null, new NodeMetrics())) {
+        graphy.getMetricsRegistry().register(this);
+      }
+      metrics = this.metrics;
+    }
+    return metrics;
+  }
+
+  /**
+   * @return this node's metrics, or null if it has never recorded any.
+   */
+  final NodeMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Called whenever a result is applied to this node, whether or not it changed.
+   */
+  final void recordResult(boolean changed) {
+    if (changed) {
+      GraphProfiler.Recording recording = GraphProfiler.activeRecording();
+      if (recording != null) {
+        recording.resultChanged(this);
+      }
+    } else {
+      NodeMetrics metrics = metrics();
+      if (metrics != null) {
+        metrics.recordUnchangedResult();
+      }
+    }
+  }
+
+  // Held while parents are added or removed and while activating or deactivating, so the two never interleave. Only ever
+  // taken by a node before the locks of its dependencies, never after.
+  private final Object activationLock = new Object();
+  private volatile boolean isActive = false;
 
-  // TODO: Race conditions between activate and deactivate!
+  // The number of activation locks held by the current thread. Parents are notified while holding none, so work that
+  // notifies parents directly must not run while one is held, or it could take a parent's lock after a child's.
+  private static final ThreadLocal<int[]> heldActivationLocks = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  static boolean holdsActivationLock() {
+    return heldActivationLocks.get()[0] > 0;
+  }
+
+  /**
+   * Adds activator as a parent, activating this node if it wasn't already active. The node stays active for as long as
+   * it has parents.
+   */
   void activate(Node<?> activator) {
-    if (activator != null) {
-      parents.add(activator);
+    synchronized (activationLock) {
+      int[] held = heldActivationLocks.get();
+      ++held[0];
+      try {
+        if (activator != null) {
+          parents.add(activator);
+          updatePriority();
+        }
+        if (!isActive) {
+          isActive = true;
+          try {
+            activate();
+          } catch (RuntimeException e) {
+            // Such as a CycleDetectedException from below. Release whatever was activated, and forget activator.
+            isActive = false;
+            deactivate();
+            if (activator != null) {
+              parents.remove(activator);
+              updatePriority();
+            }
+            throw e;
+          }
+        }
+      } finally {
+        --held[0];
+      }
     }
-    if (isActive.compareAndSet(false, true)) {
-      activate();
+    if (activator != null) {
+      try {
+        activator.raiseRankAbove(this);
+      } catch (CycleDetectedException e) {
+        // Releases this node again if it was only activated for activator.
+        deactivate(activator);
+        throw e;
+      }
     }
   }
 
+  boolean isActive() {
+    return isActive;
+  }
+
   protected abstract void activate();
 
+  /**
+   * Removes deactivator as a parent. When the last parent is removed this node is deactivated, which releases its own
+   * dependencies in turn, so a subgraph with nothing observing it stops computing. Its last results are kept, so
+   * reactivating it only has to re-attach and refresh.
+   */
   void deactivate(Node<?> deactivator) {
-    parents.remove(deactivator);
-//    if (parents.isEmpty() && isActive.compareAndSet(true, false)) {
-//      deactivate();
-//    }
+    synchronized (activationLock) {
+      int[] held = heldActivationLocks.get();
+      ++held[0];
+      try {
+        parents.remove(deactivator);
+        updatePriority();
+        if (isActive && parents.isEmpty()) {
+          isActive = false;
+          deactivate();
+        }
+      } finally {
+        --held[0];
+      }
+    }
+  }
+
+  /**
+   * Releases this node's dependencies by calling deactivate(this) on each node activate() activated. Called with this
+   * node's activation lock held.
+   */
+  protected void deactivate() {
+    // Nothing to release by default.
   }
 
-  //protected abstract void deactivate();
+  /**
+   * Activates a lazily activated dependency, if shouldActivate is still set and this node hasn't been deactivated in
+   * the meantime. Deactivation should reset shouldActivate, so the dependency is activated lazily again next time.
+   */
+  final void activateLazily(AtomicBoolean shouldActivate, Node<?> dependency) {
+    synchronized (activationLock) {
+      int[] held = heldActivationLocks.get();
+      ++held[0];
+      try {
+        if (isActive && shouldActivate.compareAndSet(true, false)) {
+          dependency.activate(this);
+        }
+      } finally {
+        --held[0];
+      }
+    }
+  }
 
   abstract void onDependencyUpdated(Node<?> dependency);
 
   void setResult(NodeResult<ResultType> result) {
-    if (this.result != result && (this.result == null || !this.result.equals(result))) {
+    Graphy.getInstance().getPropagationScheduler().setResult(this, result);
+  }
+
+  /**
+   * Stores result without notifying parents. Should only be called by the PropagationScheduler.
+   * @return true if the result changed
+   */
+  boolean applyResult(NodeResult<ResultType> result) {
+    boolean changed = !isUnchanged(this.result, result);
+    if (changed) {
       this.result = result;
-      notifyParents();
     }
+    recordResult(changed);
+    return changed;
   }
 
   void setResult(ResultType result) {
-    setResult(new NodeResult<ResultType>(result));
+    setResult(NodeResult.of(result));
   }
 
   void setResult(Exception exception) {
     setResult(new NodeResult<ResultType>(exception));
   }
 
-  // TODO: Enqueue updated nodes instead of calling onDependencyUpdated on multiple threads?
-  // TODO: This spawns a LOT of threads. (n + 1 where n is number of parents)
   void notifyParents() {
-    notifyParentsRunnable.refresh(Graphy.getInstance().getGraphyExecutorService());
+    Graphy.getInstance().getPropagationScheduler().notifyParents(this);
   }
 
-  private final NotifyParentsRunnable notifyParentsRunnable = new NotifyParentsRunnable();
-  private class NotifyParentsRunnable extends RefreshRunnable {
-    @Override
-    public void work() {
-      Iterator<Node<?>> parentsIterator = new ArrayList<Node<?>>(parents).iterator();
-      while (parentsIterator.hasNext()) {
-        final Node<?> parent = parentsIterator.next();
-        Graphy.getInstance().getGraphyExecutorService().execute(new Runnable() {
-          @Override
-          public void run() {
-            parent.onDependencyUpdated(Node.this);
+  /**
+   * @return the nodes this node reads from, whether or not they're currently active. Used by tools like GraphProfiler
+   * that walk the graph.
+   */
+  List<Node<?>> getDependencies() {
+    return Collections.emptyList();
+  }
+
+  // The priority set on this node, and the highest of that and its parents' priorities, which is what it is refreshed at.
+  private volatile int priority = 0;
+  private volatile int effectivePriority = 0;
+
+  /**
+   * Sets the priority this node's refreshes run at, on an ExecutorService that supports it such as
+   * PriorityLaneExecutor. Nodes inherit the highest priority of the nodes depending on them, so setting a priority on
+   * a sink's node, or with Graphy.sink, raises the whole subgraph feeding it. Defaults to 0, the lowest.
+   */
+  public void setPriority(int priority) {
+    if (priority < 0) {
+      throw new IllegalArgumentException("priority must not be negative!");
+    }
+    this.priority = priority;
+    updatePriority();
+  }
+
+  /**
+   * @return the priority this node is refreshed at, including any inherited from its parents.
+   */
+  public int getPriority() {
+    return effectivePriority;
+  }
+
+  /**
+   * Recomputes this node's inherited priority, and that of its dependencies if it changed. Priorities are a scheduling
+   * hint, so concurrent changes may briefly leave a node at a stale priority.
+   */
+  void updatePriority() {
+    List<Node<?>> pending = new ArrayList<Node<?>>();
+    pending.add(this);
+    while (!pending.isEmpty()) {
+      Node<?> node = pending.remove(pending.size() - 1);
+      int priority = node.priority;
+      for (Node<?> parent : node.getParents()) {
+        priority = Math.max(priority, parent.effectivePriority);
+      }
+      if (priority != node.effectivePriority) {
+        node.effectivePriority = priority;
+        pending.addAll(node.getDependencies());
+      }
+    }
+  }
+
+  /**
+   * @return the nodes currently depending on this node.
+   */
+  List<Node<?>> getParents() {
+    ParentRegistry.ParentReference[] references = parents.snapshot();
+    List<Node<?>> parents = new ArrayList<Node<?>>(references.length);
+    for (ParentRegistry.ParentReference reference : references) {
+      Node<?> parent = reference.get();
+      if (parent != null) {
+        parents.add(parent);
+      }
+    }
+    return parents;
+  }
+
+  /**
+   * @return true for the nodes created by Graphy.sink, which hand results out of the graph.
+   */
+  boolean isSink() {
+    return false;
+  }
+
+  // Set while this node is waiting on the PropagationScheduler's run queue.
+  private final AtomicBoolean notifyQueued = new AtomicBoolean(false);
+
+  boolean markNotifyQueued() {
+    return notifyQueued.compareAndSet(false, true);
+  }
+
+  void clearNotifyQueued() {
+    notifyQueued.set(false);
+  }
+
+  boolean isNotifyQueued() {
+    return notifyQueued.get();
+  }
+
+  void deliverToParents() {
+    NodeMetrics metrics = metrics();
+    if (metrics != null) {
+      metrics.recordNotify();
+    }
+    for (ParentRegistry.ParentReference reference : parents.snapshot()) {
+      Node<?> parent = reference.get();
+      if (parent != null) {
+        parent.onDependencyUpdated(this);
+      }
+    }
+  }
+
+  // A node's rank is always greater than the rank of each of its dependencies. Only changed under rankLock.
+  private volatile int rank = 0;
+
+  // Serializes rank maintenance, so edges added concurrently are checked against each other's ranks and can't close a
+  // cycle unseen.
+  private static final Object rankLock = new Object();
+
+  // Bumped on entering and leaving rankLock, so it's odd while ranks are being maintained. Lets raiseRankAbove trust an
+  // edge that's already ranked without taking rankLock.
+  private static volatile int rankEpoch = 0;
+
+  int getRank() {
+    return rank;
+  }
+
+  /**
+   * Ranks this node above dependency, a new dependency of it, raising its ancestors as needed so that every node stays
+   * ranked above its dependencies.
+   * <p/>
+   * Since ranks are a topological order, the new edge can only close a cycle if it raises this node's rank, and the
+   * cycle must then pass through the region being raised. So with cycle detection enabled, reaching dependency again
+   * throws a CycleDetectedException, at no cost beyond the rank maintenance itself. The new ranks are worked out before
+   * any are applied, so a detected cycle leaves every rank unchanged.
+   */
+  void raiseRankAbove(Node<?> dependency) {
+    // Reactivating an edge usually finds it already ranked. That's only trusted if no maintenance overlapped the reads,
+    // since maintenance that started before this node became dependency's parent can still raise dependency past it.
+    int epoch = rankEpoch;
+    if ((epoch & 1) == 0 && rank > dependency.rank && rankEpoch == epoch) {
+      return;
+    }
+    synchronized (rankLock) {
+      ++rankEpoch;
+      try {
+        for (Map.Entry<Node<?>, Integer> entry : rankRaises(dependency).entrySet()) {
+          entry.getKey().rank = entry.getValue();
+        }
+      } finally {
+        ++rankEpoch;
+      }
+    }
+  }
+
+  /**
+   * @return the new rank of each node that must be raised for this node to be ranked above origin. Only the region
+   * above this node whose ranks actually change is visited. Edges that would lead back onto the current path (including
+   * back to origin) close a cycle and are skipped, unless cycle detection is enabled.
+   */
+  private Map<Node<?>, Integer> rankRaises(Node<?> origin) {
+    if (rank > origin.rank) {
+      return Collections.emptyMap();
+    }
+
+    Map<Node<?>, Integer> raised = new IdentityHashMap<Node<?>, Integer>();
+
+    boolean detectCycles = Graphy.getInstance().isCycleDetectionEnabled();
+    Set<Node<?>> onPath = Collections.newSetFromMap(new IdentityHashMap<Node<?>, Boolean>());
+    List<RankFrame> stack = new ArrayList<RankFrame>();
+    raised.put(this, origin.rank + 1);
+    onPath.add(origin);
+    onPath.add(this);
+    stack.add(new RankFrame(this));
+    while (!stack.isEmpty()) {
+      RankFrame frame = stack.get(stack.size() - 1);
+      if (frame.index < frame.parents.length) {
+        Node<?> parent = frame.parents[frame.index++].get();
+        if (parent == null) {
+          continue;
+        }
+        if (detectCycles && parent == origin) {
+          List<Node<?>> cycle = new ArrayList<Node<?>>(stack.size() + 2);
+          cycle.add(origin);
+          for (RankFrame pathFrame : stack) {
+            cycle.add(pathFrame.node);
           }
-        });
+          cycle.add(origin);
+          throw new CycleDetectedException(cycle);
+        }
+        int minimumRank = raised.get(frame.node) + 1;
+        Integer parentRank = raised.get(parent);
+        if (!onPath.contains(parent) && (parentRank != null ? parentRank : parent.rank) < minimumRank) {
+          raised.put(parent, minimumRank);
+          onPath.add(parent);
+          stack.add(new RankFrame(parent));
+        }
+      } else {
+        onPath.remove(frame.node);
+        stack.remove(stack.size() - 1);
       }
     }
+    return raised;
+  }
+
+  private static final class RankFrame {
+    private final Node<?> node;
+    private final ParentRegistry.ParentReference[] parents;
+    private int index = 0;
+
+    RankFrame(Node<?> node) {
+      this.node = node;
+      this.parents = node.parents.snapshot();
+    }
+  }
+
+  /**
+   * Thrown by activation when cycle detection is enabled (see Graphy.setCycleDetectionEnabled) and a node would come to
+   * depend on itself. The edge that closed the cycle is removed, and anything activated only for it is released, before
+   * this is thrown. No ranks are changed.
+   */
+  public static class CycleDetectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> cycle;
+
+    CycleDetectedException(List<Node<?>> cycle) {
+      super("Cycle detected: " + describe(cycle));
+      List<String> names = new ArrayList<String>(cycle.size());
+      for (Node<?> node : cycle) {
+        names.add(node.getName());
+      }
+      this.cycle = Collections.unmodifiableList(names);
+    }
+
+    private static String describe(List<Node<?>> cycle) {
+      StringBuilder builder = new StringBuilder();
+      for (Node<?> node : cycle) {
+        if (builder.length() > 0) {
+          builder.append(" -> ");
+        }
+        builder.append(node.getName());
+      }
+      return builder.toString();
+    }
+
+    /**
+     * @return the names of the nodes in the cycle, each followed by a node that depends on it, starting and ending with
+     * the same node.
+     */
+    public List<String> getCycle() {
+      return cycle;
+    }
   }
 
   public static class NodeNotProcessedException extends RuntimeException {
@@ -0,0 +1,230 @@
+package com.github.amlewis.graphy.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in runtime metrics for a single node. Nothing is recorded until metrics are enabled with
+ * Graphy.getInstance().setMetricsEnabled(true), and while disabled each instrumented call costs a single volatile read.
+ * A node's metrics are created the first time it records something while enabled, and are kept if metrics are later
+ * disabled.
+ * <p/>
+ * Use Graphy.getInstance().pollMetrics() to read the metrics of every live node that has recorded anything.
+ */
+public final class NodeMetrics {
+  // Bucket i counts latencies in [2^i, 2^(i+1)) nanoseconds, with 0 counted in bucket 0.
+  public static final int HISTOGRAM_BUCKETS = 64;
+
+  /**
+   * Weakly held list of the nodes that have recorded metrics, in the order they started recording. Nodes that have been
+   * garbage collected are purged via a ReferenceQueue whenever a node is registered or the registry is polled, so the
+   * registry doesn't grow with nodes that are never polled.
+   */
+  static final class Registry {
+    private final ReferenceQueue<Node<?>> referenceQueue = new ReferenceQueue<Node<?>>();
+    private final ConcurrentLinkedQueue<WeakReference<Node<?>>> nodes =
+        new ConcurrentLinkedQueue<WeakReference<Node<?>>>();
+
+    void register(Node<?> node) {
+      expungeStaleEntries();
+      nodes.add(new WeakReference<Node<?>>(node, referenceQueue));
+    }
+
+    List<Snapshot> poll() {
+      expungeStaleEntries();
+      List<Snapshot> snapshots = new ArrayList<Snapshot>();
+      for (WeakReference<Node<?>> reference : nodes) {
+        Node<?> node = reference.get();
+        if (node != null) {
+          NodeMetrics metrics = node.getMetrics();
+          if (metrics != null) {
+            snapshots.add(metrics.snapshot(node.getName()));
+          }
+        }
+      }
+      return snapshots;
+    }
+
+    int size() {
+      return nodes.size();
+    }
+
+    /**
+     * Drops cleared references if any have been enqueued, in a single pass over the registry.
+     */
+    private void expungeStaleEntries() {
+      if (referenceQueue.poll() == null) {
+        return;
+      }
+      while (referenceQueue.poll() != null) {
+        // Every cleared reference is dropped by the pass below.
+      }
+      Iterator<WeakReference<Node<?>>> iterator = nodes.iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().get() == null) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  private final AtomicLong processCount = new AtomicLong(0);
+  private final AtomicLong coalescedRefreshes = new AtomicLong(0);
+  private final AtomicLong queueWaitNanos = new AtomicLong(0);
+  private final AtomicLong unchangedResults = new AtomicLong(0);
+  private final AtomicLong notifyCount = new AtomicLong(0);
+  private final AtomicLongArray processingHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+  // When the oldest update that hasn't been processed yet was requested, or 0 if there is none.
+  private final AtomicLong pendingSince = new AtomicLong(0);
+
+  NodeMetrics() {
+
+  }
+
+  void recordUpdateRequested() {
+    if (!pendingSince.compareAndSet(0, System.nanoTime())) {
+      coalescedRefreshes.incrementAndGet();
+    }
+  }
+
+  void recordProcessStarted(long startNanos) {
+    long requested = pendingSince.getAndSet(0);
+    if (requested != 0) {
+      queueWaitNanos.addAndGet(startNanos - requested);
+    }
+  }
+
+  void recordProcessed(long processingNanos) {
+    processCount.incrementAndGet();
+    processingHistogram.incrementAndGet(bucketOf(processingNanos));
+  }
+
+  void recordUnchangedResult() {
+    unchangedResults.incrementAndGet();
+  }
+
+  void recordNotify() {
+    notifyCount.incrementAndGet();
+  }
+
+  static int bucketOf(long nanos) {
+    return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+  }
+
+  Snapshot snapshot(String name) {
+    long[] histogram = new long[HISTOGRAM_BUCKETS];
+    for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+      histogram[i] = processingHistogram.get(i);
+    }
+    return new Snapshot(name, processCount.get(), coalescedRefreshes.get(), queueWaitNanos.get(),
+        unchangedResults.get(), notifyCount.get(), histogram);
+  }
+
+  /**
+   * A node's metrics at the time they were polled. Counters are read one at a time, so may be slightly inconsistent
+   * with each other if the node is busy.
+   */
+  public static final class Snapshot {
+    private final String name;
+    private final long processCount;
+    private final long coalescedRefreshes;
+    private final long queueWaitNanos;
+    private final long unchangedResults;
+    private final long notifyCount;
+    private final long[] processingHistogram;
+
+    Snapshot(String name, long processCount, long coalescedRefreshes, long queueWaitNanos, long unchangedResults,
+        long notifyCount, long[] processingHistogram) {
+      this.name = name;
+      this.processCount = processCount;
+      this.coalescedRefreshes = coalescedRefreshes;
+      this.queueWaitNanos = queueWaitNanos;
+      this.unchangedResults = unchangedResults;
+      this.notifyCount = notifyCount;
+      this.processingHistogram = processingHistogram;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return how many times the node was processed.
+     */
+    public long getProcessCount() {
+      return processCount;
+    }
+
+    /**
+     * @return how many updates were requested while an earlier one was still waiting to be processed, and so were
+     * coalesced into it.
+     */
+    public long getCoalescedRefreshes() {
+      return coalescedRefreshes;
+    }
+
+    /**
+     * @return total time between an update being requested and processing starting, across all processes.
+     */
+    public long getQueueWaitNanos() {
+      return queueWaitNanos;
+    }
+
+    /**
+     * @return how many results were set that the node's ChangeDetection considered unchanged.
+     */
+    public long getUnchangedResults() {
+      return unchangedResults;
+    }
+
+    /**
+     * @return how many times the node's parents were notified.
+     */
+    public long getNotifyCount() {
+      return notifyCount;
+    }
+
+    /**
+     * @return a copy of the processing time histogram. See NodeMetrics.HISTOGRAM_BUCKETS.
+     */
+    public long[] getProcessingHistogram() {
+      return processingHistogram.clone();
+    }
+
+    /**
+     * @return an upper bound on the given percentile (0 to 100) of processing time, in nanoseconds, or 0 if the node
+     * was never processed.
+     */
+    public long getProcessingNanosPercentile(double percentile) {
+      if (processCount == 0) {
+        return 0;
+      }
+      long total = 0;
+      for (long count : processingHistogram) {
+        total += count;
+      }
+      long target = (long) Math.ceil(total * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+        seen += processingHistogram[i];
+        if (seen >= target && seen > 0) {
+          return i == HISTOGRAM_BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        }
+      }
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+      return name + "{processed=" + processCount + ", coalesced=" + coalescedRefreshes
+          + ", queueWaitNanos=" + queueWaitNanos + ", unchanged=" + unchangedResults + ", notified=" + notifyCount
+          + ", p50Nanos<=" + getProcessingNanosPercentile(50) + ", p99Nanos<=" + getProcessingNanosPercentile(99) + "}";
+    }
+  }
+}
@@ -4,6 +4,38 @@ package com.github.amlewis.graphy.core;
  * Created by amlewis on 7/12/15.
  */
 public class NodeResult<ResultType> {
+  private static final NodeResult<Object> NULL = new NodeResult<Object>((Object) null);
+  private static final NodeResult<Boolean> TRUE = new NodeResult<Boolean>(Boolean.TRUE);
+  private static final NodeResult<Boolean> FALSE = new NodeResult<Boolean>(Boolean.FALSE);
+  private static final int INTEGER_CACHE_LOW = -128;
+  private static final int INTEGER_CACHE_HIGH = 127;
+  private static final NodeResult<?>[] INTEGERS = new NodeResult<?>[INTEGER_CACHE_HIGH - INTEGER_CACHE_LOW + 1];
+
+  static {
+    for (int i = 0; i < INTEGERS.length; ++i) {
+      INTEGERS[i] = new NodeResult<Integer>(Integer.valueOf(i + INTEGER_CACHE_LOW));
+    }
+  }
+
+  /**
+   * Like new NodeResult(result), but returns a shared instance for null, Booleans and small Integers. Since unchanged
+   * results are first compared by reference, setting one of these values again is dropped without calling equals().
+   */
+  @SuppressWarnings("unchecked")
+  public static <ResultType> NodeResult<ResultType> of(ResultType result) {
+    if (result == null) {
+      return (NodeResult<ResultType>) NULL;
+    } else if (result instanceof Boolean) {
+      return (NodeResult<ResultType>) (((Boolean) result) ? TRUE : FALSE);
+    } else if (result instanceof Integer) {
+      int value = (Integer) result;
+      if (value >= INTEGER_CACHE_LOW && value <= INTEGER_CACHE_HIGH) {
+        return (NodeResult<ResultType>) INTEGERS[value - INTEGER_CACHE_LOW];
+      }
+    }
+    return new NodeResult<ResultType>(result);
+  }
+
   private final ResultType result;
   private final Exception exception;
 
@@ -0,0 +1,98 @@
+package com.github.amlewis.graphy.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Weakly held set of a node's parents, built for read-mostly iteration. Readers get an immutable snapshot array which is
+ * replaced wholesale whenever a parent is added or removed, so iterating takes no lock and allocates nothing. Parents
+ * that have been garbage collected are purged via a ReferenceQueue the next time the registry is read or modified.
+ */
+final class ParentRegistry {
+  private static final ParentReference[] EMPTY = new ParentReference[0];
+
+  private final ReferenceQueue<Node<?>> referenceQueue = new ReferenceQueue<Node<?>>();
+  private volatile ParentReference[] snapshot = EMPTY;
+
+  /**
+   * @return the current parents. Entries may have been cleared by the garbage collector, so callers must skip any
+   * reference whose get() returns null. The returned array must not be modified.
+   */
+  ParentReference[] snapshot() {
+    expungeStaleEntries();
+    return snapshot;
+  }
+
+  synchronized boolean add(Node<?> parent) {
+    expungeStaleEntries();
+    ParentReference[] current = snapshot;
+    if (indexOf(current, parent) >= 0) {
+      return false;
+    }
+    ParentReference[] next = new ParentReference[current.length + 1];
+    System.arraycopy(current, 0, next, 0, current.length);
+    next[current.length] = new ParentReference(parent, referenceQueue);
+    snapshot = next;
+    return true;
+  }
+
+  synchronized boolean remove(Node<?> parent) {
+    expungeStaleEntries();
+    ParentReference[] current = snapshot;
+    int index = indexOf(current, parent);
+    if (index < 0) {
+      return false;
+    }
+    ParentReference[] next = new ParentReference[current.length - 1];
+    System.arraycopy(current, 0, next, 0, index);
+    System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+    snapshot = next;
+    return true;
+  }
+
+  boolean isEmpty() {
+    return snapshot().length == 0;
+  }
+
+  private static int indexOf(ParentReference[] references, Node<?> parent) {
+    for (int i = 0; i < references.length; ++i) {
+      if (references[i].get() == parent) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Drops cleared parents if any have been enqueued. Checking the queue takes no lock, so readers only synchronize when
+   * there is something to purge.
+   */
+  private void expungeStaleEntries() {
+    if (referenceQueue.poll() == null) {
+      return;
+    }
+    synchronized (this) {
+      while (referenceQueue.poll() != null) {
+        // Every cleared reference is dropped by the single pass below.
+      }
+
+      // A single pass, so a reference cleared part way through can't leave an empty slot.
+      ParentReference[] current = snapshot;
+      List<ParentReference> live = new ArrayList<ParentReference>(current.length);
+      for (ParentReference parentReference : current) {
+        if (parentReference.get() != null) {
+          live.add(parentReference);
+        }
+      }
+      snapshot = live.toArray(new ParentReference[live.size()]);
+    }
+  }
+
+  static final class ParentReference extends WeakReference<Node<?>> {
+    ParentReference(Node<?> parent, ReferenceQueue<Node<?>> referenceQueue) {
+      super(parent, referenceQueue);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * Result holder for primitive nodes. Values are stored as raw bits and compared by ==, so setting a value neither boxes
+ * nor allocates a NodeResult. A NodeResult is only created when something asks for the boxed view, and is reused until
+ * the value changes. Exceptions are stored as ordinary NodeResults.
+ */
+abstract class PrimitiveResult<BoxedType> {
+  private static final int UNSET = 0;
+  private static final int VALUE = 1;
+  private static final int EXCEPTION = 2;
+
+  // bits and exceptionResult are always written before state, so a reader that sees a state also sees its data.
+  private volatile int state = UNSET;
+  private volatile long bits = 0;
+  private volatile NodeResult<BoxedType> exceptionResult = null;
+  private volatile NodeResult<BoxedType> boxedResult = null;
+
+  abstract BoxedType box(long bits);
+
+  abstract long unbox(BoxedType value);
+
+  /**
+   * @return true if the value changed
+   */
+  final boolean setBits(long bits) {
+    if (state == VALUE && this.bits == bits) {
+      return false;
+    }
+    this.bits = bits;
+    state = VALUE;
+    return true;
+  }
+
+  /**
+   * @return true if changeDetection treats two values as unchanged exactly when their bits are equal, so values can be
+   * set with setBits without boxing them.
+   */
+  final boolean comparesBits(ChangeDetection<?> changeDetection) {
+    return changeDetection == ChangeDetection.EQUALS;
+  }
+
+  /**
+   * Sets result unless changeDetection considers it unchanged, as for Node.applyResult.
+   * @return true if the result changed
+   */
+  final boolean apply(ChangeDetection<? super BoxedType> changeDetection, NodeResult<BoxedType> result) {
+    if (comparesBits(changeDetection)) {
+      return set(result);
+    }
+    if (changeDetection.isUnchanged(get(), result)) {
+      return false;
+    }
+    set(result);
+    return true;
+  }
+
+  /**
+   * Sets a boxed result, as given to Node.applyResult.
+   * @return true if the result changed
+   */
+  final boolean set(NodeResult<BoxedType> result) {
+    if (result == null) {
+      if (state == UNSET) {
+        return false;
+      }
+      state = UNSET;
+      return true;
+    }
+
+    if (result.isException()) {
+      if (state == EXCEPTION && result.equals(exceptionResult)) {
+        return false;
+      }
+      exceptionResult = result;
+      state = EXCEPTION;
+      return true;
+    }
+
+    BoxedType value = result.getResult();
+    if (value == null) {
+      return set(new NodeResult<BoxedType>(new NullPointerException("Primitive nodes cannot hold null!")));
+    }
+    return setBits(unbox(value));
+  }
+
+  /**
+   * @return the boxed view of this result, as returned by Node.getResult.
+   */
+  final NodeResult<BoxedType> get() {
+    switch (state) {
+      case VALUE:
+        long bits = this.bits;
+        NodeResult<BoxedType> boxed = boxedResult;
+        if (boxed == null || unbox(boxed.getResult()) != bits) {
+          boxed = new NodeResult<BoxedType>(box(bits));
+          boxedResult = boxed;
+        }
+        return boxed;
+      case EXCEPTION:
+        return exceptionResult;
+      default:
+        return null;
+    }
+  }
+
+  final boolean isSet() {
+    return state != UNSET;
+  }
+
+  final Exception getException() {
+    return state == EXCEPTION ? exceptionResult.getException() : null;
+  }
+
+  /**
+   * @return the value's bits, throwing the same exceptions as Node.get() if there is no value.
+   */
+  final long getBits() {
+    int state = this.state;
+    if (state == VALUE) {
+      return bits;
+    } else if (state == EXCEPTION) {
+      throw new Node.NodeProcessingException("Node resulted in an exception!", exceptionResult.getException());
+    }
+    throw new Node.NodeNotProcessedException("Node hasn't completed processing!");
+  }
+}
@@ -0,0 +1,71 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Collection;
+
+/**
+ * Shared implementation of IntStateNode, LongStateNode and DoubleStateNode, which keep their result as raw bits in a
+ * PrimitiveResult. Subclasses compute their primitive and convert it to bits.
+ */
+abstract class PrimitiveStateNode<BoxedType, ResultHolder extends PrimitiveResult<BoxedType>> extends StateNode<BoxedType> {
+  final ResultHolder result;
+
+  PrimitiveStateNode(ResultHolder result, Collection<Node<?>> dependencies) {
+    super(dependencies);
+    this.result = result;
+  }
+
+  /**
+   * @return the bits of the processed value.
+   */
+  abstract long processBits() throws Exception;
+
+  @Override
+  final void compute(ResultCache.Lookup<BoxedType> lookup) {
+    long bits;
+    try {
+      bits = processBits();
+    } catch (Exception e) {
+      if (!shouldCancel()) {
+        setProcessException(e);
+      }
+      return;
+    }
+
+    if (!shouldCancel()) {
+      if (lookup != null) {
+        lookup.store(result.box(bits));
+      }
+      if (Graphy.getInstance().getPropagationScheduler().appliesImmediately(this) && result.comparesBits(getChangeDetection())) {
+        boolean changed = result.setBits(bits);
+        recordResult(changed);
+        if (changed) {
+          notifyParents();
+        }
+      } else {
+        setResult(new NodeResult<BoxedType>(result.box(bits)));
+      }
+    }
+  }
+
+  @Override
+  NodeResult<BoxedType> getResult() {
+    return result.get();
+  }
+
+  @Override
+  boolean hasResult() {
+    return result.isSet();
+  }
+
+  @Override
+  Exception getException() {
+    return result.getException();
+  }
+
+  @Override
+  boolean applyResult(NodeResult<BoxedType> result) {
+    boolean changed = this.result.apply(getChangeDetection(), result);
+    recordResult(changed);
+    return changed;
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.amlewis.graphy.core;
+
+/**
+ * Shared implementation of IntValueNode, LongValueNode and DoubleValueNode, which keep their value as raw bits in a
+ * PrimitiveResult. Subclasses convert their primitive to and from bits.
+ */
+abstract class PrimitiveValueNode<BoxedType, ResultHolder extends PrimitiveResult<BoxedType>> extends Node<BoxedType> {
+  final ResultHolder result;
+
+  PrimitiveValueNode(ResultHolder result) {
+    this.result = result;
+  }
+
+  /**
+   * Inside a batch (see Graphy.batch), from outside the wave in RANKED mode, or when this node doesn't use
+   * ChangeDetection.EQUALS, the value is boxed so it can be applied later or compared by the node's ChangeDetection.
+   */
+  final void setBits(long bits) {
+    if (Batch.current() == null && Graphy.getInstance().getPropagationScheduler().appliesImmediately(this)
+        && result.comparesBits(getChangeDetection())) {
+      boolean changed = result.setBits(bits);
+      recordResult(changed);
+      if (changed) {
+        notifyParents();
+      }
+    } else {
+      write(new NodeResult<BoxedType>(result.box(bits)));
+    }
+  }
+
+  public void setValue(Exception exception) {
+    write(new NodeResult<BoxedType>(exception));
+  }
+
+  public void unset() {
+    write(null);
+  }
+
+  private void write(NodeResult<BoxedType> result) {
+    Batch batch = Batch.current();
+    if (batch != null) {
+      batch.stage(this, result);
+    } else {
+      setResult(result);
+    }
+  }
+
+  @Override
+  NodeResult<BoxedType> getResult() {
+    return result.get();
+  }
+
+  @Override
+  boolean hasResult() {
+    return result.isSet();
+  }
+
+  @Override
+  Exception getException() {
+    return result.getException();
+  }
+
+  @Override
+  boolean applyResult(NodeResult<BoxedType> result) {
+    boolean changed = this.result.apply(getChangeDetection(), result);
+    recordResult(changed);
+    return changed;
+  }
+
+  @Override
+  public void activate() {
+    // No activation needed
+  }
+
+  @Override
+  void onDependencyUpdated(Node<?> dependency) {
+    // No dependencies.
+  }
+}
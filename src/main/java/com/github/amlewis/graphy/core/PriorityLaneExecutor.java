@@ -0,0 +1,275 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ExecutorService with a queue per priority lane, for use as the default processing ExecutorService. Nodes are
+ * refreshed in the lane of their priority (see Node.setPriority), so a burst of low priority refreshes doesn't delay
+ * latency-critical ones. Priorities at or above the lane count share the top lane, and tasks that aren't refreshes
+ * run in lane 0.
+ * <p/>
+ * Within a lane tasks run in FIFO order. To keep low lanes from starving, a task counts as one lane higher for every
+ * agingTime it has waited, and workers always take the task at the head of the lane that is highest once aged.
+ * <p/>
+ * Unlike the default cached thread pool, the number of threads is fixed, so nodes processed here should not block for
+ * long. AsyncStateNode suits I/O-bound nodes.
+ */
+public class PriorityLaneExecutor extends AbstractExecutorService {
+  /**
+   * Implemented by tasks that know which lane they belong in.
+   */
+  public interface Prioritized {
+    int getPriority();
+  }
+
+  private final List<ArrayDeque<Task>> lanes;
+  private final long agingNanos;
+  private final Thread[] workers;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition terminated = lock.newCondition();
+  private int queued = 0;
+  private int runningWorkers;
+  private boolean shutdown = false;
+
+  public PriorityLaneExecutor(int threadCount, int laneCount, long agingTime, TimeUnit unit) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("threadCount must be positive!");
+    }
+    if (laneCount < 1) {
+      throw new IllegalArgumentException("laneCount must be positive!");
+    }
+    if (agingTime <= 0) {
+      throw new IllegalArgumentException("agingTime must be positive!");
+    }
+    this.lanes = new ArrayList<ArrayDeque<Task>>(laneCount);
+    for (int i = 0; i < laneCount; ++i) {
+      lanes.add(new ArrayDeque<Task>());
+    }
+    this.agingNanos = unit.toNanos(agingTime);
+    this.workers = new Thread[threadCount];
+    this.runningWorkers = threadCount;
+    ThreadFactory threadFactory = new PropagationScheduler.WorkerThreadFactory("graphy-processing");
+    for (int i = 0; i < threadCount; ++i) {
+      workers[i] = threadFactory.newThread(new Worker());
+      workers[i].start();
+    }
+  }
+
+  public int getLaneCount() {
+    return lanes.size();
+  }
+
+  /**
+   * @return the number of tasks waiting in lane, not counting tasks that are running.
+   */
+  public int getQueueDepth(int lane) {
+    lock.lock();
+    try {
+      return lanes.get(lane).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of tasks waiting in each lane, read together.
+   */
+  public int[] getQueueDepths() {
+    lock.lock();
+    try {
+      int[] depths = new int[lanes.size()];
+      for (int i = 0; i < depths.length; ++i) {
+        depths[i] = lanes.get(i).size();
+      }
+      return depths;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (command == null) {
+      throw new NullPointerException();
+    }
+    int priority = command instanceof Prioritized ? ((Prioritized) command).getPriority() : 0;
+    int lane = Math.max(0, Math.min(lanes.size() - 1, priority));
+
+    lock.lock();
+    try {
+      if (shutdown) {
+        throw new RejectedExecutionException("PriorityLaneExecutor has been shut down");
+      }
+      lanes.get(lane).addLast(new Task(command, System.nanoTime()));
+      ++queued;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Keeps the priority of submitted refreshes, which would otherwise be hidden by the FutureTask wrapping them.
+   */
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+    if (runnable instanceof Prioritized) {
+      return new PrioritizedFutureTask<T>(runnable, value, ((Prioritized) runnable).getPriority());
+    }
+    return super.newTaskFor(runnable, value);
+  }
+
+  /**
+   * Called with lock held, and only when something is queued.
+   */
+  private Task take() {
+    long now = System.nanoTime();
+    int bestLane = -1;
+    double bestScore = 0;
+    for (int lane = lanes.size() - 1; lane >= 0; --lane) {
+      Task head = lanes.get(lane).peekFirst();
+      if (head != null) {
+        double score = lane + (double) (now - head.enqueuedNanos) / agingNanos;
+        if (bestLane < 0 || score > bestScore) {
+          bestLane = lane;
+          bestScore = score;
+        }
+      }
+    }
+    --queued;
+    return lanes.get(bestLane).pollFirst();
+  }
+
+  @Override
+  public void shutdown() {
+    lock.lock();
+    try {
+      shutdown = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> drained = new ArrayList<Runnable>();
+    lock.lock();
+    try {
+      shutdown = true;
+      for (ArrayDeque<Task> lane : lanes) {
+        for (Task task : lane) {
+          drained.add(task.runnable);
+        }
+        lane.clear();
+      }
+      queued = 0;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+    return drained;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    lock.lock();
+    try {
+      return shutdown;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isTerminated() {
+    lock.lock();
+    try {
+      return shutdown && runningWorkers == 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long remaining = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (!(shutdown && runningWorkers == 0)) {
+        if (remaining <= 0) {
+          return false;
+        }
+        remaining = terminated.awaitNanos(remaining);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Task {
+    private final Runnable runnable;
+    private final long enqueuedNanos;
+
+    Task(Runnable runnable, long enqueuedNanos) {
+      this.runnable = runnable;
+      this.enqueuedNanos = enqueuedNanos;
+    }
+  }
+
+  private static final class PrioritizedFutureTask<T> extends FutureTask<T> implements Prioritized {
+    private final int priority;
+
+    PrioritizedFutureTask(Runnable runnable, T value, int priority) {
+      super(runnable, value);
+      this.priority = priority;
+    }
+
+    @Override
+    public int getPriority() {
+      return priority;
+    }
+  }
+
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      while (true) {
+        Runnable runnable;
+        lock.lock();
+        try {
+          while (queued == 0 && !shutdown) {
+            notEmpty.awaitUninterruptibly();
+          }
+          if (queued == 0) {
+            if (--runningWorkers == 0) {
+              terminated.signalAll();
+            }
+            return;
+          }
+          runnable = take().runnable;
+        } finally {
+          lock.unlock();
+        }
+
+        // Don't let an interrupt aimed at the previous task leak into this one.
+        Thread.interrupted();
+        try {
+          runnable.run();
+        } catch (RuntimeException e) {
+          PropagationScheduler.reportUncaughtException(e);
+        }
+      }
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package com.github.amlewis.graphy.core;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by amlewis on 7/13/15.
@@ -9,10 +12,46 @@ abstract class ProcessingNode<ResultType> extends Node<ResultType> {
   private ExecutorService executorService = null;
 
   private final ProcessingNodeRunnable processingNodeRunnable = new ProcessingNodeRunnable();
-  private class ProcessingNodeRunnable extends RefreshRunnable {
+  private class ProcessingNodeRunnable extends RefreshRunnable implements PriorityLaneExecutor.Prioritized {
+    @Override
+    public int getPriority() {
+      return ProcessingNode.this.getPriority();
+    }
+
     @Override
     public void work() {
-      process();
+      if (isRestoredResultCurrent()) {
+        return;
+      }
+      NodeMetrics metrics = metrics();
+      GraphProfiler.Recording recording = GraphProfiler.activeRecording();
+      boolean adaptive = getDispatchMode() == Graphy.DispatchMode.ADAPTIVE;
+      if (metrics == null && recording == null && !adaptive) {
+        process();
+        return;
+      }
+
+      long start = System.nanoTime();
+      if (metrics != null) {
+        metrics.recordProcessStarted(start);
+      }
+      if (recording != null) {
+        recording.processStarted(ProcessingNode.this);
+      }
+      try {
+        process();
+      } finally {
+        long end = System.nanoTime();
+        if (adaptive) {
+          recordProcessCost(end - start);
+        }
+        if (metrics != null) {
+          metrics.recordProcessed(end - start);
+        }
+        if (recording != null) {
+          recording.processed(ProcessingNode.this, start, end);
+        }
+      }
     }
   }
 
@@ -25,9 +64,116 @@ abstract class ProcessingNode<ResultType> extends Node<ResultType> {
   }
 
   final void update() {
+    NodeMetrics metrics = metrics();
+    if (metrics != null) {
+      metrics.recordUpdateRequested();
+    }
+    GraphProfiler.Recording recording = GraphProfiler.activeRecording();
+    if (recording != null) {
+      recording.updateRequested(this);
+    }
+    Graphy.getInstance().getPropagationScheduler().update(this);
+  }
+
+  /**
+   * Processes on this node's ExecutorService.
+   */
+  final void refresh() {
     processingNodeRunnable.refresh(getExecutorService());
   }
 
+  /**
+   * Processes on the calling thread, unless this node is already processing on another thread.
+   */
+  final void refreshInline() {
+    processingNodeRunnable.refreshInline();
+  }
+
+  private volatile Graphy.DispatchMode dispatchMode = null;
+  // Exponentially weighted moving average of process() time for ADAPTIVE dispatch, or -1 until it has been measured.
+  private volatile long averageProcessNanos = -1;
+
+  /**
+   * @return this node's DispatchMode, or Graphy's default if none has been set.
+   */
+  public Graphy.DispatchMode getDispatchMode() {
+    Graphy.DispatchMode dispatchMode = this.dispatchMode;
+    return dispatchMode != null ? dispatchMode : Graphy.getInstance().getDefaultDispatchMode();
+  }
+
+  /**
+   * Sets how this node is processed when its dependencies update in BATCHED mode, or null to use Graphy's default. See
+   * Graphy.DispatchMode.
+   */
+  public void setDispatchMode(Graphy.DispatchMode dispatchMode) {
+    this.dispatchMode = dispatchMode;
+  }
+
+  private void recordProcessCost(long nanos) {
+    long average = averageProcessNanos;
+    // Races between concurrent updates only lose a sample.
+    averageProcessNanos = average < 0 ? nanos : average + (nanos - average) / 4;
+  }
+
+  /**
+   * @return true if this node is cheap enough, or marked, to be processed on the thread that updated it.
+   */
+  boolean prefersInline() {
+    switch (getDispatchMode()) {
+      case INLINE:
+        return true;
+      case ADAPTIVE:
+        long average = averageProcessNanos;
+        return average >= 0 && average <= Graphy.getInstance().getInlineCostThresholdNanos();
+      default:
+        return false;
+    }
+  }
+
+  // The dependency results a restored result was computed from, until a dependency changes. See GraphSnapshot.
+  private volatile Map<Node<?>, NodeResult<?>> restoredInputs = null;
+
+  /**
+   * Skips processing for as long as every dependency still has the given result, since the current result, which was
+   * restored from a snapshot, was computed from them.
+   */
+  void markRestored(Map<Node<?>, NodeResult<?>> inputs) {
+    this.restoredInputs = inputs;
+  }
+
+  /**
+   * @return true if the restored result still applies, so processing can be skipped. Once a dependency has changed,
+   * this node processes as normal from then on.
+   */
+  private boolean isRestoredResultCurrent() {
+    Map<Node<?>, NodeResult<?>> inputs = restoredInputs;
+    if (inputs == null) {
+      return false;
+    }
+    List<Node<?>> dependencies = getDependencies();
+    boolean current = dependencies.size() == inputs.size();
+    for (int i = 0; current && i < dependencies.size(); ++i) {
+      Node<?> dependency = dependencies.get(i);
+      NodeResult<?> input = inputs.get(dependency);
+      current = input != null && dependency.getResult() == input;
+    }
+    if (!current) {
+      restoredInputs = null;
+    }
+    return current;
+  }
+
+  // Set while this node is waiting to be processed by the RankedPropagationScheduler.
+  private final AtomicBoolean processQueued = new AtomicBoolean(false);
+
+  boolean markProcessQueued() {
+    return processQueued.compareAndSet(false, true);
+  }
+
+  void clearProcessQueued() {
+    processQueued.set(false);
+  }
+
   /**
    * onDependencyUpdated must call update() when it is valid to update the node.
    * @param dependency
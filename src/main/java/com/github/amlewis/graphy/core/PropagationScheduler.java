@@ -0,0 +1,70 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when and on which thread results are applied, parents are notified and ProcessingNodes are processed.
+ * Graphy holds a single scheduler, chosen by its PropagationMode.
+ */
+abstract class PropagationScheduler {
+  /**
+   * Applies result to node, notifying the node's parents if the result changed.
+   */
+  abstract <ResultType> void setResult(Node<ResultType> node, NodeResult<ResultType> result);
+
+  /**
+   * Applies several results as a single change, notifying the parents of every node whose result changed only once all
+   * results have been applied.
+   */
+  abstract void setResults(Map<Node<?>, NodeResult<?>> results);
+
+  /**
+   * @return true if a result set on node by the calling thread right now would be applied immediately, in which case a
+   * node may store the result itself and call notifyParents instead of going through setResult.
+   */
+  abstract boolean appliesImmediately(Node<?> node);
+
+  /**
+   * Schedules onDependencyUpdated(node) to be called on each of node's parents.
+   */
+  abstract void notifyParents(Node<?> node);
+
+  /**
+   * Schedules node to be processed.
+   */
+  abstract void update(ProcessingNode<?> node);
+
+  /**
+   * Stops the scheduler's threads once all currently scheduled work has completed.
+   */
+  abstract void shutdown();
+
+  @SuppressWarnings("unchecked")
+  static boolean applyResult(Node<?> node, NodeResult<?> result) {
+    return ((Node<Object>) node).applyResult((NodeResult<Object>) result);
+  }
+
+  static void reportUncaughtException(RuntimeException e) {
+    Thread currentThread = Thread.currentThread();
+    currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, e);
+  }
+
+  static class WorkerThreadFactory implements ThreadFactory {
+    private static final AtomicInteger poolNumber = new AtomicInteger(1);
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+    private final String namePrefix;
+
+    WorkerThreadFactory(String name) {
+      this.namePrefix = name + "-" + poolNumber.getAndIncrement() + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Glitch-free PropagationScheduler. All propagation happens on a single wave thread. Results set from other threads are
+ * queued and applied together at the start of the next wave, after which notifications and processing run in rank
+ * order. Since a node is ranked above all of its dependencies, every dependency of a node has settled before the node
+ * is processed, so each node is processed at most once per wave and always sees a consistent set of inputs.
+ * <p/>
+ * ProcessingNodes are processed on the wave thread, ignoring any ExecutorService set on them. Ranks are only
+ * meaningful for acyclic graphs.
+ */
+class RankedPropagationScheduler extends PropagationScheduler {
+  private static final int APPLY = 0;
+  private static final int NOTIFY = 1;
+  private static final int PROCESS = 2;
+
+  private final Object lock = new Object();
+  private List<Task> inbox = new ArrayList<Task>();
+  private final PriorityQueue<Task> wave = new PriorityQueue<Task>();
+  private final Thread waveThread;
+  private long sequence = 0;
+  private boolean shutdown = false;
+
+  RankedPropagationScheduler() {
+    waveThread = new WorkerThreadFactory("graphy-wave").newThread(new WaveRunnable());
+    waveThread.start();
+  }
+
+  @Override
+  <ResultType> void setResult(Node<ResultType> node, NodeResult<ResultType> result) {
+    if (appliesImmediately(node)) {
+      if (node.applyResult(result)) {
+        notifyParents(node);
+      }
+    } else {
+      enqueue(APPLY, node, result);
+    }
+  }
+
+  /**
+   * All results are queued together, so they are applied at the start of the same wave.
+   */
+  @Override
+  void setResults(Map<Node<?>, NodeResult<?>> results) {
+    if (isWaveThread()) {
+      for (Map.Entry<Node<?>, NodeResult<?>> entry : results.entrySet()) {
+        if (applyResult(entry.getKey(), entry.getValue())) {
+          notifyParents(entry.getKey());
+        }
+      }
+    } else {
+      synchronized (lock) {
+        for (Map.Entry<Node<?>, NodeResult<?>> entry : results.entrySet()) {
+          inbox.add(new Task(APPLY, entry.getKey(), entry.getValue(), 0));
+        }
+        lock.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  boolean appliesImmediately(Node<?> node) {
+    // Inactive nodes have no parents to glitch, so there is nothing to gain by deferring their results.
+    return isWaveThread() || !node.isActive();
+  }
+
+  @Override
+  void notifyParents(Node<?> node) {
+    if (node.markNotifyQueued()) {
+      enqueue(NOTIFY, node, null);
+    }
+  }
+
+  @Override
+  void update(ProcessingNode<?> node) {
+    if (node.markProcessQueued()) {
+      enqueue(PROCESS, node, null);
+    }
+  }
+
+  @Override
+  void shutdown() {
+    synchronized (lock) {
+      shutdown = true;
+      lock.notifyAll();
+    }
+  }
+
+  private boolean isWaveThread() {
+    return Thread.currentThread() == waveThread;
+  }
+
+  private void enqueue(int kind, Node<?> node, NodeResult<?> result) {
+    if (isWaveThread()) {
+      wave.add(new Task(kind, node, result, sequence++));
+    } else {
+      synchronized (lock) {
+        inbox.add(new Task(kind, node, result, 0));
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void run(Task task) {
+    switch (task.kind) {
+      case APPLY:
+        if (applyResult(task.node, task.result)) {
+          notifyParents(task.node);
+        }
+        break;
+      case NOTIFY:
+        task.node.clearNotifyQueued();
+        task.node.deliverToParents();
+        break;
+      case PROCESS:
+        ProcessingNode<?> processingNode = (ProcessingNode<?>) task.node;
+        processingNode.clearProcessQueued();
+        processingNode.refreshInline();
+        break;
+    }
+  }
+
+  private class WaveRunnable implements Runnable {
+    @Override
+    public void run() {
+      List<Task> pending = new ArrayList<Task>();
+      while (true) {
+        synchronized (lock) {
+          while (inbox.isEmpty()) {
+            if (shutdown) {
+              return;
+            }
+            try {
+              lock.wait();
+            } catch (InterruptedException e) {
+              // Keep waiting until shutdown.
+            }
+          }
+          List<Task> swap = inbox;
+          inbox = pending;
+          pending = swap;
+        }
+
+        // Results are applied in arrival order before anything else in the wave runs.
+        for (Task task : pending) {
+          if (task.kind == APPLY) {
+            runSafely(task);
+          } else {
+            wave.add(new Task(task.kind, task.node, null, sequence++));
+          }
+        }
+        pending.clear();
+
+        Task task;
+        while ((task = wave.poll()) != null) {
+          runSafely(task);
+        }
+      }
+    }
+
+    private void runSafely(Task task) {
+      try {
+        RankedPropagationScheduler.this.run(task);
+      } catch (RuntimeException e) {
+        reportUncaughtException(e);
+      }
+    }
+  }
+
+  private static final class Task implements Comparable<Task> {
+    private final int kind;
+    private final Node<?> node;
+    private final NodeResult<?> result;
+    private final int rank;
+    private final long sequence;
+
+    Task(int kind, Node<?> node, NodeResult<?> result, long sequence) {
+      this.kind = kind;
+      this.node = node;
+      this.result = result;
+      this.rank = node.getRank();
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if (rank != other.rank) {
+        return rank < other.rank ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+}
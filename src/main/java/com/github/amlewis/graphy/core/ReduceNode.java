@@ -0,0 +1,65 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental reduce: folds every value of an IncrementalMap into a single result, only adding and removing the values
+ * that changed. An update is a remove of the previous value followed by an add of the new one.
+ */
+public final class ReduceNode<KeyType, ValueType, ResultType> extends StateNode<ResultType> {
+  /**
+   * An invertible fold, so values can be taken back out without starting over, such as a sum or a count. remove is only
+   * ever called with values that were added. Neither may return null.
+   */
+  public static interface Reducer<ValueType, ResultType> {
+    ResultType identity();
+
+    ResultType add(ResultType accumulator, ValueType value);
+
+    ResultType remove(ResultType accumulator, ValueType value);
+  }
+
+  public static <KeyType, ValueType, ResultType> ReduceNode<KeyType, ValueType, ResultType> of(Reducer<ValueType, ResultType> reducer, Node<IncrementalMap<KeyType, ValueType>> input) {
+    return new ReduceNode<KeyType, ValueType, ResultType>(reducer, input);
+  }
+
+  private final Reducer<ValueType, ResultType> reducer;
+  private final Node<IncrementalMap<KeyType, ValueType>> input;
+  private final DeltaReader<KeyType, ValueType> reader = new DeltaReader<KeyType, ValueType>();
+  private ResultType accumulator = null;
+
+  public ReduceNode(Reducer<ValueType, ResultType> reducer, Node<IncrementalMap<KeyType, ValueType>> input) {
+    super(input);
+    this.reducer = reducer;
+    this.input = input;
+  }
+
+  @Override
+  protected ResultType processResult() throws Exception {
+    IncrementalMap<KeyType, ValueType> current = input.get();
+    try {
+      List<IncrementalMap.Change<KeyType, ValueType>> changes = reader.read(current);
+      if (changes == null) {
+        ResultType accumulator = reducer.identity();
+        for (ValueType value : reader.readSnapshot(current).getContents().values()) {
+          accumulator = reducer.add(accumulator, value);
+        }
+        this.accumulator = accumulator;
+      } else {
+        for (IncrementalMap.Change<KeyType, ValueType> change : changes) {
+          if (!change.isInsert()) {
+            accumulator = reducer.remove(accumulator, change.getPreviousValue());
+          }
+          if (!change.isRemove()) {
+            accumulator = reducer.add(accumulator, change.getValue());
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      reader.reset();
+      throw e;
+    }
+    return accumulator;
+  }
+}
@@ -1,80 +1,156 @@
 package com.github.amlewis.graphy.core;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by amlewis on 7/13/15.
+ * <p/>
+ * Coalesces refresh requests so that work() runs at least once after each refresh, but never on more than one thread at
+ * a time. All state lives in a single atomically updated word, so refreshing never blocks, and refreshing while a
+ * refresh is already pending is a single read.
  */
 abstract class RefreshRunnable implements Runnable {
-  private boolean shouldCancel = false;
-  private boolean isUpdating = false;
-  private boolean needsUpdating = false;
-  private Future<?> runnableFuture = null;
+  private static final int UPDATING = 1;
+  private static final int NEEDS_UPDATING = 1 << 1;
+  private static final int SHOULD_CANCEL = 1 << 2;
+  // Set while cancel(true) is interrupting the runner. The runner doesn't finish a pass or return until it's clear, so
+  // the interrupt can't land on whatever the thread runs next.
+  private static final int INTERRUPTING = 1 << 3;
+  // Set once the runner has been interrupted, so the interrupt is cleared before the next pass or on return.
+  private static final int INTERRUPTED = 1 << 4;
+
+  private final AtomicInteger state = new AtomicInteger(0);
+  private volatile Thread runner = null;
 
   /**
    * Marks ndoe as needing a refresh, executing if needed.
    */
-  public void refresh(ExecutorService executorService) {
-    boolean shouldStartThread;
-    synchronized (this) {
-      needsUpdating = true;
-      shouldStartThread = !isUpdating;
-      isUpdating = true;
-      if (shouldStartThread) {
-        shouldCancel = false;
-      }
+  public void refresh(Executor executor) {
+    if (markNeedsUpdating()) {
+      executor.execute(this);
+    }
+  }
+
+  /**
+   * Marks node as needing a refresh, executing on the calling thread if it isn't already executing elsewhere.
+   */
+  public void refreshInline() {
+    if (markNeedsUpdating()) {
+      run();
     }
-    if (shouldStartThread) {
-      runnableFuture = executorService.submit(this);
+  }
+
+  /**
+   * @return true if the caller is now responsible for running this.
+   */
+  private boolean markNeedsUpdating() {
+    while (true) {
+      int current = state.get();
+      if ((current & (UPDATING | NEEDS_UPDATING)) == (UPDATING | NEEDS_UPDATING)) {
+        return false;
+      }
+
+      boolean shouldStart = (current & UPDATING) == 0;
+      // Starting a new run clears any cancellation left over from the previous one.
+      int next = shouldStart ? UPDATING | NEEDS_UPDATING : current | NEEDS_UPDATING;
+      if (state.compareAndSet(current, next)) {
+        return shouldStart;
+      }
     }
   }
 
   @Override
   public void run() {
+    runner = Thread.currentThread();
     while (true) {
-      synchronized (this) {
-        shouldCancel = false;
-        if (!needsUpdating) {
-          runnableFuture = null;
-          isUpdating = false;
+      int current = state.get();
+      if ((current & INTERRUPTING) != 0) {
+        Thread.yield();
+        continue;
+      }
+      if ((current & NEEDS_UPDATING) == 0) {
+        runner = null;
+        if (state.compareAndSet(current, 0)) {
+          clearInterrupt(current);
           return;
         }
-        needsUpdating = false;
+        runner = Thread.currentThread();
+        continue;
       }
+      // Starting a pass clears any cancellation of the previous pass.
+      if (!state.compareAndSet(current, UPDATING)) {
+        continue;
+      }
+      clearInterrupt(current);
 
       try {
         work();
       } catch (RuntimeException e) {
-        synchronized (this) {
-          runnableFuture = null;
-          isUpdating = false;
-        }
+        runner = null;
+        finishExceptionally();
         throw e;
       }
     }
   }
 
+  private void finishExceptionally() {
+    while (true) {
+      int current = state.get();
+      if ((current & INTERRUPTING) != 0) {
+        Thread.yield();
+      } else if (state.compareAndSet(current, current & ~(UPDATING | INTERRUPTED))) {
+        clearInterrupt(current);
+        return;
+      }
+    }
+  }
+
+  private static void clearInterrupt(int state) {
+    if ((state & INTERRUPTED) != 0) {
+      Thread.interrupted();
+    }
+  }
+
   public abstract void work();
 
   public void cancel() {
     cancel(false);
   }
 
+  /**
+   * Drops any pending refresh. A pass that is already running sees shouldCancel() until it finishes, so it can discard
+   * its result, and is interrupted if mayInterruptIfRunning.
+   */
   public void cancel(boolean mayInterruptIfRunning) {
-    synchronized (this) {
-      if (!isUpdating) {
-        shouldCancel = true;
-        needsUpdating = false;
+    int current;
+    int next;
+    do {
+      current = state.get();
+      next = (current | SHOULD_CANCEL) & ~NEEDS_UPDATING;
+      if (mayInterruptIfRunning && (current & (UPDATING | INTERRUPTING)) == UPDATING) {
+        next |= INTERRUPTING;
       }
-      if (runnableFuture != null) {
-        runnableFuture.cancel(mayInterruptIfRunning);
+    } while (!state.compareAndSet(current, next));
+
+    if ((next & ~current & INTERRUPTING) != 0) {
+      // The runner can't return while INTERRUPTING is set, so it is still running this, or hasn't started yet.
+      Thread runner = this.runner;
+      int interrupted = 0;
+      if (runner != null) {
+        runner.interrupt();
+        interrupted = INTERRUPTED;
+      }
+      while (true) {
+        current = state.get();
+        if (state.compareAndSet(current, (current & ~INTERRUPTING) | interrupted)) {
+          return;
+        }
       }
     }
   }
 
   protected boolean shouldCancel() {
-    return shouldCancel;
+    return (state.get() & SHOULD_CANCEL) != 0;
   }
 }
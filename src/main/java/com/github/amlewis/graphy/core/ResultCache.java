@@ -0,0 +1,433 @@
+package com.github.amlewis.graphy.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent memoization for expensive, deterministic StateNodes, enabled per node with StateNode.setResultCache.
+ * Before processing, a node's name and the results of its dependencies are fingerprinted with SHA-256, and a result
+ * stored under that fingerprint is used instead of calling processResult. New results are stored afterwards, so
+ * repeated computations are served from disk across restarts and across graphs sharing a cache directory. Change a
+ * node's name when its processResult changes, so it stops matching old results.
+ * <p/>
+ * Results are appended to a log file, with an in-memory index from fingerprint to position rebuilt by scanning the log
+ * on open. Writes are made on a background thread; results waiting to be written are served from memory. When the log
+ * grows past maxBytes it is compacted, keeping the most recently used results up to half of maxBytes. A torn write at
+ * the end of the log, from a crash, is truncated on open, and results that fail their checksum are treated as missing.
+ * <p/>
+ * Dependency results are fingerprinted with Java serialization unless another Serializer is given, so they must be
+ * serializable, and equal values must serialize identically. Nodes whose dependencies can't be serialized, or that
+ * produce null or an exception, are simply not cached. Only one ResultCache should have a directory open at a time.
+ */
+public final class ResultCache implements Closeable {
+  private static final String LOG_NAME = "results.log";
+  private static final int FINGERPRINT_LENGTH = 32;
+  private static final int HEADER_LENGTH = FINGERPRINT_LENGTH + 4 + 8;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final GraphSnapshot.Serializer<Object> inputSerializer;
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(new PropagationScheduler.WorkerThreadFactory("graphy-result-cache"));
+  // Written results that haven't reached the log yet.
+  private final ConcurrentHashMap<ByteBuffer, byte[]> pending = new ConcurrentHashMap<ByteBuffer, byte[]>();
+
+  // Guards the log and the index, which is kept in access order for compaction.
+  private final Object lock = new Object();
+  private FileChannel log;
+  private long logSize;
+  private final LinkedHashMap<ByteBuffer, Entry> index = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true);
+
+  public ResultCache(Path directory, long maxBytes) throws IOException {
+    this(directory, maxBytes, GraphSnapshot.<Serializable>javaSerializer());
+  }
+
+  @SuppressWarnings("unchecked")
+  public ResultCache(Path directory, long maxBytes, GraphSnapshot.Serializer<?> inputSerializer) throws IOException {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive!");
+    }
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.inputSerializer = (GraphSnapshot.Serializer<Object>) inputSerializer;
+    Files.createDirectories(directory);
+    synchronized (lock) {
+      log = open(directory.resolve(LOG_NAME));
+      load();
+    }
+  }
+
+  private static FileChannel open(Path file) throws IOException {
+    return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Rebuilds the index from the log. Later entries for a fingerprint supersede earlier ones.
+   */
+  private void load() throws IOException {
+    long size = log.size();
+    long position = 0;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    while (position + HEADER_LENGTH <= size) {
+      header.clear();
+      readFully(header, position);
+      header.flip();
+      byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+      header.get(fingerprint);
+      int length = header.getInt();
+      long checksum = header.getLong();
+      if (length < 0 || position + HEADER_LENGTH + length > size) {
+        break;
+      }
+      index.put(ByteBuffer.wrap(fingerprint), new Entry(position + HEADER_LENGTH, length, checksum));
+      position += HEADER_LENGTH + length;
+    }
+    if (position < size) {
+      // A write that didn't finish before a crash.
+      log.truncate(position);
+    }
+    logSize = position;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = log.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of " + directory.resolve(LOG_NAME));
+      }
+      position += read;
+    }
+  }
+
+  private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * @return the result stored under fingerprint, or null if there isn't one.
+   */
+  byte[] get(byte[] fingerprint) {
+    ByteBuffer key = ByteBuffer.wrap(fingerprint);
+    byte[] payload = pending.get(key);
+    if (payload != null) {
+      return payload;
+    }
+    synchronized (lock) {
+      Entry entry = index.get(key);
+      if (entry == null || log == null) {
+        return null;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+      try {
+        readFully(buffer, entry.position);
+      } catch (IOException e) {
+        return null;
+      }
+      payload = buffer.array();
+      if (checksum(payload) != entry.checksum) {
+        index.remove(key);
+        return null;
+      }
+      return payload;
+    }
+  }
+
+  /**
+   * Stores payload under fingerprint on the writer thread.
+   */
+  void put(byte[] fingerprint, final byte[] payload) {
+    final ByteBuffer key = ByteBuffer.wrap(fingerprint);
+    pending.put(key, payload);
+    try {
+      writer.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            append(key, payload);
+          } catch (IOException e) {
+            // The result just isn't cached.
+          } finally {
+            pending.remove(key, payload);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Closed.
+      pending.remove(key, payload);
+    }
+  }
+
+  private void append(ByteBuffer key, byte[] payload) throws IOException {
+    synchronized (lock) {
+      if (log == null) {
+        return;
+      }
+      long checksum = checksum(payload);
+      ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+      record.put(key.duplicate());
+      record.putInt(payload.length);
+      record.putLong(checksum);
+      record.put(payload);
+      record.flip();
+      writeFully(log, record, logSize);
+      index.put(key, new Entry(logSize + HEADER_LENGTH, payload.length, checksum));
+      logSize += HEADER_LENGTH + payload.length;
+      if (logSize > maxBytes) {
+        compact();
+      }
+    }
+  }
+
+  /**
+   * Rewrites the log with only the most recently used results, up to half of maxBytes. Called with lock held.
+   */
+  private void compact() throws IOException {
+    List<Map.Entry<ByteBuffer, Entry>> entries = new ArrayList<Map.Entry<ByteBuffer, Entry>>(index.entrySet());
+    Collections.reverse(entries);
+
+    Path compacted = directory.resolve(LOG_NAME + ".compact");
+    LinkedHashMap<ByteBuffer, Entry> kept = new LinkedHashMap<ByteBuffer, Entry>();
+    long size = 0;
+    FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      for (Map.Entry<ByteBuffer, Entry> entry : entries) {
+        long recordLength = HEADER_LENGTH + entry.getValue().length;
+        if (size + recordLength > maxBytes / 2) {
+          continue;
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) recordLength);
+        readFully(record, entry.getValue().position - HEADER_LENGTH);
+        record.flip();
+        writeFully(channel, record, size);
+        kept.put(entry.getKey(), new Entry(size + HEADER_LENGTH, entry.getValue().length, entry.getValue().checksum));
+        size += recordLength;
+      }
+      channel.force(false);
+    } finally {
+      channel.close();
+    }
+
+    // Some platforms can't replace an open file, so the log is closed for the move. It is reopened whether or not the
+    // move succeeds, and the index is only replaced once it has, so a failed move leaves the old log in use. If the log
+    // can't be reopened at all, log stays null and the cache acts as if closed.
+    log.close();
+    log = null;
+    IOException failure = null;
+    try {
+      try {
+        Files.move(compacted, directory.resolve(LOG_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(compacted, directory.resolve(LOG_NAME), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    log = open(directory.resolve(LOG_NAME));
+    if (failure != null) {
+      throw failure;
+    }
+    logSize = size;
+
+    // Oldest first, keeping the access order.
+    List<Map.Entry<ByteBuffer, Entry>> keptEntries = new ArrayList<Map.Entry<ByteBuffer, Entry>>(kept.entrySet());
+    Collections.reverse(keptEntries);
+    index.clear();
+    for (Map.Entry<ByteBuffer, Entry> entry : keptEntries) {
+      index.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * @return the size of the log in bytes, not counting results still waiting to be written.
+   */
+  public long size() {
+    synchronized (lock) {
+      return logSize;
+    }
+  }
+
+  /**
+   * Waits for every result stored so far to be written.
+   */
+  public void flush() throws InterruptedException {
+    try {
+      writer.submit(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } catch (RejectedExecutionException e) {
+      // Already closed, which flushes.
+    }
+  }
+
+  /**
+   * Writes any pending results and closes the log. Nodes using this cache compute as normal afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (lock) {
+      if (log != null) {
+        log.force(false);
+        log.close();
+        log = null;
+      }
+    }
+  }
+
+  /**
+   * @return the fingerprint of name and the values of inputs, or null if an input has no value or can't be serialized.
+   */
+  byte[] fingerprint(String name, NodeResult<?>[] inputs) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+    update(digest, name.getBytes(StandardCharsets.UTF_8));
+    for (NodeResult<?> input : inputs) {
+      if (input == null || input.isException()) {
+        return null;
+      }
+      byte[] bytes;
+      try {
+        bytes = inputSerializer.serialize(input.getResult());
+      } catch (IOException e) {
+        return null;
+      } catch (RuntimeException e) {
+        return null;
+      }
+      update(digest, bytes);
+    }
+    return digest.digest();
+  }
+
+  /**
+   * Length prefixed, so different splits of the same bytes between inputs fingerprint differently.
+   */
+  private static void update(MessageDigest digest, byte[] bytes) {
+    digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  private static long checksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return crc.getValue();
+  }
+
+  private static final class Entry {
+    private final long position;
+    private final int length;
+    private final long checksum;
+
+    Entry(long position, int length, long checksum) {
+      this.position = position;
+      this.length = length;
+      this.checksum = checksum;
+    }
+  }
+
+  /**
+   * A StateNode's use of a cache, with the Serializer for its results.
+   */
+  static final class Binding<ResultType> {
+    private final ResultCache cache;
+    private final GraphSnapshot.Serializer<ResultType> serializer;
+
+    Binding(ResultCache cache, GraphSnapshot.Serializer<ResultType> serializer) {
+      this.cache = cache;
+      this.serializer = serializer;
+    }
+
+    /**
+     * @return the lookup for node's current inputs, or null if they can't be fingerprinted.
+     */
+    Lookup<ResultType> lookup(Node<ResultType> node) {
+      List<Node<?>> dependencies = node.getDependencies();
+      NodeResult<?>[] inputs = new NodeResult<?>[dependencies.size()];
+      for (int i = 0; i < inputs.length; ++i) {
+        inputs[i] = dependencies.get(i).getResult();
+      }
+      byte[] fingerprint = cache.fingerprint(node.getName(), inputs);
+      return fingerprint == null ? null : new Lookup<ResultType>(this, dependencies, inputs, fingerprint);
+    }
+  }
+
+  /**
+   * The fingerprint of a node's inputs at the start of a process.
+   */
+  static final class Lookup<ResultType> {
+    private final Binding<ResultType> binding;
+    private final List<Node<?>> dependencies;
+    private final NodeResult<?>[] inputs;
+    private final byte[] fingerprint;
+
+    Lookup(Binding<ResultType> binding, List<Node<?>> dependencies, NodeResult<?>[] inputs, byte[] fingerprint) {
+      this.binding = binding;
+      this.dependencies = dependencies;
+      this.inputs = inputs;
+      this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return the cached result, or null if there isn't one or it can't be deserialized.
+     */
+    NodeResult<ResultType> get() {
+      byte[] payload = binding.cache.get(fingerprint);
+      if (payload == null) {
+        return null;
+      }
+      try {
+        return NodeResult.of(binding.serializer.deserialize(payload));
+      } catch (IOException e) {
+        return null;
+      } catch (RuntimeException e) {
+        // Such as a ClassCastException from a custom Serializer. The node computes its result as if uncached.
+        return null;
+      }
+    }
+
+    /**
+     * Stores result, unless an input changed while it was being computed, in which case it may not match the
+     * fingerprint.
+     */
+    void store(ResultType result) {
+      if (result == null) {
+        return;
+      }
+      for (int i = 0; i < inputs.length; ++i) {
+        if (dependencies.get(i).getResult() != inputs[i]) {
+          return;
+        }
+      }
+      try {
+        binding.cache.put(fingerprint, binding.serializer.serialize(result));
+      } catch (IOException e) {
+        // Just not cached.
+      } catch (RuntimeException e) {
+        // Just not cached.
+      }
+    }
+  }
+}
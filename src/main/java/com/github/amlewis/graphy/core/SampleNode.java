@@ -0,0 +1,87 @@
+package com.github.amlewis.graphy.core;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Passes on its input's latest result once per period, skipping periods in which the input didn't change.
+ */
+public final class SampleNode<ResultType> extends FlowControlNode<ResultType> {
+  public static <ResultType> SampleNode<ResultType> of(Node<ResultType> input, long period, TimeUnit unit) {
+    return new SampleNode<ResultType>(input, period, unit);
+  }
+
+  private final long periodNanos;
+  private final AtomicBoolean changed = new AtomicBoolean(false);
+  private ScheduledFuture<?> sampler = null;
+
+  public SampleNode(Node<ResultType> input, long period, TimeUnit unit) {
+    super(input);
+    this.periodNanos = unit.toNanos(period);
+  }
+
+  @Override
+  protected synchronized void activate() {
+    if (sampler == null) {
+      Sampler task = new Sampler(this);
+      sampler = Graphy.getInstance().getTimerExecutorService().scheduleAtFixedRate(
+          task, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+      task.future = sampler;
+    }
+    super.activate();
+  }
+
+  @Override
+  protected synchronized void deactivate() {
+    if (sampler != null) {
+      sampler.cancel(false);
+      sampler = null;
+    }
+    super.deactivate();
+  }
+
+  @Override
+  void onDependencyUpdated(Node<?> dependency) {
+    changed.set(true);
+  }
+
+  private void sample() {
+    if (changed.getAndSet(false)) {
+      updateFromTimer();
+    }
+  }
+
+  @Override
+  void resetTimers() {
+    changed.set(false);
+  }
+
+  /**
+   * Only weakly references its node, so an unobserved SampleNode can still be garbage collected, in which case the
+   * Sampler cancels itself.
+   */
+  private static final class Sampler implements Runnable {
+    private final WeakReference<SampleNode<?>> node;
+    // Set as soon as the Sampler is scheduled, which is a whole period before it first runs.
+    private volatile ScheduledFuture<?> future;
+
+    Sampler(SampleNode<?> node) {
+      this.node = new WeakReference<SampleNode<?>>(node);
+    }
+
+    @Override
+    public void run() {
+      SampleNode<?> node = this.node.get();
+      if (node == null) {
+        ScheduledFuture<?> future = this.future;
+        if (future != null) {
+          future.cancel(false);
+        }
+        return;
+      }
+      node.sample();
+    }
+  }
+}
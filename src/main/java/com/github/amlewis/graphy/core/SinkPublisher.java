@@ -0,0 +1,197 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes a node's results to Flow.Subscribers, with backpressure. Each subscription has its own sink, which is only
+ * registered while the subscriber has outstanding demand. Once demand runs out the sink is kept for a grace period, and
+ * deregistered if no more is requested by then, so anything upstream that nothing else observes is deactivated and
+ * stops computing. Results that arrive faster than they're requested are conflated: only the latest is kept, and
+ * results the node's ChangeDetection considers unchanged since the last one delivered are skipped.
+ * <p/>
+ * Registering a sink activates upstream, which recomputes every inactive node on the way. The grace period is what
+ * keeps a subscriber that requests one result at a time, from outside onNext, from paying for that after every
+ * element; with a grace period of zero it does, so only use zero when upstream is cheap or requests are rare.
+ * <p/>
+ * Since a node's results never end, subscriptions never complete. onError is only called for a non-positive request.
+ */
+final class SinkPublisher<ResultType> implements Flow.Publisher<NodeResult<ResultType>> {
+  private final Node<ResultType> node;
+  private final long graceNanos;
+
+  SinkPublisher(Node<ResultType> node, long graceNanos) {
+    this.node = node;
+    this.graceNanos = graceNanos;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super NodeResult<ResultType>> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber cannot be null!");
+    }
+    subscriber.onSubscribe(new Subscription<ResultType>(node, graceNanos, subscriber));
+  }
+
+  private static final class Subscription<ResultType> implements Flow.Subscription {
+    private final Node<ResultType> node;
+    private final long graceNanos;
+    private final Flow.Subscriber<? super NodeResult<ResultType>> subscriber;
+    private final AtomicLong demand = new AtomicLong(0);
+    private final AtomicReference<NodeResult<ResultType>> latest = new AtomicReference<NodeResult<ResultType>>(null);
+    // Serializes drain(), so the subscriber is only ever called from one thread at a time.
+    private final AtomicInteger drainRequests = new AtomicInteger(0);
+    private volatile boolean cancelled = false;
+    private volatile boolean badRequest = false;
+    // Only changed by the draining thread. Results from any other callback are late arrivals from a deregistered sink.
+    private volatile Callback<ResultType> current = null;
+    private NodeResult<ResultType> lastDelivered = null;
+    // The grace period timer, and which period it's for. Only changed by the draining thread.
+    private ScheduledFuture<?> idleTimer = null;
+    private int idleGeneration = 0;
+    // Set by the timer, so a timer that fires after its period was ended by new demand is ignored.
+    private volatile int expiredGeneration = -1;
+
+    Subscription(Node<ResultType> node, long graceNanos, Flow.Subscriber<? super NodeResult<ResultType>> subscriber) {
+      this.node = node;
+      this.graceNanos = graceNanos;
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        badRequest = true;
+      } else {
+        while (true) {
+          long current = demand.get();
+          long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+          if (demand.compareAndSet(current, next)) {
+            break;
+          }
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    void offer(Callback<ResultType> from, NodeResult<ResultType> result) {
+      if (from == current) {
+        latest.set(result);
+        drain();
+      }
+    }
+
+    private void drain() {
+      if (drainRequests.getAndIncrement() != 0) {
+        return;
+      }
+
+      int missed = 1;
+      while (true) {
+        if (cancelled || badRequest) {
+          // Terminal: drainRequests is never released, so nothing drains again.
+          deregister();
+          latest.set(null);
+          if (!cancelled) {
+            cancelled = true;
+            subscriber.onError(new IllegalArgumentException("Requests must be positive!"));
+          }
+          return;
+        }
+
+        if (demand.get() > 0) {
+          NodeResult<ResultType> result = latest.getAndSet(null);
+          if (result != null && !node.isUnchanged(lastDelivered, result)) {
+            lastDelivered = result;
+            if (demand.get() != Long.MAX_VALUE) {
+              demand.decrementAndGet();
+            }
+            subscriber.onNext(result);
+            continue;
+          }
+        }
+
+        if (demand.get() > 0) {
+          stopIdling();
+          if (current == null) {
+            Callback<ResultType> callback = new Callback<ResultType>(this);
+            current = callback;
+            Graphy.sink(node, callback);
+          }
+        } else if (current != null) {
+          if (graceNanos == 0 || expiredGeneration == idleGeneration) {
+            deregister();
+          } else if (idleTimer == null) {
+            startIdling();
+          }
+        }
+
+        missed = drainRequests.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    private void startIdling() {
+      final int generation = idleGeneration;
+      idleTimer = Graphy.getInstance().getTimerExecutorService().schedule(new Runnable() {
+        @Override
+        public void run() {
+          expiredGeneration = generation;
+          drain();
+        }
+      }, graceNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void stopIdling() {
+      if (idleTimer != null) {
+        idleTimer.cancel(false);
+        idleTimer = null;
+        ++idleGeneration;
+      }
+    }
+
+    private void deregister() {
+      stopIdling();
+      Callback<ResultType> callback = current;
+      if (callback != null) {
+        current = null;
+        callback.deregister();
+      }
+    }
+  }
+
+  private static final class Callback<ResultType> extends Graphy.SinkCallback<ResultType> {
+    private final Subscription<ResultType> subscription;
+
+    Callback(Subscription<ResultType> subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    protected void onNewResult(ResultType result) {
+      subscription.offer(this, NodeResult.of(result));
+    }
+
+    @Override
+    protected void onNewException(Exception exception) {
+      subscription.offer(this, new NodeResult<ResultType>(exception));
+    }
+
+    @Override
+    protected void onUnset() {
+      // Nothing to publish until the node has a result again.
+    }
+  }
+}
@@ -1,47 +1,264 @@
 package com.github.amlewis.graphy.core;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by amlewis on 7/10/15.
+ * <p/>
+ * Dependencies can be changed after construction with addDependency, removeDependency and replaceDependency. Only the
+ * changed dependency is activated or released, and readiness is adjusted for it alone, so the rest of the graph below
+ * this node isn't touched. processResult must read whichever nodes are current dependencies.
  */
 public abstract class StateNode<ResultType> extends ProcessingNode<ResultType> {
-  private final Set<Node<?>> dependencies;
-  private final Set<Node<?>> unreadyDependencies;
-  private final Set<Node<?>> exceptionalDependencies;
+  private static final int READY = 0;
+  private static final int UNREADY = 1;
+  private static final int EXCEPTIONAL = 2;
+  // Removed dependencies no longer count towards readiness, and late notifications from them are ignored.
+  private static final int REMOVED = 3;
+
+  // Unready dependencies are counted in the low 32 bits, exceptional dependencies in the high 32 bits, so both counts
+  // change in a single atomic add and "every dependency is ready" is a single read.
+  private static final long UNREADY_UNIT = 1L;
+  private static final long EXCEPTIONAL_UNIT = 1L << 32;
+
+  // Both are replaced wholesale under dependencyLock whenever dependencies change, so readers never need the lock.
+  private volatile Dependency[] dependencies;
+  private volatile Map<Node<?>, Dependency> dependencySlots;
+  // Bumped after every change to dependencies, so a reader that sees the new version also sees the new dependencies.
+  private volatile int dependencyVersion = 0;
+  private final AtomicLong dependencyCounts = new AtomicLong(0);
+  private final Object dependencyLock = new Object();
+  // Guarded by dependencyLock. Set once activate() has taken its snapshot of dependencies, after which changes to
+  // dependencies must activate or release them.
+  private volatile boolean dependenciesActivated = false;
+  private volatile ResultCache.Binding<ResultType> resultCache;
 
   public StateNode(Node<?>... dependencies) {
-    this.dependencies = Collections.synchronizedSet(new HashSet<Node<?>>());
-    this.unreadyDependencies = Collections.synchronizedSet(new HashSet<Node<?>>());
-    this.exceptionalDependencies = Collections.synchronizedSet(new HashSet<Node<?>>());
-    for (Node<?> node : dependencies) {
-      this.dependencies.add(node);
-    }
+    this(Arrays.asList(dependencies));
   }
 
   public StateNode(Collection<Node<?>> dependencies) {
-    int size = dependencies.size();
-    this.dependencies = Collections.synchronizedSet(new HashSet<Node<?>>());
-    this.unreadyDependencies = Collections.synchronizedSet(new HashSet<Node<?>>());
-    this.exceptionalDependencies = Collections.synchronizedSet(new HashSet<Node<?>>());
-    this.dependencies.addAll(dependencies);
+    Map<Node<?>, Dependency> dependencySlots = new IdentityHashMap<Node<?>, Dependency>(dependencies.size());
+    List<Dependency> slots = new ArrayList<Dependency>(dependencies.size());
+    for (Node<?> node : dependencies) {
+      if (!dependencySlots.containsKey(node)) {
+        Dependency dependency = new Dependency(node);
+        dependencySlots.put(node, dependency);
+        slots.add(dependency);
+      }
+    }
+    this.dependencySlots = dependencySlots;
+    this.dependencies = slots.toArray(new Dependency[slots.size()]);
   }
 
   public void activate() {
-    // TODO: Wasteful
-    for (Node<?> dependency : dependencies) {
-      dependency.activate(this);
-      unreadyDependencies.add(dependency);
+    Dependency[] dependencies;
+    synchronized (dependencyLock) {
+      dependenciesActivated = true;
+      dependencies = this.dependencies;
+      for (Dependency dependency : dependencies) {
+        transition(dependency, UNREADY);
+      }
+    }
+
+    for (Dependency dependency : dependencies) {
+      dependency.node.activate(this);
+    }
+
+    for (Dependency dependency : dependencies) {
+      onDependencyUpdated(dependency.node);
+    }
+  }
+
+  @Override
+  protected void deactivate() {
+    Dependency[] dependencies;
+    synchronized (dependencyLock) {
+      dependenciesActivated = false;
+      dependencies = this.dependencies;
+    }
+    cancel();
+    for (Dependency dependency : dependencies) {
+      dependency.node.deactivate(this);
+    }
+  }
+
+  /**
+   * Adds a dependency. If this node is active, the dependency is activated and this node is unset until it is ready.
+   * @return false if node was already a dependency
+   */
+  public boolean addDependency(Node<?> node) {
+    return replaceDependency(null, node);
+  }
+
+  /**
+   * Removes a dependency, releasing it if this node is active. If every remaining dependency is ready, this node is
+   * updated.
+   * @return false if node wasn't a dependency
+   */
+  public boolean removeDependency(Node<?> node) {
+    return replaceDependency(node, null);
+  }
+
+  /**
+   * Replaces oldNode with newNode, in oldNode's position. If this node is active, oldNode is released and newNode is
+   * activated, and only newNode's readiness is re-evaluated. Either may be null, to add or remove a single dependency.
+   * If newNode can't be activated, for example because it would close a cycle, nothing is changed and the exception is
+   * rethrown.
+   * @return false if oldNode wasn't a dependency, or newNode already is one
+   */
+  public boolean replaceDependency(Node<?> oldNode, Node<?> newNode) {
+    if (oldNode == newNode) {
+      return false;
+    }
+
+    Dependency removed = null;
+    Dependency added = null;
+    boolean active;
+    synchronized (dependencyLock) {
+      Map<Node<?>, Dependency> slots = dependencySlots;
+      if ((oldNode != null && !slots.containsKey(oldNode)) || (newNode != null && slots.containsKey(newNode))) {
+        return false;
+      }
+
+      Map<Node<?>, Dependency> nextSlots = new IdentityHashMap<Node<?>, Dependency>(slots);
+      List<Dependency> nextDependencies = new ArrayList<Dependency>(Arrays.asList(dependencies));
+      if (newNode != null) {
+        added = new Dependency(newNode);
+        nextSlots.put(newNode, added);
+      }
+      if (oldNode != null) {
+        removed = nextSlots.remove(oldNode);
+        int index = nextDependencies.indexOf(removed);
+        if (added != null) {
+          nextDependencies.set(index, added);
+        } else {
+          nextDependencies.remove(index);
+        }
+      } else {
+        nextDependencies.add(added);
+      }
+
+      active = dependenciesActivated;
+      if (active && added != null) {
+        transition(added, UNREADY);
+      }
+      dependencies = nextDependencies.toArray(new Dependency[nextDependencies.size()]);
+      dependencySlots = nextSlots;
+      ++dependencyVersion;
+      if (removed != null) {
+        transition(removed, REMOVED);
+      }
+    }
+
+    if (active) {
+      if (added != null) {
+        try {
+          added.node.activate(this);
+        } catch (RuntimeException e) {
+          // Such as a CycleDetectedException. oldNode is still active, since it is only released below.
+          restore(removed, added);
+          throw e;
+        }
+      }
+      if (removed != null) {
+        removed.node.deactivate(this);
+      }
+      if (added != null) {
+        onDependencyUpdated(added.node);
+      } else if (dependencyCounts.get() == 0) {
+        update();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Undoes a replaceDependency whose new dependency failed to activate, putting the removed dependency (if any) back in
+   * its slot.
+   */
+  private void restore(Dependency removed, Dependency added) {
+    Dependency restored = null;
+    synchronized (dependencyLock) {
+      List<Dependency> nextDependencies = new ArrayList<Dependency>(Arrays.asList(dependencies));
+      int index = nextDependencies.indexOf(added);
+      if (index < 0) {
+        // Already replaced again.
+        return;
+      }
+      Map<Node<?>, Dependency> nextSlots = new IdentityHashMap<Node<?>, Dependency>(dependencySlots);
+      nextSlots.remove(added.node);
+      if (removed != null) {
+        restored = new Dependency(removed.node);
+        if (dependenciesActivated) {
+          transition(restored, UNREADY);
+        }
+        nextSlots.put(removed.node, restored);
+        nextDependencies.set(index, restored);
+      } else {
+        nextDependencies.remove(index);
+      }
+      dependencies = nextDependencies.toArray(new Dependency[nextDependencies.size()]);
+      dependencySlots = nextSlots;
+      ++dependencyVersion;
+      transition(added, REMOVED);
     }
 
-    for (Node<?> dependency : dependencies) {
-      onDependencyUpdated(dependency);
+    if (restored != null) {
+      onDependencyUpdated(restored.node);
+    } else if (dependenciesActivated && dependencyCounts.get() == 0) {
+      update();
     }
   }
 
 
+  /**
+   * Memoizes this node's results in cache, keyed by this node's name and the values of its dependencies, so inputs that
+   * were processed before, in this or an earlier run, are served from cache without calling processResult. Only for
+   * nodes whose result depends on nothing but their dependencies' values. Pass a null cache to stop.
+   */
+  public void setResultCache(ResultCache cache, GraphSnapshot.Serializer<ResultType> serializer) {
+    if (cache == null) {
+      resultCache = null;
+      return;
+    }
+    if (!hasName()) {
+      throw new IllegalStateException("A cached node needs a name to key its results!");
+    }
+    resultCache = new ResultCache.Binding<ResultType>(cache, serializer);
+  }
+
   @Override
-  void process() {
+  final void process() {
+    ResultCache.Binding<ResultType> resultCache = this.resultCache;
+    ResultCache.Lookup<ResultType> lookup = resultCache == null ? null : resultCache.lookup(this);
+    if (lookup != null) {
+      NodeResult<ResultType> cached = lookup.get();
+      if (cached != null) {
+        publishCached(cached);
+        return;
+      }
+    }
+    compute(lookup);
+  }
+
+  /**
+   * Publishes a result found in the result cache instead of computing one.
+   */
+  void publishCached(NodeResult<ResultType> cached) {
+    if (!shouldCancel()) {
+      setResult(cached);
+    }
+  }
+
+  /**
+   * Computes and publishes this node's result, when there is no result cache or it has no result for the current
+   * inputs. A result should be stored with lookup, if it isn't null, before it is published. Subclasses that compute
+   * their result some other way than processResult override this rather than process, so caching still applies.
+   */
+  void compute(ResultCache.Lookup<ResultType> lookup) {
     ResultType processResult = null;
     Exception exception = null;
     try {
@@ -52,42 +269,127 @@ public abstract class StateNode<ResultType> extends ProcessingNode<ResultType> {
     }
 
     if (!shouldCancel()) {
-      if (exception != null && exception instanceof Node.NodeNotProcessedException) {
-        setResult((NodeResult<ResultType>) null);
-      } else if (exception != null && exceptionalDependencies.isEmpty()) {
-        setResult(exception);
-      } else if (exception == null) {
+      if (exception != null) {
+        setProcessException(exception);
+      } else {
+        if (lookup != null) {
+          lookup.store(processResult);
+        }
         setResult(processResult);
       }
     }
   }
 
+  /**
+   * Publishes an exception thrown while processing. A dependency that isn't ready unsets this node, and exceptions
+   * caused by an exceptional dependency are left alone, since that dependency's exception has already been set.
+   */
+  final void setProcessException(Exception exception) {
+    if (exception instanceof Node.NodeNotProcessedException) {
+      setResult((NodeResult<ResultType>) null);
+    } else if (!hasExceptionalDependencies()) {
+      setResult(exception);
+    }
+  }
+
   /**
    * @return ResultType - Returns result of processing
    * @throws Exception - any exception that occurs during processing
    */
   protected abstract ResultType processResult() throws Exception;
 
-  void onDependencyUpdated(Node<?> dependency) {
-    if (dependencies.contains(dependency)) {
-      NodeResult<?> dependencyResult = dependency.getResult();
-      if (dependencyResult != null) {
-        unreadyDependencies.remove(dependency);
-        if (dependencyResult.isException()) {
+  void onDependencyUpdated(Node<?> dependencyNode) {
+    if (!dependenciesActivated) {
+      // A notification that was already in flight when this node was deactivated.
+      return;
+    }
+    Dependency dependency = dependencySlots.get(dependencyNode);
+    if (dependency != null && dependency.state != REMOVED) {
+      if (dependencyNode.hasResult()) {
+        Exception dependencyException = dependencyNode.getException();
+        if (dependencyException != null) {
+          transition(dependency, EXCEPTIONAL);
           cancel();
-          exceptionalDependencies.add(dependency);
-          setResult(dependencyResult.getException());
+          setResult(dependencyException);
         } else {
-          exceptionalDependencies.remove(dependency);
-          if (exceptionalDependencies.isEmpty() && unreadyDependencies.isEmpty()) {
+          transition(dependency, READY);
+          if (dependencyCounts.get() == 0) {
             update();
           }
         }
       } else {
         cancel();
         setResult((NodeResult<ResultType>) null);
-        unreadyDependencies.add(dependency);
+        transition(dependency, UNREADY);
+        // The dependency may have been set (and notified us) between reading its result and marking it unready.
+        if (dependencyNode.hasResult()) {
+          onDependencyUpdated(dependencyNode);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the current dependencies, in the order they were given.
+   */
+  /**
+   * Changes whenever dependencies are added, removed or replaced. Read it before getDependencies(), so the dependencies
+   * are at least as new as the version.
+   */
+  final int getDependencyVersion() {
+    return dependencyVersion;
+  }
+
+  @Override
+  List<Node<?>> getDependencies() {
+    Dependency[] dependencies = this.dependencies;
+    List<Node<?>> nodes = new ArrayList<Node<?>>(dependencies.length);
+    for (Dependency dependency : dependencies) {
+      nodes.add(dependency.node);
+    }
+    return nodes;
+  }
+
+  private boolean hasExceptionalDependencies() {
+    return dependencyCounts.get() >= EXCEPTIONAL_UNIT;
+  }
+
+  private void transition(Dependency dependency, int state) {
+    while (true) {
+      int previous = dependency.state;
+      if (previous == state || previous == REMOVED) {
+        return;
+      }
+      if (Dependency.STATE.compareAndSet(dependency, previous, state)) {
+        dependencyCounts.addAndGet(countOf(state) - countOf(previous));
+        return;
       }
     }
   }
+
+  private static long countOf(int state) {
+    switch (state) {
+      case UNREADY:
+        return UNREADY_UNIT;
+      case EXCEPTIONAL:
+        return EXCEPTIONAL_UNIT;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * A dependency and its readiness. Each dependency has a slot in the dependencies array, and a replacement takes over
+   * the slot of the dependency it replaces.
+   */
+  private static final class Dependency {
+    private static final AtomicIntegerFieldUpdater<Dependency> STATE = AtomicIntegerFieldUpdater.newUpdater(Dependency.class, "state");
+
+    private final Node<?> node;
+    private volatile int state = READY;
+
+    Dependency(Node<?> node) {
+      this.node = node;
+    }
+  }
 }
@@ -0,0 +1,68 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Passes on its input's result at most once per window. An update that arrives while no window is open opens one, and
+ * is passed on immediately if leading is set. If trailing is set, the latest result is passed on when a window closes
+ * if the input changed during the window, which opens another window.
+ */
+public final class ThrottleNode<ResultType> extends FlowControlNode<ResultType> {
+  public static <ResultType> ThrottleNode<ResultType> of(Node<ResultType> input, long window, TimeUnit unit) {
+    return new ThrottleNode<ResultType>(input, window, unit, true, true);
+  }
+
+  private final long windowNanos;
+  private final boolean leading;
+  private final boolean trailing;
+  private final AtomicBoolean windowOpen = new AtomicBoolean(false);
+  private final AtomicBoolean changedDuringWindow = new AtomicBoolean(false);
+
+  public ThrottleNode(Node<ResultType> input, long window, TimeUnit unit, boolean leading, boolean trailing) {
+    super(input);
+    if (!leading && !trailing) {
+      throw new IllegalArgumentException("A ThrottleNode must pass on leading results, trailing results or both!");
+    }
+    this.windowNanos = unit.toNanos(window);
+    this.leading = leading;
+    this.trailing = trailing;
+  }
+
+  @Override
+  void onDependencyUpdated(Node<?> dependency) {
+    if (windowOpen.compareAndSet(false, true)) {
+      if (leading) {
+        update();
+      } else {
+        changedDuringWindow.set(true);
+      }
+      schedule(closeWindow, windowNanos);
+    } else {
+      changedDuringWindow.set(true);
+    }
+  }
+
+  private final Runnable closeWindow = new Runnable() {
+    @Override
+    public void run() {
+      if (changedDuringWindow.getAndSet(false) && trailing) {
+        updateFromTimer();
+        schedule(this, windowNanos);
+        return;
+      }
+
+      windowOpen.set(false);
+      // An update that arrived after the check above but before the window closed would otherwise be lost.
+      if (changedDuringWindow.getAndSet(false)) {
+        onDependencyUpdated(null);
+      }
+    }
+  };
+
+  @Override
+  void resetTimers() {
+    windowOpen.set(false);
+    changedDuringWindow.set(false);
+  }
+}
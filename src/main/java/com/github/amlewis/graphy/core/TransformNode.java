@@ -8,6 +8,18 @@ public final class TransformNode<ResultType, InputType> extends StateNode<Result
     ResultType apply(InputType input);
   }
 
+  public static interface IntFunction {
+    int apply(int input);
+  }
+
+  public static interface LongFunction {
+    long apply(long input);
+  }
+
+  public static interface DoubleFunction {
+    double apply(double input);
+  }
+
   public static <ResultType, InputType> TransformNode<ResultType, InputType> of(Function<ResultType, InputType> transform, Node<InputType> nodeToTransform) {
     return new TransformNode<ResultType, InputType>(transform, nodeToTransform);
   }
@@ -16,6 +28,7 @@ public final class TransformNode<ResultType, InputType> extends StateNode<Result
   private Node<InputType> nodeToTransform;
 
   public TransformNode(Function<ResultType, InputType> transform, Node<InputType> nodeToTransform) {
+    super(nodeToTransform);
     this.transform = transform;
     this.nodeToTransform = nodeToTransform;
   }
@@ -1,5 +1,8 @@
 package com.github.amlewis.graphy.core;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by amlewis on 7/15/15.
  * <p/>
@@ -18,8 +21,18 @@ public abstract class TreeNode<ResultType> extends Node<ResultType> {
     root.activate(this);
   }
 
+  @Override
+  protected void deactivate() {
+    root.deactivate(this);
+  }
+
   @Override
   void onDependencyUpdated(Node<?> dependency) {
     setResult(root.getResult());
   }
+
+  @Override
+  List<Node<?>> getDependencies() {
+    return Collections.<Node<?>>singletonList(root);
+  }
 }
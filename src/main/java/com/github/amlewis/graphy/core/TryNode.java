@@ -1,5 +1,7 @@
 package com.github.amlewis.graphy.core;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -9,12 +11,14 @@ public final class TryNode<ResultType> extends ProcessingNode<ResultType> {
   private final Node<ResultType> mainNode;
   private final Node<ResultType> onExceptionNode;
   private final Class<? extends Exception> exceptionClass;
+  private final boolean initiallyLazy;
   private final AtomicBoolean lazy;
 
   public TryNode(Node<ResultType> mainNode, Node<ResultType> onExceptionNode, boolean lazy, Class<? extends Exception> exceptionClass) {
     this.mainNode = mainNode;
     this.onExceptionNode = onExceptionNode;
     this.exceptionClass = exceptionClass;
+    this.initiallyLazy = lazy;
     this.lazy = new AtomicBoolean(lazy);
   }
 
@@ -27,6 +31,16 @@ public final class TryNode<ResultType> extends ProcessingNode<ResultType> {
     update();
   }
 
+  @Override
+  protected void deactivate() {
+    cancel();
+    mainNode.deactivate(this);
+    if (!lazy.get()) {
+      onExceptionNode.deactivate(this);
+    }
+    lazy.set(initiallyLazy);
+  }
+
   @Override
   void process() {
     NodeResult<ResultType> mainNodeResult = mainNode.getResult();
@@ -35,9 +49,7 @@ public final class TryNode<ResultType> extends ProcessingNode<ResultType> {
     } else if (mainNodeResult != null && mainNodeResult.isException()) {
       Exception mainException = mainNodeResult.getException();
       if (exceptionClass == null || exceptionClass.isInstance(mainException)) {
-        if (lazy.compareAndSet(true, false)) {
-          onExceptionNode.activate(this);
-        }
+        activateLazily(lazy, onExceptionNode);
         NodeResult<ResultType> onExceptionResult = onExceptionNode.getResult();
         setResult(onExceptionResult);
       } else {
@@ -53,6 +65,14 @@ public final class TryNode<ResultType> extends ProcessingNode<ResultType> {
     update();
   }
 
+  /**
+   * Includes onExceptionNode, even if it is lazy and hasn't been activated yet.
+   */
+  @Override
+  List<Node<?>> getDependencies() {
+    return Arrays.<Node<?>>asList(mainNode, onExceptionNode);
+  }
+
   public static class Builder<ResultType> {
     private Node<ResultType> mainNode;
     private Node<ResultType> onExceptionNode;
@@ -62,22 +82,22 @@ public final class TryNode<ResultType> extends ProcessingNode<ResultType> {
     public Builder() {
     }
 
-    public Builder mainNode(Node<ResultType> mainNode) {
+    public Builder<ResultType> mainNode(Node<ResultType> mainNode) {
       this.mainNode = mainNode;
       return this;
     }
 
-    public Builder onExceptionNode(Node<ResultType> onExceptionNode) {
+    public Builder<ResultType> onExceptionNode(Node<ResultType> onExceptionNode) {
       return onExceptionNode(onExceptionNode, false);
     }
 
-    public Builder onExceptionNode(Node<ResultType> onExceptionNode, boolean lazy) {
+    public Builder<ResultType> onExceptionNode(Node<ResultType> onExceptionNode, boolean lazy) {
       this.onExceptionNode = onExceptionNode;
       this.lazy = lazy;
       return this;
     }
 
-    public Builder exceptionClass(Class<? extends Exception> exceptionClass) {
+    public Builder<ResultType> exceptionClass(Class<? extends Exception> exceptionClass) {
       this.exceptionClass = exceptionClass;
       return this;
     }
@@ -24,16 +24,28 @@ public class ValueNode<ValueType> extends Node<ValueType> {
     setResult(exception);
   }
 
+  /**
+   * Inside a batch (see Graphy.batch), the new value isn't visible until the batch commits.
+   */
   public void setValue(ValueType result) {
-    setResult(result);
+    write(NodeResult.of(result));
   }
 
   public void setValue(Exception exception) {
-    setResult(exception);
+    write(new NodeResult<ValueType>(exception));
   }
 
   public void unset() {
-    setResult((NodeResult<ValueType>) null);
+    write(null);
+  }
+
+  private void write(NodeResult<ValueType> result) {
+    Batch batch = Batch.current();
+    if (batch != null) {
+      batch.stage(this, result);
+    } else {
+      setResult(result);
+    }
   }
 
   @Override
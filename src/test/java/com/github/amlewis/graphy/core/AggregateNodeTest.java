@@ -0,0 +1,208 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class AggregateNodeTest {
+  private static final int NUM_INPUTS = 10000;
+
+  private static final AggregateNode.Monoid<Long> SUM = new AggregateNode.Monoid<Long>() {
+    @Override
+    public Long identity() {
+      return 0L;
+    }
+
+    @Override
+    public Long combine(Long left, Long right) {
+      return left + right;
+    }
+  };
+
+  private static <ResultType> void awaitResult(BlockingDeque<NodeResult<ResultType>> sink, ResultType expected) throws InterruptedException {
+    NodeResult<ResultType> result;
+    do {
+      result = sink.poll(5, TimeUnit.SECONDS);
+      assertNotNull("Expected " + expected, result);
+    } while (!expected.equals(result.getResult()));
+  }
+
+  @Test
+  public void sumFollowsSingleAndBulkChanges() throws InterruptedException {
+    List<ValueNode<Long>> inputs = new ArrayList<ValueNode<Long>>();
+    long expected = 0;
+    for (int i = 0; i < NUM_INPUTS; ++i) {
+      inputs.add(ValueNode.of((long) i));
+      expected += i;
+    }
+    AggregateNode<Long> sum = AggregateNode.of(SUM, inputs);
+    BlockingDeque<NodeResult<Long>> sink = Graphy.sinkToBlockingDeque(sum, 100);
+    awaitResult(sink, expected);
+
+    inputs.get(1234).setValue(0L);
+    expected -= 1234;
+    awaitResult(sink, expected);
+
+    Graphy.beginBatch();
+    for (int i = 0; i < NUM_INPUTS; i += 2) {
+      inputs.get(i).setValue(inputs.get(i).get() + 1);
+      ++expected;
+    }
+    Graphy.commitBatch();
+    awaitResult(sink, expected);
+  }
+
+  @Test
+  public void combinesInDependencyOrder() throws InterruptedException {
+    List<ValueNode<String>> inputs = new ArrayList<ValueNode<String>>();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 3000; ++i) {
+      String letter = String.valueOf((char) ('a' + i % 26));
+      inputs.add(ValueNode.of(letter));
+      expected.append(letter);
+    }
+    AggregateNode<String> concatenation = AggregateNode.of(new AggregateNode.Monoid<String>() {
+      @Override
+      public String identity() {
+        return "";
+      }
+
+      @Override
+      public String combine(String left, String right) {
+        return left + right;
+      }
+    }, inputs);
+    BlockingDeque<NodeResult<String>> sink = Graphy.sinkToBlockingDeque(concatenation, 100);
+    awaitResult(sink, expected.toString());
+
+    inputs.get(2999).setValue("!");
+    expected.setCharAt(2999, '!');
+    awaitResult(sink, expected.toString());
+  }
+
+  @Test
+  public void minRecoversWhenMinimumIncreases() throws InterruptedException {
+    List<ValueNode<Long>> inputs = new ArrayList<ValueNode<Long>>();
+    for (int i = 0; i < 100; ++i) {
+      inputs.add(ValueNode.of(100L + i));
+    }
+    AggregateNode<Long> min = AggregateNode.of(new AggregateNode.Monoid<Long>() {
+      @Override
+      public Long identity() {
+        return Long.MAX_VALUE;
+      }
+
+      @Override
+      public Long combine(Long left, Long right) {
+        return Math.min(left, right);
+      }
+    }, inputs);
+    BlockingDeque<NodeResult<Long>> sink = Graphy.sinkToBlockingDeque(min, 100);
+    awaitResult(sink, 100L);
+
+    inputs.get(50).setValue(1L);
+    awaitResult(sink, 1L);
+    inputs.get(50).setValue(1000L);
+    inputs.get(0).setValue(1000L);
+    awaitResult(sink, 101L);
+  }
+
+  @Test
+  public void rewiringRebuildsTheTree() throws InterruptedException {
+    List<ValueNode<Long>> inputs = new ArrayList<ValueNode<Long>>();
+    for (int i = 0; i < 100; ++i) {
+      inputs.add(ValueNode.of(1L));
+    }
+    AggregateNode<Long> sum = AggregateNode.of(SUM, inputs);
+    BlockingDeque<NodeResult<Long>> sink = Graphy.sinkToBlockingDeque(sum, 100);
+    awaitResult(sink, 100L);
+
+    ValueNode<Long> added = ValueNode.of(1000L);
+    sum.addDependency(added);
+    awaitResult(sink, 1100L);
+
+    sum.replaceDependency(inputs.get(0), ValueNode.of(10L));
+    awaitResult(sink, 1109L);
+
+    sum.removeDependency(added);
+    awaitResult(sink, 109L);
+
+    // Both replaced and kept dependencies are still followed after the rebuild.
+    inputs.get(0).setValue(50L);
+    inputs.get(1).setValue(2L);
+    awaitResult(sink, 110L);
+  }
+
+  @Test
+  public void concurrentRewiringIsFollowed() throws Exception {
+    List<ValueNode<Long>> inputs = new ArrayList<ValueNode<Long>>();
+    for (int i = 0; i < 100; ++i) {
+      inputs.add(ValueNode.of(1L));
+    }
+    final AggregateNode<Long> sum = AggregateNode.of(SUM, inputs);
+    BlockingDeque<NodeResult<Long>> sink = Graphy.sinkToBlockingDeque(sum, 100000);
+    awaitResult(sink, 100L);
+
+    // Each thread adds its own nodes and removes every other one again, while the node is processing the changes.
+    final List<List<ValueNode<Long>>> added = new ArrayList<List<ValueNode<Long>>>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; ++t) {
+      final List<ValueNode<Long>> nodes = new ArrayList<ValueNode<Long>>();
+      for (int i = 0; i < 2000; ++i) {
+        nodes.add(ValueNode.of(1L));
+      }
+      added.add(nodes);
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (ValueNode<Long> node : nodes) {
+            sum.addDependency(node);
+          }
+          for (int i = 0; i < nodes.size(); i += 2) {
+            sum.removeDependency(nodes.get(i));
+          }
+        }
+      }));
+    }
+    // Keeps the node processing throughout, so rewiring races with processes already under way.
+    final ValueNode<Long> churn = inputs.get(0);
+    final AtomicBoolean rewiring = new AtomicBoolean(true);
+    Thread churner = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (rewiring.get()) {
+          churn.setValue(churn.get() == 1L ? 0L : 1L);
+        }
+        churn.setValue(1L);
+      }
+    });
+    churner.start();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    rewiring.set(false);
+    churner.join();
+    awaitResult(sink, 4100L);
+
+    // Only the remaining nodes count, whichever tree was current when they were rewired.
+    Graphy.beginBatch();
+    for (List<ValueNode<Long>> nodes : added) {
+      for (ValueNode<Long> node : nodes) {
+        node.setValue(2L);
+      }
+    }
+    Graphy.commitBatch();
+    awaitResult(sink, 8100L);
+    assertEquals(8100L, sum.get().longValue());
+  }
+}
@@ -0,0 +1,157 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class AsyncStateNodeTest {
+  private static class Call {
+    private final int input;
+    private final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+    Call(int input) {
+      this.input = input;
+    }
+  }
+
+  /**
+   * Leaves every stage for the test to complete.
+   */
+  private static class ManualNode extends AsyncStateNode<Integer> {
+    private final Node<Integer> input;
+    private final BlockingQueue<Call> calls = new LinkedBlockingQueue<Call>();
+
+    public ManualNode(Node<Integer> input) {
+      super(input);
+      this.input = input;
+    }
+
+    @Override
+    protected CompletionStage<Integer> processResultAsync() throws Exception {
+      Call call = new Call(input.get());
+      calls.add(call);
+      return call.future;
+    }
+
+    Call nextCall() throws InterruptedException {
+      Call call = calls.poll(5, TimeUnit.SECONDS);
+      assertNotNull("Expected processResultAsync to be called", call);
+      return call;
+    }
+  }
+
+  @Test
+  public void resultIsSetWhenStageCompletes() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(1);
+    ManualNode node = new ManualNode(input);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(node, 10);
+
+    Call call = node.nextCall();
+    assertEquals(1, call.input);
+    assertNull(sink.poll(50, TimeUnit.MILLISECONDS));
+
+    call.future.complete(10);
+    assertEquals(10, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+  }
+
+  @Test
+  public void supersededStageIsCancelledAndIgnored() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(1);
+    ManualNode node = new ManualNode(input);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(node, 10);
+
+    Call first = node.nextCall();
+    input.setValue(2);
+    Call second = node.nextCall();
+    while (second.input != 2) {
+      second = node.nextCall();
+    }
+    assertTrue(first.future.isCancelled());
+
+    second.future.complete(20);
+    assertEquals(20, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+    assertNull(sink.poll(50, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void exceptionalStageSetsException() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(1);
+    ManualNode node = new ManualNode(input);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(node, 10);
+
+    IllegalStateException exception = new IllegalStateException();
+    node.nextCall().future.completeExceptionally(exception);
+    assertSame(exception, sink.poll(5, TimeUnit.SECONDS).getException());
+  }
+
+  @Test
+  public void deactivationCancelsOutstandingStage() throws Exception {
+    ValueNode<Integer> input = ValueNode.of(1);
+    ManualNode node = new ManualNode(input);
+
+    Future<Integer> result = Graphy.sinkFirstResultFuture(node);
+    Call call = node.nextCall();
+    result.cancel(false);
+    // The stage may not have been published by the processing thread yet, in which case that thread cancels it.
+    try {
+      call.future.get(5, TimeUnit.SECONDS);
+      fail("The stage should be cancelled");
+    } catch (CancellationException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void resultCacheIsUsed() throws Exception {
+    Path directory = Files.createTempDirectory("graphy-cache");
+    ResultCache cache = new ResultCache(directory, 1 << 20);
+    try {
+      ManualNode first = new ManualNode(ValueNode.of(3));
+      first.setName("manual");
+      first.setResultCache(cache, GraphSnapshot.<Integer>javaSerializer());
+      Future<Integer> firstResult = Graphy.sinkFirstResultFuture(first);
+      first.nextCall().future.complete(30);
+      assertEquals(30, firstResult.get(5, TimeUnit.SECONDS).intValue());
+
+      ManualNode second = new ManualNode(ValueNode.of(3));
+      second.setName("manual");
+      second.setResultCache(cache, GraphSnapshot.<Integer>javaSerializer());
+      assertEquals(30, Graphy.sinkFirstResult(second, 5, TimeUnit.SECONDS).intValue());
+      assertTrue("A cached result shouldn't start a stage", second.calls.isEmpty());
+    } finally {
+      cache.close();
+      Files.delete(directory.resolve("results.log"));
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void outstandingStagesDontHoldThreads() throws Exception {
+    final int NUM_NODES = 200;
+    List<ManualNode> nodes = new ArrayList<ManualNode>();
+    List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+    for (int i = 0; i < NUM_NODES; ++i) {
+      ManualNode node = new ManualNode(ValueNode.of(i));
+      nodes.add(node);
+      results.add(Graphy.sinkFirstResultFuture(node));
+    }
+
+    // Every stage is started before any completes, which would deadlock if each held a processing thread.
+    List<Call> calls = new ArrayList<Call>();
+    for (ManualNode node : nodes) {
+      calls.add(node.nextCall());
+    }
+    for (Call call : calls) {
+      call.future.complete(call.input * 2);
+    }
+    for (int i = 0; i < NUM_NODES; ++i) {
+      assertEquals(i * 2, results.get(i).get(5, TimeUnit.SECONDS).intValue());
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChangeDetectionTest {
+  private static class VersionedList implements ChangeDetection.Versioned {
+    private final List<Integer> values;
+    private final long version;
+
+    VersionedList(long version, Integer... values) {
+      this.values = Arrays.asList(values);
+      this.version = version;
+    }
+
+    @Override
+    public long getVersion() {
+      return version;
+    }
+  }
+
+  @Test
+  public void equalsSuppressesEqualResults() throws InterruptedException {
+    ValueNode<List<Integer>> node = ValueNode.of((List<Integer>) new ArrayList<Integer>(Arrays.asList(1, 2)));
+    BlockingDeque<NodeResult<List<Integer>>> sink = Graphy.sinkToBlockingDeque(node, 10);
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+
+    node.setValue(new ArrayList<Integer>(Arrays.asList(1, 2)));
+    assertNull(sink.poll(200, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void identityPassesEqualButDistinctResults() throws InterruptedException {
+    List<Integer> first = new ArrayList<Integer>(Arrays.asList(1, 2));
+    ValueNode<List<Integer>> node = ValueNode.of(first);
+    node.setChangeDetection(ChangeDetection.IDENTITY);
+    BlockingDeque<NodeResult<List<Integer>>> sink = Graphy.sinkToBlockingDeque(node, 10);
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+
+    node.setValue(first);
+    assertNull(sink.poll(200, TimeUnit.MILLISECONDS));
+
+    node.setValue(new ArrayList<Integer>(Arrays.asList(1, 2)));
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void versionComparesStamps() throws InterruptedException {
+    ValueNode<VersionedList> node = ValueNode.of(new VersionedList(1, 1, 2));
+    node.setChangeDetection(ChangeDetection.VERSION);
+    BlockingDeque<NodeResult<VersionedList>> sink = Graphy.sinkToBlockingDeque(node, 10);
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+
+    node.setValue(new VersionedList(1, 3));
+    assertNull(sink.poll(200, TimeUnit.MILLISECONDS));
+
+    node.setValue(new VersionedList(2, 3));
+    assertEquals(Arrays.asList(3), sink.poll(5, TimeUnit.SECONDS).getResult().values);
+  }
+
+  @Test
+  public void customEquivalence() throws InterruptedException {
+    ValueNode<String> node = ValueNode.of("abc");
+    node.setChangeDetection(new ChangeDetection<String>() {
+      @Override
+      protected boolean isEquivalent(String previous, String next) {
+        return previous.equalsIgnoreCase(next);
+      }
+    });
+    BlockingDeque<NodeResult<String>> sink = Graphy.sinkToBlockingDeque(node, 10);
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+
+    node.setValue("ABC");
+    assertNull(sink.poll(200, TimeUnit.MILLISECONDS));
+
+    node.setValue("abd");
+    assertEquals("abd", sink.poll(5, TimeUnit.SECONDS).getResult());
+  }
+
+  @Test
+  public void commonResultsAreInterned() {
+    assertSame(NodeResult.of(null), NodeResult.of(null));
+    assertSame(NodeResult.of(true), NodeResult.of(Boolean.valueOf(true)));
+    assertSame(NodeResult.of(42), NodeResult.of(Integer.valueOf(42)));
+    assertNotSame(NodeResult.of("42"), NodeResult.of(new String("42")));
+    assertNotSame(NodeResult.of(1000), NodeResult.of(1000));
+    assertEquals(NodeResult.of(1000), NodeResult.of(1000));
+  }
+}
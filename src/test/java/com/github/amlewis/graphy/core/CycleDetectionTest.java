@@ -0,0 +1,163 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CycleDetectionTest {
+  /**
+   * Passes through a dependency that can be set after construction, so that tests can close a cycle.
+   */
+  private static class ForwardNode extends Node<Integer> {
+    private Node<Integer> dependency;
+
+    @Override
+    protected void activate() {
+      dependency.activate(this);
+    }
+
+    @Override
+    void onDependencyUpdated(Node<?> dependency) {
+      setResult(this.dependency.getResult());
+    }
+  }
+
+  private static final TransformNode.Function<Integer, Integer> INCREMENT = new TransformNode.Function<Integer, Integer>() {
+    @Override
+    public Integer apply(Integer input) {
+      return input + 1;
+    }
+  };
+
+  /**
+   * Sums its dependencies, which can be rewired while active.
+   */
+  private static class SumNode extends StateNode<Integer> {
+    SumNode(String name, Node<?>... dependencies) {
+      super(dependencies);
+      setName(name);
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      int sum = 0;
+      for (Node<?> dependency : getDependencies()) {
+        sum += (Integer) dependency.get();
+      }
+      return sum;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    Graphy.getInstance().setCycleDetectionEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    Graphy.getInstance().setCycleDetectionEnabled(false);
+  }
+
+  @Test
+  public void detectsCycleAndRemovesEdge() {
+    ForwardNode forward = new ForwardNode();
+    forward.setName("forward");
+    TransformNode<Integer, Integer> transform = TransformNode.of(INCREMENT, forward);
+    transform.setName("transform");
+    forward.dependency = transform;
+
+    try {
+      Graphy.sinkToBlockingDeque(transform, 10);
+      fail("Activating a cycle should throw");
+    } catch (Node.CycleDetectedException e) {
+      assertEquals(Arrays.asList("transform", "forward", "transform"), e.getCycle());
+    }
+    assertFalse("The edge closing the cycle should be removed", transform.getParents().contains(forward));
+  }
+
+  @Test
+  public void longerCycle() {
+    ForwardNode forward = new ForwardNode();
+    forward.setName("forward");
+    Node<Integer> tail = forward;
+    for (int i = 0; i < 5; ++i) {
+      tail = TransformNode.of(INCREMENT, tail);
+      tail.setName("transform" + i);
+    }
+    forward.dependency = tail;
+
+    try {
+      Graphy.sinkToBlockingDeque(tail, 10);
+      fail("Activating a cycle should throw");
+    } catch (Node.CycleDetectedException e) {
+      assertEquals(7, e.getCycle().size());
+      assertEquals(e.getCycle().get(0), e.getCycle().get(6));
+      assertTrue(e.getCycle().contains("forward"));
+    }
+  }
+
+  @Test
+  public void detectedCycleLeavesRanksAndActivationUnchanged() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(1);
+    SumNode a = new SumNode("a", input);
+    SumNode b = new SumNode("b", a);
+    SumNode c = new SumNode("c", b);
+    SumNode d = new SumNode("d", a);
+    // Sinking d first makes it the first parent of a, so it is raised before the cycle through b is found.
+    Graphy.sinkToBlockingDeque(d, 10);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(c, 10);
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+
+    Node<?>[] nodes = {input, a, b, c, d};
+    int[] ranks = new int[nodes.length];
+    for (int i = 0; i < nodes.length; ++i) {
+      ranks[i] = nodes[i].getRank();
+    }
+
+    SumNode closing = new SumNode("closing", c);
+    try {
+      a.addDependency(closing);
+      fail("Closing a cycle should throw");
+    } catch (Node.CycleDetectedException e) {
+      assertEquals(Arrays.asList("c", "closing", "a", "b", "c"), e.getCycle());
+    }
+    for (int i = 0; i < nodes.length; ++i) {
+      assertEquals("Rank of " + nodes[i].getName(), ranks[i], nodes[i].getRank());
+    }
+    assertFalse("A node activated only for the cycle should be released", closing.isActive());
+    assertFalse(c.getParents().contains(closing));
+  }
+
+  @Test
+  public void diamondIsNotACycle() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(1);
+    TransformNode<Integer, Integer> left = TransformNode.of(INCREMENT, input);
+    TransformNode<Integer, Integer> right = TransformNode.of(INCREMENT, left);
+    StateNode<Integer> join = new StateNode<Integer>(input, left, right) {
+      @Override
+      protected Integer processResult() throws Exception {
+        return 0;
+      }
+    };
+
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(join, 10);
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void cyclesAreToleratedWhenDisabled() {
+    Graphy.getInstance().setCycleDetectionEnabled(false);
+    ForwardNode forward = new ForwardNode();
+    TransformNode<Integer, Integer> transform = TransformNode.of(INCREMENT, forward);
+    forward.dependency = transform;
+
+    Graphy.sinkToBlockingDeque(transform, 10);
+    assertTrue(transform.getParents().contains(forward));
+  }
+}
@@ -0,0 +1,295 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeactivationTest {
+  private static class CountingNode extends StateNode<Integer> {
+    private final Node<Integer> input;
+    private final AtomicInteger processCount = new AtomicInteger(0);
+    private final Set<Integer> inputsSeen = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    public CountingNode(Node<Integer> input) {
+      super(input);
+      this.input = input;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      processCount.incrementAndGet();
+      Integer value = input.get();
+      inputsSeen.add(value);
+      return value + 1;
+    }
+  }
+
+  private static class SlowNode extends StateNode<Integer> {
+    private final Node<Integer> input;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+
+    public SlowNode(Node<Integer> input) {
+      super(input);
+      this.input = input;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      started.countDown();
+      try {
+        Thread.sleep(10000);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+        throw e;
+      }
+      return input.get();
+    }
+  }
+
+  /**
+   * Waits for an interrupt without clearing it, then fails with InterruptedException.
+   */
+  private static class InterruptibleNode extends StateNode<Integer> {
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    public InterruptibleNode(Node<Integer> input) {
+      super(input);
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      started.countDown();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!Thread.currentThread().isInterrupted() && System.nanoTime() < deadline) {
+        Thread.yield();
+      }
+      throw new InterruptedException();
+    }
+  }
+
+  private static class QueueCallback<ResultType> extends Graphy.SinkCallback<ResultType> {
+    private final BlockingQueue<ResultType> results = new LinkedBlockingQueue<ResultType>();
+
+    @Override
+    protected void onNewResult(ResultType result) {
+      results.add(result);
+    }
+
+    @Override
+    protected void onNewException(Exception exception) {
+    }
+
+    @Override
+    protected void onUnset() {
+    }
+
+    ResultType poll() throws InterruptedException {
+      return results.poll(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void deregisteredSubgraphStopsComputing() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    CountingNode first = new CountingNode(input);
+    CountingNode second = new CountingNode(first);
+
+    QueueCallback<Integer> callback = new QueueCallback<Integer>();
+    Graphy.sink(second, callback);
+    assertEquals(2, callback.poll().intValue());
+    assertTrue(first.isActive());
+
+    callback.deregister();
+    assertFalse(second.isActive());
+    assertFalse(first.isActive());
+    assertTrue(input.getParents().isEmpty());
+
+    input.setValue(10);
+    Thread.sleep(100);
+    assertFalse("Released nodes shouldn't process new inputs", first.inputsSeen.contains(10));
+    assertFalse(second.inputsSeen.contains(11));
+
+    // Reactivating picks up the change made while nothing was observing.
+    QueueCallback<Integer> reactivated = new QueueCallback<Integer>();
+    Graphy.sink(second, reactivated);
+    Integer result;
+    do {
+      result = reactivated.poll();
+    } while (result != null && result != 12);
+    assertEquals(Integer.valueOf(12), result);
+  }
+
+  @Test
+  public void deactivationCancelsQueuedRefresh() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    CountingNode node = new CountingNode(input);
+    ManualExecutor executor = new ManualExecutor();
+    node.setExecutorService(executor);
+
+    QueueCallback<Integer> callback = new QueueCallback<Integer>();
+    Graphy.sink(node, callback);
+    Runnable refresh = executor.take();
+
+    callback.deregister();
+    refresh.run();
+    assertEquals("A refresh queued before deactivation shouldn't process", 0, node.processCount.get());
+    assertFalse(node.hasResult());
+  }
+
+  @Test
+  public void sharedDependencyStaysActiveWhileObserved() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    CountingNode shared = new CountingNode(input);
+    CountingNode left = new CountingNode(shared);
+    CountingNode right = new CountingNode(shared);
+
+    QueueCallback<Integer> leftCallback = new QueueCallback<Integer>();
+    QueueCallback<Integer> rightCallback = new QueueCallback<Integer>();
+    Graphy.sink(left, leftCallback);
+    Graphy.sink(right, rightCallback);
+    assertEquals(2, leftCallback.poll().intValue());
+    assertEquals(2, rightCallback.poll().intValue());
+
+    leftCallback.deregister();
+    assertFalse(left.isActive());
+    assertTrue(shared.isActive());
+
+    input.setValue(5);
+    assertEquals(7, rightCallback.poll().intValue());
+  }
+
+  @Test
+  public void lazyBranchIsReleasedAndLazyAgain() throws InterruptedException {
+    ValueNode<Integer> main = ValueNode.of(new IllegalStateException());
+    ValueNode<Integer> fallbackInput = ValueNode.of(1);
+    CountingNode fallback = new CountingNode(fallbackInput);
+    TryNode<Integer> tryNode = new TryNode.Builder<Integer>().mainNode(main).onExceptionNode(fallback, true).build();
+
+    QueueCallback<Integer> callback = new QueueCallback<Integer>();
+    Graphy.sink(tryNode, callback);
+    assertEquals(2, callback.poll().intValue());
+    assertTrue(fallback.isActive());
+
+    callback.deregister();
+    assertFalse(fallback.isActive());
+    assertTrue(fallbackInput.getParents().isEmpty());
+
+    main.setValue(3);
+    // The result from before deactivation may be delivered first.
+    QueueCallback<Integer> reactivated = new QueueCallback<Integer>();
+    Graphy.sink(tryNode, reactivated);
+    Integer result;
+    do {
+      result = reactivated.poll();
+    } while (result != null && result != 3);
+    assertEquals(Integer.valueOf(3), result);
+    assertFalse("The lazy branch shouldn't be activated until it's needed", fallback.isActive());
+  }
+
+  @Test
+  public void firstValueNodeCanBeReactivated() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    CountingNode counting = new CountingNode(input);
+    FirstValueNode<Integer> first = FirstValueNode.wrap(counting);
+
+    QueueCallback<Integer> callback = new QueueCallback<Integer>();
+    Graphy.sink(first, callback);
+    assertEquals(1, callback.poll().intValue());
+    callback.deregister();
+
+    input.setValue(5);
+    QueueCallback<Integer> reactivated = new QueueCallback<Integer>();
+    Graphy.sink(first, reactivated);
+    assertEquals(1, reactivated.poll().intValue());
+    assertFalse("The child is released once the first result is taken", counting.isActive());
+  }
+
+  @Test
+  public void timedOutFirstResultInterruptsUnobservedWork() throws Exception {
+    ValueNode<Integer> input = ValueNode.of(0);
+    SlowNode slow = new SlowNode(input);
+    CountingNode parent = new CountingNode(slow);
+
+    try {
+      Graphy.sinkFirstResult(parent, 50, TimeUnit.MILLISECONDS);
+      fail("Expected a timeout");
+    } catch (TimeoutException e) {
+      // Expected.
+    }
+    assertFalse(parent.isActive());
+    assertFalse(slow.isActive());
+    assertTrue(input.getParents().isEmpty());
+    assertTrue("Processing should be interrupted", slow.interrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void interruptedWorkIsDiscardedAndInterruptCleared() throws Exception {
+    ValueNode<Integer> input = ValueNode.of(0);
+    InterruptibleNode interruptible = new InterruptibleNode(input);
+    ManualExecutor executor = new ManualExecutor();
+    interruptible.setExecutorService(executor);
+    CountingNode parent = new CountingNode(interruptible);
+
+    QueueCallback<Integer> callback = new QueueCallback<Integer>();
+    Graphy.sink(parent, callback);
+    final Runnable refresh = executor.take();
+    final AtomicBoolean interruptedAfterRun = new AtomicBoolean(true);
+    Thread runner = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        refresh.run();
+        interruptedAfterRun.set(Thread.currentThread().isInterrupted());
+      }
+    });
+    runner.start();
+    assertTrue(interruptible.started.await(5, TimeUnit.SECONDS));
+
+    callback.deregister(true);
+    runner.join(5000);
+    assertFalse(runner.isAlive());
+    assertFalse("The interrupted process shouldn't publish its InterruptedException", interruptible.hasResult());
+    assertFalse("The interrupt should be cleared once the runnable returns", interruptedAfterRun.get());
+  }
+
+  @Test
+  public void cancelledFirstResultLeavesSharedWorkRunning() throws Exception {
+    ValueNode<Integer> input = ValueNode.of(0);
+    SlowNode slow = new SlowNode(input);
+    CountingNode left = new CountingNode(slow);
+    CountingNode right = new CountingNode(slow);
+
+    QueueCallback<Integer> callback = new QueueCallback<Integer>();
+    Graphy.sink(right, callback);
+    CompletableFuture<Integer> future = Graphy.sinkFirstResultFuture(left);
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+
+    assertTrue(future.cancel(true));
+    assertTrue(future.isCancelled());
+    assertFalse(left.isActive());
+    assertTrue(slow.isActive());
+    assertFalse("Work still observed by another sink shouldn't be interrupted", slow.interrupted.await(100, TimeUnit.MILLISECONDS));
+    callback.deregister(true);
+    assertTrue(slow.interrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void firstResultFutureCompletesAndReleases() throws Exception {
+    ValueNode<Integer> input = ValueNode.of(0);
+    CountingNode node = new CountingNode(input);
+
+    CompletableFuture<Integer> future = Graphy.sinkFirstResultFuture(node);
+    assertEquals(1, future.get(5, TimeUnit.SECONDS).intValue());
+    // The sink is released by the completing thread, which may still be running.
+    for (int i = 0; i < 100 && node.isActive(); ++i) {
+      Thread.sleep(10);
+    }
+    assertFalse(node.isActive());
+    assertFalse(future.cancel(true));
+  }
+}
@@ -0,0 +1,99 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DispatchModeTest {
+  private static final int CHAIN_LENGTH = 5;
+
+  /**
+   * Adds one, recording which thread it ran on.
+   */
+  private static class RecordingIncrement implements TransformNode.Function<Integer, Integer> {
+    private final Set<Thread> threads;
+
+    RecordingIncrement(Set<Thread> threads) {
+      this.threads = threads;
+    }
+
+    @Override
+    public Integer apply(Integer input) {
+      threads.add(Thread.currentThread());
+      return input + 1;
+    }
+  }
+
+  @Test
+  public void inlineChainIsProcessedOnOneThread() throws InterruptedException {
+    Set<Thread> threads = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Thread, Boolean>()));
+    ValueNode<Integer> input = ValueNode.of(0);
+    Node<Integer> node = input;
+    for (int i = 0; i < CHAIN_LENGTH; ++i) {
+      TransformNode<Integer, Integer> transform = TransformNode.of(new RecordingIncrement(threads), node);
+      transform.setDispatchMode(Graphy.DispatchMode.INLINE);
+      node = transform;
+    }
+
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(node, 10);
+    NodeResult<Integer> result;
+    do {
+      result = sink.poll(5, TimeUnit.SECONDS);
+    } while (result != null && result.getResult() != CHAIN_LENGTH);
+    assertNotNull(result);
+
+    Thread.sleep(100);
+    threads.clear();
+    input.setValue(10);
+    do {
+      result = sink.poll(5, TimeUnit.SECONDS);
+    } while (result != null && result.getResult() != 10 + CHAIN_LENGTH);
+    assertNotNull(result);
+    assertEquals("Every transform should run on the thread that delivered the change", 1, threads.size());
+    assertFalse("Inline processing shouldn't run on the thread setting the value", threads.contains(Thread.currentThread()));
+  }
+
+  @Test
+  public void adaptiveDispatchOnlyInlinesCheapNodes() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    TransformNode<Integer, Integer> cheap = TransformNode.of(new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        return input + 1;
+      }
+    }, input);
+    TransformNode<Integer, Integer> expensive = TransformNode.of(new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return input + 1;
+      }
+    }, input);
+    cheap.setDispatchMode(Graphy.DispatchMode.ADAPTIVE);
+    expensive.setDispatchMode(Graphy.DispatchMode.ADAPTIVE);
+    assertFalse("Unmeasured nodes should be offloaded", cheap.prefersInline());
+
+    BlockingDeque<NodeResult<Integer>> cheapSink = Graphy.sinkToBlockingDeque(cheap, 100);
+    BlockingDeque<NodeResult<Integer>> expensiveSink = Graphy.sinkToBlockingDeque(expensive, 100);
+    assertNotNull(cheapSink.poll(5, TimeUnit.SECONDS));
+    assertNotNull(expensiveSink.poll(5, TimeUnit.SECONDS));
+
+    // The first runs include warming up, so give the average a few samples to settle.
+    for (int i = 1; i <= 200 && !cheap.prefersInline(); ++i) {
+      input.setValue(i);
+      Thread.sleep(10);
+    }
+    assertTrue(cheap.prefersInline());
+    assertFalse(expensive.prefersInline());
+  }
+}
@@ -0,0 +1,164 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class FlowControlNodeTest {
+  private static final int NUM_SETS = 1000;
+
+  /**
+   * A timer that counts the tasks scheduled on it, and drops cancelled ones from its queue so they can be checked for.
+   */
+  private static class RecordingTimer extends ScheduledThreadPoolExecutor {
+    private final Semaphore scheduled = new Semaphore(0);
+
+    RecordingTimer() {
+      super(1);
+      setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+      scheduled.release();
+      return task;
+    }
+
+    void awaitScheduled() throws InterruptedException {
+      assertTrue("Expected a timer to be scheduled", scheduled.tryAcquire(5, TimeUnit.SECONDS));
+    }
+  }
+
+  private static class NullCallback<ResultType> extends Graphy.SinkCallback<ResultType> {
+    @Override
+    public void onNewResult(ResultType result) {
+    }
+
+    @Override
+    public void onNewException(Exception exception) {
+    }
+
+    @Override
+    protected void onUnset() {
+    }
+  }
+
+  /**
+   * Activates node with timers on a RecordingTimer, checks that deactivating it cancels its pending timer, and that
+   * activating it again schedules a new one.
+   */
+  private static void assertTimerCancelledOnDeactivation(Node<Integer> node) throws InterruptedException {
+    ScheduledExecutorService previous = Graphy.getInstance().getTimerExecutorService();
+    RecordingTimer timer = new RecordingTimer();
+    Graphy.getInstance().setTimerExecutorService(timer);
+    try {
+      NullCallback<Integer> callback = new NullCallback<Integer>();
+      Graphy.sink(node, callback);
+      timer.awaitScheduled();
+      assertEquals(1, timer.getQueue().size());
+
+      callback.deregister();
+      assertTrue("Deactivating should cancel the pending timer", timer.getQueue().isEmpty());
+
+      NullCallback<Integer> reactivated = new NullCallback<Integer>();
+      Graphy.sink(node, reactivated);
+      timer.awaitScheduled();
+      reactivated.deregister();
+    } finally {
+      Graphy.getInstance().setTimerExecutorService(previous);
+      timer.shutdownNow();
+    }
+  }
+
+  /**
+   * Sets 1..NUM_SETS as fast as possible, then collects results until the sink has been quiet for quietMillis.
+   */
+  private static List<Integer> burst(ValueNode<Integer> input, BlockingDeque<NodeResult<Integer>> sink, long quietMillis) throws InterruptedException {
+    for (int i = 1; i <= NUM_SETS; ++i) {
+      input.setValue(i);
+    }
+
+    List<Integer> results = new ArrayList<Integer>();
+    NodeResult<Integer> result;
+    while ((result = sink.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+      results.add(result.getResult());
+    }
+    return results;
+  }
+
+  @Test
+  public void debounceOnlyPassesOnSettledValue() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(DebounceNode.of(input, 50, TimeUnit.MILLISECONDS), NUM_SETS);
+    assertEquals(0, sink.take().getResult().intValue());
+
+    List<Integer> results = burst(input, sink, 500);
+    assertEquals(1, results.size());
+    assertEquals(NUM_SETS, results.get(0).intValue());
+  }
+
+  @Test
+  public void throttleLimitsRateAndKeepsLatest() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(ThrottleNode.of(input, 50, TimeUnit.MILLISECONDS), NUM_SETS);
+    assertEquals(0, sink.take().getResult().intValue());
+
+    List<Integer> results = burst(input, sink, 500);
+    assertTrue("Throttling should drop most of a burst", results.size() < NUM_SETS / 10);
+    assertEquals("The trailing result should be the latest value", NUM_SETS, results.get(results.size() - 1).intValue());
+  }
+
+  @Test
+  public void sampleLimitsRateAndKeepsLatest() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(SampleNode.of(input, 20, TimeUnit.MILLISECONDS), NUM_SETS);
+    assertEquals(0, sink.take().getResult().intValue());
+
+    List<Integer> results = burst(input, sink, 500);
+    assertTrue("Sampling should drop most of a burst", results.size() < NUM_SETS / 10);
+    assertEquals("The last sample should be the latest value", NUM_SETS, results.get(results.size() - 1).intValue());
+  }
+
+  @Test
+  public void throttleLeadingOnlyDropsTheRestOfTheWindow() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    ThrottleNode<Integer> throttle = new ThrottleNode<Integer>(input, 1, TimeUnit.HOURS, true, false);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(throttle, NUM_SETS);
+    assertEquals("The leading result should be passed on at once", 0, sink.take().getResult().intValue());
+
+    input.setValue(1);
+    assertNull("Nothing more should be passed on until the window closes", sink.poll(200, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void throttleTrailingOnlyWaitsForTheWindowToClose() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    long start = System.nanoTime();
+    ThrottleNode<Integer> throttle = new ThrottleNode<Integer>(input, 50, TimeUnit.MILLISECONDS, false, true);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(throttle, NUM_SETS);
+    assertEquals(0, sink.take().getResult().intValue());
+    assertTrue("The first result should wait for the window", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    List<Integer> results = burst(input, sink, 500);
+    assertEquals("The trailing result should be the latest value", NUM_SETS, results.get(results.size() - 1).intValue());
+  }
+
+  @Test
+  public void deactivationCancelsDebounceTimer() throws InterruptedException {
+    assertTimerCancelledOnDeactivation(DebounceNode.of(ValueNode.of(0), 1, TimeUnit.HOURS));
+  }
+
+  @Test
+  public void deactivationCancelsThrottleTimer() throws InterruptedException {
+    assertTimerCancelledOnDeactivation(ThrottleNode.of(ValueNode.of(0), 1, TimeUnit.HOURS));
+  }
+
+  @Test
+  public void deactivationCancelsSampler() throws InterruptedException {
+    assertTimerCancelledOnDeactivation(SampleNode.of(ValueNode.of(0), 1, TimeUnit.HOURS));
+  }
+}
@@ -0,0 +1,135 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GraphProfilerTest {
+  private static class DelayNode extends StateNode<Integer> {
+    private final Node<Integer> input;
+    private final long delayMillis;
+
+    public DelayNode(Node<Integer> input, long delayMillis) {
+      super(input);
+      this.input = input;
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      Thread.sleep(delayMillis);
+      return input.get() + 1;
+    }
+  }
+
+  private static class SumNode extends StateNode<Integer> {
+    private final List<Node<Integer>> inputs;
+
+    public SumNode(List<Node<Integer>> inputs) {
+      super(new ArrayList<Node<?>>(inputs));
+      this.inputs = inputs;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      int sum = 0;
+      for (Node<Integer> input : inputs) {
+        sum += input.get();
+      }
+      return sum;
+    }
+  }
+
+  private static List<String> names(List<GraphProfiler.NodeTiming> nodes) {
+    List<String> names = new ArrayList<String>();
+    for (GraphProfiler.NodeTiming node : nodes) {
+      names.add(node.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void criticalPathFollowsSlowBranch() throws InterruptedException {
+    ValueNode<Integer> source = ValueNode.of(0);
+    source.setName("source");
+    ValueNode<Integer> other = ValueNode.of(100);
+    other.setName("other");
+    DelayNode fast = new DelayNode(source, 0);
+    fast.setName("fast");
+    DelayNode slow = new DelayNode(source, 50);
+    slow.setName("slow");
+    SumNode join = new SumNode(Arrays.<Node<Integer>>asList(fast, slow, other));
+    join.setName("join");
+
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(join, 10);
+    assertEquals(102, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+
+    GraphProfiler.Profile profile = GraphProfiler.profile(source, 1, 5, TimeUnit.SECONDS);
+    assertTrue(profile.isComplete());
+
+    List<String> path = names(profile.getCriticalPath());
+    assertEquals("source", path.get(0));
+    assertEquals("slow", path.get(1));
+    assertEquals("join", path.get(2));
+    assertEquals(4, path.size());
+    assertTrue(profile.getCriticalPath().get(3).isSink());
+
+    boolean foundOther = false;
+    for (GraphProfiler.NodeTiming node : profile.getNodes()) {
+      if (node.getName().equals("other")) {
+        foundOther = true;
+        assertFalse(node.isAffected());
+        assertEquals(-1, node.getResultNanos());
+      } else if (node.getName().equals("slow")) {
+        assertTrue(node.getProcessingNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+      }
+    }
+    assertTrue("Other inputs of affected nodes should be included", foundOther);
+
+    String dot = profile.toDot();
+    assertTrue(dot.startsWith("digraph graphy {"));
+    assertTrue(dot.contains("label=\"slow\\nDelayNode"));
+    assertTrue(profile.toJson().contains("\"name\":\"join\""));
+  }
+
+  @Test
+  public void dotAndJsonEscapeNamesTheirOwnWay() throws InterruptedException {
+    ValueNode<Integer> source = ValueNode.of(0);
+    source.setName("a\"b\nc\td");
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(source, 10);
+    assertNotNull(sink.poll(5, TimeUnit.SECONDS));
+
+    GraphProfiler.Profile profile = GraphProfiler.profile(source, 1, 5, TimeUnit.SECONDS);
+    assertTrue(profile.toDot().contains("label=\"a\\\"b\\nc d\\n"));
+    assertTrue(profile.toJson().contains("\"name\":\"a\\\"b\\u000ac\\u0009d\""));
+  }
+
+  @Test
+  public void profileTimesOutWhenSinkIsNotReached() throws InterruptedException {
+    // Activation can process the sink more than once. The sink is only processed when this thread runs its tasks, so a
+    // leftover activation process can't be mistaken for the change reaching it.
+    ManualExecutor executor = new ManualExecutor();
+    ExecutorService previous = Graphy.getInstance().getDefaultProcessingExecutorService();
+    Graphy.getInstance().setDefaultProcessingExecutorService(executor);
+    try {
+      ValueNode<Integer> source = ValueNode.of(0);
+      BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(source, 10);
+      while (sink.isEmpty()) {
+        executor.take().run();
+      }
+
+      GraphProfiler.Profile profile = GraphProfiler.profile(source, 0, 100, TimeUnit.MILLISECONDS);
+      assertFalse(profile.isComplete());
+      assertEquals(1, profile.getCriticalPath().size());
+    } finally {
+      Graphy.getInstance().setDefaultProcessingExecutorService(previous);
+    }
+  }
+}
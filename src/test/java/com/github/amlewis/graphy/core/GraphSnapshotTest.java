@@ -0,0 +1,150 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GraphSnapshotTest {
+  private static class SquareNode extends StateNode<Integer> {
+    private final Node<Integer> input;
+    private final AtomicInteger processCount = new AtomicInteger(0);
+
+    public SquareNode(Node<Integer> input) {
+      super(input);
+      this.input = input;
+      setName("square");
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      processCount.incrementAndGet();
+      return input.get() * input.get();
+    }
+  }
+
+  /**
+   * A graph as it would be built on each startup.
+   */
+  private static class Graph {
+    private final ValueNode<Integer> input = new ValueNode<Integer>();
+    private final SquareNode square = new SquareNode(input);
+    private final GraphSnapshot snapshot = new GraphSnapshot();
+
+    Graph() {
+      input.setName("input");
+      snapshot.register(input, GraphSnapshot.<Integer>javaSerializer());
+      snapshot.register(square, GraphSnapshot.<Integer>javaSerializer());
+    }
+  }
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("graphy", ".snapshot");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  private static Integer await(BlockingDeque<NodeResult<Integer>> sink, int expected) throws InterruptedException {
+    NodeResult<Integer> result;
+    do {
+      result = sink.poll(5, TimeUnit.SECONDS);
+      assertNotNull("Expected " + expected, result);
+    } while (result.getResult() != expected);
+    return result.getResult();
+  }
+
+  private void writeSnapshot(int inputValue) throws Exception {
+    Graph before = new Graph();
+    before.input.setValue(inputValue);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(before.square, 10);
+    await(sink, inputValue * inputValue);
+    assertEquals(2, before.snapshot.write(file));
+  }
+
+  @Test
+  public void restoredNodeSkipsRecomputingUnchangedInputs() throws Exception {
+    writeSnapshot(7);
+
+    Graph after = new Graph();
+    assertEquals(2, after.snapshot.restore(file));
+    assertEquals(49, after.square.get().intValue());
+
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(after.square, 10);
+    await(sink, 49);
+    Thread.sleep(100);
+    assertEquals("The restored result should be used as is", 0, after.square.processCount.get());
+
+    // Setting an equal value doesn't count as a change.
+    after.input.setValue(7);
+    after.input.setValue(8);
+    await(sink, 64);
+    assertTrue(after.square.processCount.get() >= 1);
+  }
+
+  @Test
+  public void restoredNodeRecomputesWhenInputDiffers() throws Exception {
+    writeSnapshot(3);
+
+    Graph after = new Graph();
+    after.snapshot.restore(file);
+    after.input.setValue(4);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(after.square, 10);
+    await(sink, 16);
+  }
+
+  @Test
+  public void unsetResultsAreNotWritten() throws Exception {
+    Graph graph = new Graph();
+    assertEquals(0, graph.snapshot.write(file));
+    assertEquals(0, new Graph().snapshot.restore(file));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsFilesThatArentSnapshots() throws Exception {
+    Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+    new Graph().snapshot.restore(file);
+  }
+
+  @Test
+  public void corruptLengthRestoresNothing() throws Exception {
+    writeSnapshot(7);
+    ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(file));
+    // Skip the header and the first entry, then claim a huge payload for the second.
+    int position = 8 + 4;
+    position += 4 + contents.getInt(position);
+    position += 4 + 8 + contents.getInt(position);
+    position += 4 + contents.getInt(position);
+    contents.putInt(position, Integer.MAX_VALUE - 8);
+    Files.write(file, contents.array());
+
+    Graph after = new Graph();
+    try {
+      after.snapshot.restore(file);
+      fail("A corrupt length should be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertFalse("Entries before the corruption shouldn't be applied", after.input.hasResult());
+    assertFalse(after.square.hasResult());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nodesMustBeNamed() {
+    new GraphSnapshot().register(ValueNode.of(1), GraphSnapshot.<Integer>javaSerializer());
+  }
+}
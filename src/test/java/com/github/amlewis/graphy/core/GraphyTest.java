@@ -32,4 +32,72 @@ public class GraphyTest {
       assertEquals("Graphy.sink(ValueNode.of(NullPointerException)) should throw ExecutionException(NullPointerException)", exception, e.getCause());
     }
   }
+
+  @Test
+  public void batchedWritesAreStagedUntilCommit() throws ExecutionException, InterruptedException {
+    ValueNode<Integer> first = ValueNode.of(1);
+    ValueNode<Integer> second = ValueNode.of(1);
+
+    Graphy.beginBatch();
+    first.setValue(2);
+    Graphy.beginBatch();
+    second.setValue(2);
+    Graphy.commitBatch();
+    assertEquals("Writes should not be visible until the outermost batch commits", 1, first.get().intValue());
+    assertEquals("Writes should not be visible until the outermost batch commits", 1, second.get().intValue());
+    Graphy.commitBatch();
+
+    assertEquals(2, Graphy.sinkFirstResult(first).intValue());
+    assertEquals(2, Graphy.sinkFirstResult(second).intValue());
+  }
+
+  @Test
+  public void abortedBatchDiscardsWrites() throws ExecutionException, InterruptedException {
+    final ValueNode<Integer> valueNode = ValueNode.of(1);
+    try {
+      Graphy.batch(new Runnable() {
+        @Override
+        public void run() {
+          valueNode.setValue(2);
+          throw new IllegalStateException();
+        }
+      });
+      fail("Graphy.batch should rethrow exceptions from its Runnable");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    assertEquals(1, Graphy.sinkFirstResult(valueNode).intValue());
+  }
+
+  @Test
+  public void abortedInnerBatchKeepsOuterBatch() throws ExecutionException, InterruptedException {
+    final ValueNode<Integer> before = ValueNode.of(1);
+    final ValueNode<Integer> inner = ValueNode.of(1);
+    final ValueNode<Integer> after = ValueNode.of(1);
+    Graphy.batch(new Runnable() {
+      @Override
+      public void run() {
+        before.setValue(2);
+        try {
+          Graphy.batch(new Runnable() {
+            @Override
+            public void run() {
+              inner.setValue(2);
+              before.setValue(3);
+              throw new IllegalStateException();
+            }
+          });
+          fail("Graphy.batch should rethrow exceptions from its Runnable");
+        } catch (IllegalStateException e) {
+          // Expected
+        }
+        after.setValue(2);
+        assertEquals("Writes after an aborted inner batch should still be staged", 1, after.get().intValue());
+      }
+    });
+
+    assertEquals(2, Graphy.sinkFirstResult(before).intValue());
+    assertEquals(1, Graphy.sinkFirstResult(inner).intValue());
+    assertEquals(2, Graphy.sinkFirstResult(after).intValue());
+  }
 }
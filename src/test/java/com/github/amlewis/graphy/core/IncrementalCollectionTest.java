@@ -0,0 +1,190 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IncrementalCollectionTest {
+  private static final int NUM_ENTRIES = 1000;
+
+  private static final ReduceNode.Reducer<Integer, Integer> SUM = new ReduceNode.Reducer<Integer, Integer>() {
+    @Override
+    public Integer identity() {
+      return 0;
+    }
+
+    @Override
+    public Integer add(Integer accumulator, Integer value) {
+      return accumulator + value;
+    }
+
+    @Override
+    public Integer remove(Integer accumulator, Integer value) {
+      return accumulator - value;
+    }
+  };
+
+  /**
+   * Polls sink until it delivers expected, since intermediate results may be delivered first.
+   */
+  private static <ResultType> void awaitResult(BlockingDeque<NodeResult<ResultType>> sink, ResultType expected) throws InterruptedException {
+    NodeResult<ResultType> result;
+    do {
+      result = sink.poll(5, TimeUnit.SECONDS);
+      assertNotNull("Expected " + expected, result);
+    } while (!expected.equals(result.getResult()));
+  }
+
+  @Test
+  public void concurrentWritersDontDiverge() throws InterruptedException {
+    // A tiny log, so the reader keeps falling behind and catching up from snapshots.
+    final MapSourceNode<Integer, Integer> source = new MapSourceNode<Integer, Integer>(1);
+    ReduceNode<Integer, Integer, Integer> total = ReduceNode.of(SUM, source);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(total, 100);
+    awaitResult(sink, 0);
+
+    final int numWriters = 4;
+    List<Thread> writers = new ArrayList<Thread>();
+    for (int t = 0; t < numWriters; ++t) {
+      final int offset = t * NUM_ENTRIES;
+      Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < NUM_ENTRIES; ++i) {
+            source.put(offset + i, 1);
+          }
+        }
+      });
+      writers.add(writer);
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    awaitResult(sink, numWriters * NUM_ENTRIES);
+  }
+
+  @Test
+  public void mapFilterAndReduceOnlyProcessChanges() throws InterruptedException {
+    Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+    for (int i = 0; i < NUM_ENTRIES; ++i) {
+      positions.put(i, i);
+    }
+    MapSourceNode<Integer, Integer> source = MapSourceNode.of(positions);
+
+    final AtomicInteger transformCount = new AtomicInteger(0);
+    MapValuesNode<Integer, Integer, Integer> doubled = MapValuesNode.of(new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        transformCount.incrementAndGet();
+        return input * 2;
+      }
+    }, source);
+    FilterNode<Integer, Integer> even = FilterNode.of(new FilterNode.Predicate<Integer, Integer>() {
+      @Override
+      public boolean apply(Integer key, Integer value) {
+        return key % 2 == 0;
+      }
+    }, doubled);
+    ReduceNode<Integer, Integer, Integer> total = ReduceNode.of(SUM, even);
+
+    // Sum of 2 * i over even i below NUM_ENTRIES.
+    int expected = 0;
+    for (int i = 0; i < NUM_ENTRIES; i += 2) {
+      expected += 2 * i;
+    }
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(total, 100);
+    awaitResult(sink, expected);
+    assertEquals(NUM_ENTRIES, transformCount.get());
+
+    source.put(10, 110);
+    awaitResult(sink, expected + 200);
+    source.put(11, 1000);
+    source.remove(0);
+    source.put(NUM_ENTRIES, 1);
+    awaitResult(sink, expected + 200 + 2);
+    assertEquals("Only changed entries should be transformed", NUM_ENTRIES + 3, transformCount.get());
+    assertEquals(Integer.valueOf(2000), doubled.get().get(11));
+    assertFalse(even.get().containsKey(11));
+  }
+
+  @Test
+  public void groupByFollowsEntriesBetweenGroups() throws InterruptedException {
+    MapSourceNode<String, Integer> source = new MapSourceNode<String, Integer>();
+    GroupByNode<String, Integer, Character, Integer> byInitial = GroupByNode.of(new GroupByNode.GroupFunction<String, Integer, Character>() {
+      @Override
+      public Character apply(String key, Integer value) {
+        return key.charAt(0);
+      }
+    }, SUM, source);
+    ReduceNode<Character, Integer, Integer> groupCount = ReduceNode.of(new ReduceNode.Reducer<Integer, Integer>() {
+      @Override
+      public Integer identity() {
+        return 0;
+      }
+
+      @Override
+      public Integer add(Integer accumulator, Integer value) {
+        return accumulator + 1;
+      }
+
+      @Override
+      public Integer remove(Integer accumulator, Integer value) {
+        return accumulator - 1;
+      }
+    }, byInitial);
+    BlockingDeque<NodeResult<Integer>> groups = Graphy.sinkToBlockingDeque(groupCount, 100);
+    awaitResult(groups, 0);
+
+    Map<String, Integer> entries = new HashMap<String, Integer>();
+    entries.put("apple", 1);
+    entries.put("avocado", 2);
+    entries.put("banana", 3);
+    source.putAll(entries);
+    awaitResult(groups, 2);
+    assertEquals(Integer.valueOf(3), byInitial.get().get('a'));
+    assertEquals(Integer.valueOf(3), byInitial.get().get('b'));
+
+    source.put("avocado", 5);
+    source.removeAll(Arrays.asList("banana"));
+    awaitResult(groups, 1);
+    assertEquals(Integer.valueOf(6), byInitial.get().get('a'));
+    assertFalse(byInitial.get().containsKey('b'));
+
+    source.replaceAll(new HashMap<String, Integer>());
+    awaitResult(groups, 0);
+    assertEquals(0, byInitial.get().size());
+  }
+
+  @Test
+  public void changesAreOnlyKeptUpToLogCapacity() {
+    MapSourceNode<Integer, Integer> source = new MapSourceNode<Integer, Integer>(2);
+    IncrementalMap<Integer, Integer> initial = source.getResult().getResult();
+    source.put(1, 1);
+    source.put(2, 2);
+    IncrementalMap<Integer, Integer> twoChanges = source.getResult().getResult();
+    List<IncrementalMap.Change<Integer, Integer>> changes = twoChanges.changesSince(initial.getVersion());
+    assertEquals(2, changes.size());
+    assertTrue(changes.get(0).isInsert());
+
+    source.put(1, 10);
+    IncrementalMap<Integer, Integer> threeChanges = source.getResult().getResult();
+    assertNull("The first change has been dropped", threeChanges.changesSince(initial.getVersion()));
+    changes = threeChanges.changesSince(twoChanges.getVersion());
+    assertEquals(1, changes.size());
+    assertEquals(Integer.valueOf(1), changes.get(0).getPreviousValue());
+    assertEquals(Integer.valueOf(10), changes.get(0).getValue());
+
+    source.put(1, 10);
+    assertSame("Writes that change nothing shouldn't publish", threeChanges, source.getResult().getResult());
+  }
+}
@@ -0,0 +1,53 @@
+package com.github.amlewis.graphy.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Holds tasks until the test runs them, so a node's processing happens on the test thread and has finished, metrics
+ * and all, when run() returns.
+ */
+class ManualExecutor extends AbstractExecutorService {
+  private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+
+  @Override
+  public void execute(Runnable command) {
+    tasks.add(command);
+  }
+
+  Runnable take() throws InterruptedException {
+    Runnable task = tasks.poll(5, TimeUnit.SECONDS);
+    assertNotNull("Expected a task to be queued", task);
+    return task;
+  }
+
+  @Override
+  public void shutdown() {
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return new ArrayList<Runnable>(tasks);
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return false;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return false;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) {
+    return false;
+  }
+}
@@ -0,0 +1,111 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NodeMetricsTest {
+  @After
+  public void disableMetrics() {
+    Graphy.getInstance().setMetricsEnabled(false);
+  }
+
+  private static NodeMetrics.Snapshot find(String name) {
+    for (NodeMetrics.Snapshot snapshot : Graphy.getInstance().pollMetrics()) {
+      if (snapshot.getName().equals(name)) {
+        return snapshot;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void recordsProcessingAndNotifications() throws InterruptedException {
+    Graphy.getInstance().setMetricsEnabled(true);
+    ValueNode<Integer> input = ValueNode.of(0);
+    input.setName("metrics-input");
+    TransformNode<Integer, Integer> transform = TransformNode.of(new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        return input / 2;
+      }
+    }, input);
+    transform.setName("metrics-transform");
+    // The transform is processed on this thread, so a process has been recorded by the time its task returns.
+    ManualExecutor executor = new ManualExecutor();
+    transform.setExecutorService(executor);
+
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(transform, 10);
+    executor.take().run();
+    assertEquals(0, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+    input.setValue(2);
+    executor.take().run();
+    assertEquals(1, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+    // 3 / 2 == 2 / 2, so the transform's result doesn't change.
+    input.setValue(3);
+    input.setValue(3);
+    input.setValue(4);
+    // Depending on when the notifications arrive, the transform may be processed with 3 before it sees 4.
+    while (transform.getResult() == null || transform.get() != 2) {
+      executor.take().run();
+    }
+    assertEquals(2, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+
+    NodeMetrics.Snapshot inputMetrics = find("metrics-input");
+    assertNotNull(inputMetrics);
+    assertEquals(1, inputMetrics.getUnchangedResults());
+    assertTrue(inputMetrics.getNotifyCount() >= 1);
+
+    NodeMetrics.Snapshot transformMetrics = find("metrics-transform");
+    assertNotNull(transformMetrics);
+    assertTrue(transformMetrics.getProcessCount() >= 3);
+    long histogramTotal = 0;
+    for (long count : transformMetrics.getProcessingHistogram()) {
+      histogramTotal += count;
+    }
+    assertEquals(transformMetrics.getProcessCount(), histogramTotal);
+    assertTrue(transformMetrics.getProcessingNanosPercentile(99) > 0);
+  }
+
+  @Test
+  public void disabledRecordsNothing() {
+    ValueNode<Integer> input = ValueNode.of(0);
+    input.setName("metrics-disabled");
+    input.setValue(0);
+    assertNull(find("metrics-disabled"));
+    assertNull(input.getMetrics());
+  }
+
+  @Test
+  public void collectedNodesArePurgedOnRegister() throws InterruptedException {
+    NodeMetrics.Registry registry = new NodeMetrics.Registry();
+    List<Node<?>> kept = new ArrayList<Node<?>>();
+    registry.register(ValueNode.of(0));
+
+    // Without purging, the registry would only grow as more nodes register.
+    while (registry.size() == kept.size() + 1 && kept.size() < 100) {
+      System.gc();
+      Thread.sleep(10);
+      ValueNode<Integer> node = ValueNode.of(kept.size());
+      kept.add(node);
+      registry.register(node);
+    }
+    assertEquals("The collected node should be purged", kept.size(), registry.size());
+  }
+
+  @Test
+  public void histogramBuckets() {
+    assertEquals(0, NodeMetrics.bucketOf(0));
+    assertEquals(0, NodeMetrics.bucketOf(1));
+    assertEquals(1, NodeMetrics.bucketOf(2));
+    assertEquals(1, NodeMetrics.bucketOf(3));
+    assertEquals(10, NodeMetrics.bucketOf(1024));
+    assertEquals(62, NodeMetrics.bucketOf(Long.MAX_VALUE));
+  }
+}
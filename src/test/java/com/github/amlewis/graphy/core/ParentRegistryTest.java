@@ -0,0 +1,26 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParentRegistryTest {
+  @Test
+  public void collectedParentsArePurged() throws InterruptedException {
+    ParentRegistry registry = new ParentRegistry();
+    ValueNode<Integer> kept = ValueNode.of(0);
+    registry.add(kept);
+    registry.add(ValueNode.of(1));
+
+    for (int i = 0; i < 100 && registry.snapshot().length > 1; ++i) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals("The collected parent should be purged", 1, registry.snapshot().length);
+    assertTrue(registry.snapshot()[0].get() == kept);
+
+    registry.remove(kept);
+    assertTrue(registry.isEmpty());
+  }
+}
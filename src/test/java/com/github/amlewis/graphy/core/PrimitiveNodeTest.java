@@ -0,0 +1,132 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PrimitiveNodeTest {
+  private static final ChangeDetection<Integer> PARITY = new ChangeDetection<Integer>() {
+    @Override
+    protected boolean isEquivalent(Integer previous, Integer next) {
+      return previous % 2 == next % 2;
+    }
+  };
+
+  @Test
+  public void valueNodeReadsWithoutBoxing() {
+    IntValueNode node = IntValueNode.of(5);
+    assertEquals(5, node.getInt());
+    assertEquals(Integer.valueOf(5), node.get());
+
+    node.setValue(7);
+    assertEquals(7, node.getInt());
+  }
+
+  @Test
+  public void boxedViewIsReusedUntilValueChanges() {
+    LongValueNode node = LongValueNode.of(1L << 40);
+    NodeResult<Long> boxed = node.getResult();
+    assertSame(boxed, node.getResult());
+
+    node.setValue(1L << 40);
+    assertSame(boxed, node.getResult());
+
+    node.setValue(3L);
+    assertNotSame(boxed, node.getResult());
+    assertEquals(Long.valueOf(3L), node.getResult().getResult());
+  }
+
+  @Test
+  public void exceptionsAndUnsetBehaveLikeValueNode() {
+    DoubleValueNode node = new DoubleValueNode();
+    try {
+      node.getDouble();
+      fail("Unset node should throw");
+    } catch (Node.NodeNotProcessedException e) {
+      // expected
+    }
+
+    node.setValue(new IllegalStateException());
+    try {
+      node.getDouble();
+      fail("Exceptional node should throw");
+    } catch (Node.NodeProcessingException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    node.setValue(0.5);
+    assertEquals(0.5, node.getDouble(), 0);
+    node.unset();
+    assertNull(node.getResult());
+  }
+
+  @Test
+  public void transformChainPropagates() throws InterruptedException {
+    IntValueNode input = IntValueNode.of(1);
+    IntTransformNode doubled = IntTransformNode.of(new TransformNode.IntFunction() {
+      @Override
+      public int apply(int input) {
+        return input * 2;
+      }
+    }, input);
+    IntTransformNode plusOne = IntTransformNode.of(new TransformNode.IntFunction() {
+      @Override
+      public int apply(int input) {
+        return input + 1;
+      }
+    }, doubled);
+
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(plusOne, 10);
+    assertEquals(3, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+
+    input.setValue(10);
+    assertEquals(21, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+    assertEquals(21, plusOne.getInt());
+  }
+
+  @Test
+  public void boxedInputIsUnboxed() throws InterruptedException {
+    ValueNode<Double> input = ValueNode.of(2.0);
+    DoubleTransformNode squared = DoubleTransformNode.of(new TransformNode.DoubleFunction() {
+      @Override
+      public double apply(double input) {
+        return input * input;
+      }
+    }, input);
+
+    BlockingDeque<NodeResult<Double>> sink = Graphy.sinkToBlockingDeque(squared, 10);
+    assertEquals(4.0, sink.poll(5, TimeUnit.SECONDS).getResult(), 0);
+
+    input.setValue((Double) null);
+    NodeResult<Double> result = sink.poll(5, TimeUnit.SECONDS);
+    assertTrue("A null input can't be unboxed", result.isException());
+  }
+
+  @Test
+  public void changeDetectionApplies() throws InterruptedException {
+    IntValueNode input = IntValueNode.of(1);
+    input.setChangeDetection(PARITY);
+    input.setValue(3);
+    assertEquals("3 has the same parity as 1", 1, input.getInt());
+    input.setValue(4);
+    assertEquals(4, input.getInt());
+
+    IntTransformNode same = IntTransformNode.of(new TransformNode.IntFunction() {
+      @Override
+      public int apply(int input) {
+        return input;
+      }
+    }, input);
+    same.setChangeDetection(PARITY);
+    input.setChangeDetection(null);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(same, 10);
+    assertEquals(4, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+
+    input.setValue(6);
+    input.setValue(7);
+    assertEquals("6 has the same parity as 4", 7, sink.poll(5, TimeUnit.SECONDS).getResult().intValue());
+  }
+}
@@ -0,0 +1,144 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class PriorityLaneExecutorTest {
+  private static class RecordingTask implements Runnable, PriorityLaneExecutor.Prioritized {
+    private final String name;
+    private final int priority;
+    private final List<String> order;
+
+    RecordingTask(String name, int priority, List<String> order) {
+      this.name = name;
+      this.priority = priority;
+      this.order = order;
+    }
+
+    @Override
+    public int getPriority() {
+      return priority;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+    }
+  }
+
+  private static class QueueCallback<ResultType> extends Graphy.SinkCallback<ResultType> {
+    private final BlockingQueue<ResultType> results = new LinkedBlockingQueue<ResultType>();
+
+    @Override
+    protected void onNewResult(ResultType result) {
+      results.add(result);
+    }
+
+    @Override
+    protected void onNewException(Exception exception) {
+    }
+
+    @Override
+    protected void onUnset() {
+    }
+  }
+
+  /**
+   * Occupies the executor's only thread until released.
+   */
+  private static CountDownLatch block(PriorityLaneExecutor executor) throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    return release;
+  }
+
+  @Test
+  public void higherLanesRunFirst() throws InterruptedException {
+    PriorityLaneExecutor executor = new PriorityLaneExecutor(1, 3, 1, TimeUnit.HOURS);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch release = block(executor);
+
+    executor.execute(new RecordingTask("low1", 0, order));
+    executor.execute(new RecordingTask("low2", 0, order));
+    executor.execute(new RecordingTask("mid", 1, order));
+    executor.execute(new RecordingTask("high", 5, order));
+    assertArrayEquals(new int[]{2, 1, 1}, executor.getQueueDepths());
+
+    release.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("high", "mid", "low1", "low2"), order);
+    assertArrayEquals(new int[]{0, 0, 0}, executor.getQueueDepths());
+  }
+
+  @Test
+  public void waitingTasksAgeIntoHigherLanes() throws InterruptedException {
+    PriorityLaneExecutor executor = new PriorityLaneExecutor(1, 3, 10, TimeUnit.MILLISECONDS);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch release = block(executor);
+
+    executor.execute(new RecordingTask("old", 0, order));
+    Thread.sleep(100);
+    executor.execute(new RecordingTask("new", 2, order));
+
+    release.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("old", "new"), order);
+  }
+
+  @Test
+  public void priorityIsInheritedFromSinks() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(1);
+    TransformNode<Integer, Integer> first = TransformNode.of(new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer value) {
+        return value + 1;
+      }
+    }, input);
+    TransformNode<Integer, Integer> second = TransformNode.of(new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer value) {
+        return value * 2;
+      }
+    }, first);
+    PriorityLaneExecutor executor = new PriorityLaneExecutor(2, 3, 100, TimeUnit.MILLISECONDS);
+    first.setExecutorService(executor);
+    second.setExecutorService(executor);
+
+    QueueCallback<Integer> critical = new QueueCallback<Integer>();
+    Graphy.sink(second, critical, 2);
+    assertEquals(4, critical.results.poll(5, TimeUnit.SECONDS).intValue());
+    assertEquals(2, second.getPriority());
+    assertEquals(2, first.getPriority());
+    assertEquals(2, input.getPriority());
+
+    Graphy.sink(first, new QueueCallback<Integer>(), 1);
+    assertEquals(2, first.getPriority());
+
+    critical.deregister();
+    assertEquals(0, second.getPriority());
+    assertEquals(1, first.getPriority());
+    assertEquals(1, input.getPriority());
+    executor.shutdown();
+  }
+}
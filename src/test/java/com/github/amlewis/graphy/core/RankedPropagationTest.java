@@ -0,0 +1,152 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class RankedPropagationTest {
+  private static class MultiplyNode extends StateNode<Integer> {
+    private final Node<Integer> input;
+    private final int factor;
+
+    public MultiplyNode(Node<Integer> input, int factor) {
+      super(input);
+      this.input = input;
+      this.factor = factor;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      return input.get() * factor;
+    }
+  }
+
+  private static class CountingAddNode extends StateNode<Integer> {
+    private final Node<Integer> left;
+    private final Node<Integer> right;
+    private final AtomicInteger processCount = new AtomicInteger(0);
+
+    public CountingAddNode(Node<Integer> left, Node<Integer> right) {
+      super(left, right);
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      processCount.incrementAndGet();
+      return left.get() + right.get();
+    }
+  }
+
+  private static class CountingSumNode extends StateNode<Integer> {
+    private final List<ValueNode<Integer>> inputs;
+    private final AtomicInteger processCount = new AtomicInteger(0);
+
+    public CountingSumNode(List<ValueNode<Integer>> inputs) {
+      super(new ArrayList<Node<?>>(inputs));
+      this.inputs = inputs;
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      processCount.incrementAndGet();
+      int sum = 0;
+      for (ValueNode<Integer> input : inputs) {
+        sum += input.get();
+      }
+      return sum;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    Graphy.getInstance().setPropagationMode(Graphy.PropagationMode.RANKED);
+  }
+
+  @After
+  public void tearDown() {
+    Graphy.getInstance().setPropagationMode(Graphy.PropagationMode.BATCHED);
+  }
+
+  @Test
+  public void diamondProcessesOncePerChange() throws InterruptedException {
+    final int NUM_SETS = 100;
+    ValueNode<Integer> top = ValueNode.of(0);
+    MultiplyNode left = new MultiplyNode(top, 2);
+    MultiplyNode right = new MultiplyNode(top, 3);
+    CountingAddNode bottom = new CountingAddNode(left, right);
+
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(bottom, NUM_SETS);
+    assertEquals(0, queue.take().getResult().intValue());
+
+    // Activation happens outside of a wave, so only count processing from the first change's wave onwards.
+    int initialProcessCount = 0;
+    for (int i = 1; i <= NUM_SETS; ++i) {
+      top.setValue(i);
+      NodeResult<Integer> result = queue.poll(1000, TimeUnit.MILLISECONDS);
+      assertNotNull("Diamond should produce a result for every change", result);
+      assertEquals("Diamond should never see a mix of old and new inputs", 5 * i, result.getResult().intValue());
+      if (i == 1) {
+        initialProcessCount = bottom.processCount.get();
+      }
+    }
+    assertEquals(initialProcessCount + NUM_SETS - 1, bottom.processCount.get());
+  }
+
+  @Test
+  public void ranksFollowDependencies() throws InterruptedException {
+    ValueNode<Integer> top = ValueNode.of(1);
+    MultiplyNode middle = new MultiplyNode(top, 2);
+    CountingAddNode bottom = new CountingAddNode(top, middle);
+
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(bottom, 1);
+    assertEquals(3, queue.take().getResult().intValue());
+
+    assertEquals(0, top.getRank());
+    assertEquals(1, middle.getRank());
+    assertEquals(2, bottom.getRank());
+  }
+
+  @Test
+  public void batchIsAppliedInOneWave() throws InterruptedException {
+    final int NUM_INPUTS = 20;
+    final int NUM_BATCHES = 50;
+    final List<ValueNode<Integer>> inputs = new ArrayList<ValueNode<Integer>>();
+    for (int i = 0; i < NUM_INPUTS; ++i) {
+      inputs.add(ValueNode.of(0));
+    }
+    CountingSumNode sum = new CountingSumNode(inputs);
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(sum, NUM_BATCHES);
+    assertEquals(0, queue.take().getResult().intValue());
+
+    int initialProcessCount = 0;
+    for (int i = 1; i <= NUM_BATCHES; ++i) {
+      final int value = i;
+      Graphy.batch(new Runnable() {
+        @Override
+        public void run() {
+          for (ValueNode<Integer> input : inputs) {
+            input.setValue(value);
+          }
+        }
+      });
+      NodeResult<Integer> result = queue.poll(1000, TimeUnit.MILLISECONDS);
+      assertNotNull("Each batch should produce a result", result);
+      assertEquals("Downstream nodes should never see a partially applied batch", NUM_INPUTS * i, result.getResult().intValue());
+      if (i == 1) {
+        initialProcessCount = sum.processCount.get();
+      }
+    }
+    assertEquals("Each batch should be processed once", initialProcessCount + NUM_BATCHES - 1, sum.processCount.get());
+  }
+}
@@ -0,0 +1,190 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshRunnableTest {
+  private static final int NUM_THREADS = 8;
+  private static final int REFRESHES_PER_THREAD = 20000;
+
+  /**
+   * Tracks how many threads are inside work()/process() at once, and the latest refresh each run was started after.
+   */
+  private static class OverlapTracker {
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final AtomicInteger maxRunning = new AtomicInteger(0);
+    private final AtomicLong requested = new AtomicLong(0);
+    private final AtomicLong observed = new AtomicLong(0);
+
+    void request() {
+      requested.incrementAndGet();
+    }
+
+    void enter() {
+      raise(maxRunning, running.incrementAndGet());
+      raise(observed, requested.get());
+      Thread.yield();
+      running.decrementAndGet();
+    }
+
+    /**
+     * Raises value to at least candidate. A CAS loop, since a plain check then set could be overwritten by a
+     * concurrent, smaller candidate.
+     */
+    private static void raise(AtomicInteger value, int candidate) {
+      int current;
+      while ((current = value.get()) < candidate && !value.compareAndSet(current, candidate)) {
+        // Retry.
+      }
+    }
+
+    private static void raise(AtomicLong value, long candidate) {
+      long current;
+      while ((current = value.get()) < candidate && !value.compareAndSet(current, candidate)) {
+        // Retry.
+      }
+    }
+
+    void awaitAllObserved() throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (observed.get() != requested.get() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals("A run should start after every refresh", requested.get(), observed.get());
+      assertEquals("Runs should never overlap", 1, maxRunning.get());
+    }
+  }
+
+  private static void hammer(final Runnable refresh) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+    for (int i = 0; i < NUM_THREADS; ++i) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < REFRESHES_PER_THREAD; ++j) {
+              refresh.run();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    start.countDown();
+    assertTrue("Refreshing threads should finish", done.await(30, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void concurrentRefreshesNeverOverlap() throws InterruptedException {
+    final ExecutorService executorService = Executors.newFixedThreadPool(NUM_THREADS);
+    final OverlapTracker tracker = new OverlapTracker();
+    final RefreshRunnable refreshRunnable = new RefreshRunnable() {
+      @Override
+      public void work() {
+        tracker.enter();
+      }
+    };
+
+    try {
+      hammer(new Runnable() {
+        private int calls = 0;
+
+        @Override
+        public void run() {
+          tracker.request();
+          // Mix pooled and inline refreshes, which share the same state machine.
+          if ((++calls & 7) == 0) {
+            refreshRunnable.refreshInline();
+          } else {
+            refreshRunnable.refresh(executorService);
+          }
+        }
+      });
+
+      tracker.awaitAllObserved();
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void cancelledRefreshCanRunAgain() throws InterruptedException {
+    final ExecutorService executorService = Executors.newFixedThreadPool(NUM_THREADS);
+    final OverlapTracker tracker = new OverlapTracker();
+    final RefreshRunnable refreshRunnable = new RefreshRunnable() {
+      @Override
+      public void work() {
+        tracker.enter();
+      }
+    };
+
+    try {
+      hammer(new Runnable() {
+        private int calls = 0;
+
+        @Override
+        public void run() {
+          if ((++calls & 3) == 0) {
+            refreshRunnable.cancel();
+          }
+          tracker.request();
+          refreshRunnable.refresh(executorService);
+        }
+      });
+
+      tracker.awaitAllObserved();
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void processingNodeNeverProcessesConcurrently() throws InterruptedException {
+    final OverlapTracker tracker = new OverlapTracker();
+    final ProcessingNode<Void> node = new ProcessingNode<Void>() {
+      @Override
+      protected void activate() {
+      }
+
+      @Override
+      void onDependencyUpdated(Node<?> dependency) {
+        update();
+      }
+
+      @Override
+      void process() {
+        tracker.enter();
+      }
+    };
+    ExecutorService executorService = Executors.newFixedThreadPool(NUM_THREADS);
+    node.setExecutorService(executorService);
+
+    try {
+      hammer(new Runnable() {
+        @Override
+        public void run() {
+          tracker.request();
+          node.onDependencyUpdated(null);
+        }
+      });
+
+      tracker.awaitAllObserved();
+    } finally {
+      executorService.shutdown();
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+  private static final int NUM_ENTRIES = 200;
+
+  private static class SquareNode extends StateNode<Integer> {
+    private final Node<Integer> input;
+    private final AtomicInteger processCount = new AtomicInteger(0);
+
+    public SquareNode(Node<Integer> input) {
+      super(input);
+      this.input = input;
+      setName("square");
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      processCount.incrementAndGet();
+      return input.get() * input.get();
+    }
+  }
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("graphy-cache");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+    try {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    } finally {
+      files.close();
+    }
+    Files.delete(directory);
+  }
+
+  private static int await(BlockingDeque<NodeResult<Integer>> sink, int expected) throws InterruptedException {
+    NodeResult<Integer> result;
+    do {
+      result = sink.poll(5, TimeUnit.SECONDS);
+      assertNotNull("Expected " + expected, result);
+    } while (result.getResult() != expected);
+    return result.getResult();
+  }
+
+  /**
+   * Builds a fresh graph on cache and returns how many times its node actually processed to square inputValue.
+   */
+  private static int square(ResultCache cache, int inputValue) throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(inputValue);
+    SquareNode square = new SquareNode(input);
+    square.setResultCache(cache, GraphSnapshot.<Integer>javaSerializer());
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(square, 10);
+    await(sink, inputValue * inputValue);
+    return square.processCount.get();
+  }
+
+  private static byte[] fingerprint(int i) {
+    return ByteBuffer.allocate(32).putInt(i).array();
+  }
+
+  @Test
+  public void resultsSurviveRestart() throws Exception {
+    ResultCache cache = new ResultCache(directory, 1 << 20);
+    assertTrue(square(cache, 7) > 0);
+    assertEquals("Another graph sharing the cache shouldn't process", 0, square(cache, 7));
+    cache.close();
+
+    ResultCache reopened = new ResultCache(directory, 1 << 20);
+    assertEquals("A restarted graph shouldn't process", 0, square(reopened, 7));
+    assertTrue("Different inputs should process", square(reopened, 8) > 0);
+    reopened.close();
+  }
+
+  @Test
+  public void changedInputsMissTheCache() throws Exception {
+    ResultCache cache = new ResultCache(directory, 1 << 20);
+    ValueNode<Integer> input = ValueNode.of(3);
+    SquareNode square = new SquareNode(input);
+    square.setResultCache(cache, GraphSnapshot.<Integer>javaSerializer());
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(square, 10);
+    await(sink, 9);
+
+    input.setValue(4);
+    await(sink, 16);
+    int processed = square.processCount.get();
+
+    input.setValue(3);
+    await(sink, 9);
+    assertEquals("A repeated input should come from the cache", processed, square.processCount.get());
+    cache.close();
+  }
+
+  @Test
+  public void compactionBoundsSize() throws Exception {
+    long maxBytes = 4096;
+    ResultCache cache = new ResultCache(directory, maxBytes);
+    byte[] payload = new byte[100];
+    for (int i = 0; i < NUM_ENTRIES; ++i) {
+      payload[0] = (byte) i;
+      cache.put(fingerprint(i), payload.clone());
+    }
+    cache.flush();
+
+    assertTrue("The log should stay under maxBytes", cache.size() <= maxBytes);
+    assertEquals((byte) (NUM_ENTRIES - 1), cache.get(fingerprint(NUM_ENTRIES - 1))[0]);
+    assertNull("The oldest result should have been evicted", cache.get(fingerprint(0)));
+    cache.close();
+  }
+
+  @Test
+  public void tornWriteIsTruncated() throws Exception {
+    ResultCache cache = new ResultCache(directory, 1 << 20);
+    cache.put(fingerprint(1), new byte[]{1, 2, 3});
+    cache.close();
+    long size = Files.size(directory.resolve("results.log"));
+    Files.write(directory.resolve("results.log"), new byte[]{9, 9, 9}, StandardOpenOption.APPEND);
+
+    ResultCache reopened = new ResultCache(directory, 1 << 20);
+    assertEquals(size, reopened.size());
+    assertArrayEquals(new byte[]{1, 2, 3}, reopened.get(fingerprint(1)));
+    reopened.close();
+  }
+
+  @Test
+  public void failingDeserializerFallsBackToProcessing() throws Exception {
+    final GraphSnapshot.Serializer<Integer> java = GraphSnapshot.javaSerializer();
+    GraphSnapshot.Serializer<Integer> failing = new GraphSnapshot.Serializer<Integer>() {
+      @Override
+      public byte[] serialize(Integer value) throws IOException {
+        return java.serialize(value);
+      }
+
+      @Override
+      public Integer deserialize(byte[] bytes) {
+        throw new ClassCastException("Not an Integer");
+      }
+    };
+
+    ResultCache cache = new ResultCache(directory, 1 << 20);
+    assertTrue(square(cache, 5) > 0);
+    cache.flush();
+
+    ValueNode<Integer> input = ValueNode.of(5);
+    SquareNode square = new SquareNode(input);
+    square.setResultCache(cache, failing);
+    BlockingDeque<NodeResult<Integer>> sink = Graphy.sinkToBlockingDeque(square, 10);
+    await(sink, 25);
+    assertTrue("A result that can't be deserialized should be computed instead", square.processCount.get() > 0);
+    cache.close();
+  }
+}
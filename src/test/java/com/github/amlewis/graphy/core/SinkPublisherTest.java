@@ -0,0 +1,158 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SinkPublisherTest {
+  private static class QueueSubscriber<ResultType> implements Flow.Subscriber<NodeResult<ResultType>> {
+    private final BlockingQueue<NodeResult<ResultType>> results = new LinkedBlockingQueue<NodeResult<ResultType>>();
+    private final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<Throwable>();
+    private volatile Flow.Subscription subscription;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(NodeResult<ResultType> item) {
+      results.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      errors.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      fail("Node subscriptions never complete");
+    }
+
+    ResultType poll(long millis) throws InterruptedException {
+      NodeResult<ResultType> result = results.poll(millis, TimeUnit.MILLISECONDS);
+      return result == null ? null : result.getResult();
+    }
+  }
+
+  private static final TransformNode.Function<Integer, Integer> INCREMENT = new TransformNode.Function<Integer, Integer>() {
+    @Override
+    public Integer apply(Integer input) {
+      return input + 1;
+    }
+  };
+
+  private static void awaitInactive(Node<?> node) throws InterruptedException {
+    for (int i = 0; i < 100 && node.isActive(); ++i) {
+      Thread.sleep(10);
+    }
+    assertFalse("Upstream should be paused without demand", node.isActive());
+  }
+
+  @Test
+  public void deliversOnlyWhatIsRequested() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    TransformNode<Integer, Integer> transform = TransformNode.of(INCREMENT, input);
+    QueueSubscriber<Integer> subscriber = new QueueSubscriber<Integer>();
+    Graphy.sinkToPublisher(transform).subscribe(subscriber);
+
+    assertNull("Nothing should be delivered before a request", subscriber.poll(100));
+    assertFalse(transform.isActive());
+
+    subscriber.subscription.request(1);
+    assertEquals(1, subscriber.poll(5000).intValue());
+    awaitInactive(transform);
+
+    // A slow subscriber only sees the latest result.
+    for (int i = 1; i <= 100; ++i) {
+      input.setValue(i);
+    }
+    assertNull(subscriber.poll(100));
+    subscriber.subscription.request(1);
+    assertEquals(101, subscriber.poll(5000).intValue());
+    awaitInactive(transform);
+
+    subscriber.subscription.cancel();
+    subscriber.subscription.request(1);
+    assertNull(subscriber.poll(100));
+  }
+
+  @Test
+  public void requestingWithinTheGracePeriodDoesNotRecompute() throws InterruptedException {
+    final AtomicInteger processed = new AtomicInteger(0);
+    ValueNode<Integer> input = ValueNode.of(0);
+    TransformNode<Integer, Integer> transform = TransformNode.of(new TransformNode.Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        processed.incrementAndGet();
+        return input + 1;
+      }
+    }, input);
+    QueueSubscriber<Integer> subscriber = new QueueSubscriber<Integer>();
+    Graphy.sinkToPublisher(transform, 5, TimeUnit.SECONDS).subscribe(subscriber);
+
+    // One at a time, from outside onNext.
+    subscriber.subscription.request(1);
+    assertEquals(1, subscriber.poll(5000).intValue());
+    subscriber.subscription.request(1);
+    assertNull(subscriber.poll(100));
+    input.setValue(1);
+    assertEquals(2, subscriber.poll(5000).intValue());
+    subscriber.subscription.request(1);
+    assertNull(subscriber.poll(100));
+
+    assertTrue(transform.isActive());
+    assertEquals(2, processed.get());
+    subscriber.subscription.cancel();
+    awaitInactive(transform);
+  }
+
+  @Test
+  public void zeroGracePeriodPausesAsSoonAsDemandRunsOut() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    TransformNode<Integer, Integer> transform = TransformNode.of(INCREMENT, input);
+    QueueSubscriber<Integer> subscriber = new QueueSubscriber<Integer>();
+    Graphy.sinkToPublisher(transform, 0, TimeUnit.SECONDS).subscribe(subscriber);
+
+    subscriber.subscription.request(1);
+    assertEquals(1, subscriber.poll(5000).intValue());
+    awaitInactive(transform);
+    subscriber.subscription.cancel();
+  }
+
+  @Test
+  public void unboundedDemandFollowsChanges() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(0);
+    QueueSubscriber<Integer> subscriber = new QueueSubscriber<Integer>();
+    Graphy.sinkToPublisher(input).subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertEquals(0, subscriber.poll(5000).intValue());
+
+    input.setValue(1);
+    assertEquals(1, subscriber.poll(5000).intValue());
+    input.setValue(2);
+    assertEquals(2, subscriber.poll(5000).intValue());
+
+    // Unchanged results aren't redelivered.
+    input.setValue(2);
+    assertNull(subscriber.poll(100));
+    subscriber.subscription.cancel();
+  }
+
+  @Test
+  public void nonPositiveRequestIsAnError() throws InterruptedException {
+    QueueSubscriber<Integer> subscriber = new QueueSubscriber<Integer>();
+    Graphy.sinkToPublisher(ValueNode.of(0)).subscribe(subscriber);
+    subscriber.subscription.request(0);
+    assertTrue(subscriber.errors.poll(5, TimeUnit.SECONDS) instanceof IllegalArgumentException);
+    subscriber.subscription.request(1);
+    assertNull(subscriber.poll(100));
+  }
+}
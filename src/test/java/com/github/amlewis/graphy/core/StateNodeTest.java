@@ -2,12 +2,12 @@ package com.github.amlewis.graphy.core;
 
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 /**
  * Created by amlewis on 7/20/15.
@@ -29,6 +29,24 @@ public class StateNodeTest {
     }
   }
 
+  /**
+   * Sums whichever nodes are its dependencies at the time.
+   */
+  private static class SumNode extends StateNode<Integer> {
+    public SumNode(Node<?>... dependencies) {
+      super(dependencies);
+    }
+
+    @Override
+    protected Integer processResult() throws Exception {
+      int sum = 0;
+      for (Node<?> dependency : getDependencies()) {
+        sum += (Integer) dependency.get();
+      }
+      return sum;
+    }
+  }
+
   @Test
   public void simpleAddNodeTests() throws InterruptedException {
     ValueNode<Integer> left = new ValueNode<Integer>();
@@ -83,4 +101,91 @@ public class StateNodeTest {
 
     assertTrue(queue.isEmpty());
   }
+
+  @Test
+  public void addAndRemoveDependencies() throws InterruptedException {
+    ValueNode<Integer> first = ValueNode.of(1);
+    ValueNode<Integer> second = ValueNode.of(10);
+    SumNode sum = new SumNode(first);
+
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(sum, 5);
+    assertEquals(1, queue.poll(5, TimeUnit.SECONDS).getResult().intValue());
+
+    assertTrue(sum.addDependency(second));
+    assertFalse(sum.addDependency(second));
+    assertEquals(11, queue.poll(5, TimeUnit.SECONDS).getResult().intValue());
+    assertTrue(second.getParents().contains(sum));
+
+    second.setValue(20);
+    assertEquals(21, queue.poll(5, TimeUnit.SECONDS).getResult().intValue());
+
+    assertTrue(sum.removeDependency(first));
+    assertFalse(sum.removeDependency(first));
+    assertEquals(20, queue.poll(5, TimeUnit.SECONDS).getResult().intValue());
+    assertFalse(first.getParents().contains(sum));
+
+    // Changes to a removed dependency are no longer seen.
+    first.setValue(100);
+    assertEquals(null, queue.poll(200, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void replaceDependencyClearsException() throws InterruptedException {
+    Exception exception = new Exception();
+    ValueNode<Integer> broken = ValueNode.of(exception);
+    ValueNode<Integer> other = ValueNode.of(1);
+    ValueNode<Integer> replacement = ValueNode.of(5);
+    SumNode sum = new SumNode(broken, other);
+
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(sum, 5);
+    assertEquals(exception, queue.poll(5, TimeUnit.SECONDS).getException());
+
+    assertTrue(sum.replaceDependency(broken, replacement));
+    assertEquals(6, queue.poll(5, TimeUnit.SECONDS).getResult().intValue());
+    assertEquals(replacement, sum.getDependencies().get(0));
+    assertFalse(broken.getParents().contains(sum));
+  }
+
+  @Test
+  public void replacementClosingACycleIsRolledBack() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(1);
+    SumNode sum = new SumNode(input);
+    SumNode top = new SumNode(sum);
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(top, 5);
+    assertEquals(1, queue.poll(5, TimeUnit.SECONDS).getResult().intValue());
+
+    Graphy.getInstance().setCycleDetectionEnabled(true);
+    try {
+      sum.replaceDependency(input, top);
+      fail("Closing a cycle should throw");
+    } catch (Node.CycleDetectedException e) {
+      // Expected.
+    } finally {
+      Graphy.getInstance().setCycleDetectionEnabled(false);
+    }
+
+    assertEquals(Collections.<Node<?>>singletonList(input), sum.getDependencies());
+    assertTrue("The replaced dependency should still be attached", input.getParents().contains(sum));
+    assertFalse(top.getParents().contains(sum));
+
+    input.setValue(5);
+    NodeResult<Integer> result;
+    do {
+      result = queue.poll(5, TimeUnit.SECONDS);
+    } while (result != null && !Integer.valueOf(5).equals(result.getResult()));
+    assertNotNull("The node should still be updated by its restored dependency", result);
+  }
+
+  @Test
+  public void dependenciesChangedBeforeActivation() throws InterruptedException {
+    ValueNode<Integer> first = ValueNode.of(1);
+    ValueNode<Integer> second = ValueNode.of(2);
+    SumNode sum = new SumNode(first);
+    sum.addDependency(second);
+    sum.removeDependency(first);
+    assertTrue(first.getParents().isEmpty());
+
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(sum, 5);
+    assertEquals(2, queue.poll(5, TimeUnit.SECONDS).getResult().intValue());
+  }
 }
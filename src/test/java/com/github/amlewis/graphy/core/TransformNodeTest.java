@@ -0,0 +1,73 @@
+package com.github.amlewis.graphy.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransformNodeTest {
+  private static class CountingSquare implements TransformNode.Function<Integer, Integer> {
+    private final AtomicInteger calls = new AtomicInteger(0);
+
+    @Override
+    public Integer apply(Integer input) {
+      calls.incrementAndGet();
+      return input * input;
+    }
+  }
+
+  @Test
+  public void transformTracksInput() throws InterruptedException {
+    ValueNode<Integer> input = ValueNode.of(2);
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(TransformNode.of(new CountingSquare(), input), 5);
+    assertEquals(4, queue.take().getResult().intValue());
+
+    input.setValue(3);
+    assertEquals(9, queue.take().getResult().intValue());
+  }
+
+  @Test
+  public void memoizedTransformOnlyAppliesOncePerInput() throws InterruptedException {
+    CountingSquare square = new CountingSquare();
+    ValueNode<Integer> input = ValueNode.of(1);
+    MemoizingTransformNode<Integer, Integer> node = new MemoizingTransformNode.Builder<Integer, Integer>(square, input).build();
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(node, 5);
+    assertEquals(1, queue.take().getResult().intValue());
+
+    for (int i = 0; i < 10; ++i) {
+      input.setValue(2);
+      assertEquals(4, queue.take().getResult().intValue());
+      input.setValue(1);
+      assertEquals(1, queue.take().getResult().intValue());
+    }
+
+    assertEquals(2, square.calls.get());
+    assertEquals(2, node.getCacheStats().getMissCount());
+    assertTrue(node.getCacheStats().getHitCount() >= 19);
+  }
+
+  @Test
+  public void memoizedTransformEvictsLeastRecentlyUsed() throws InterruptedException {
+    CountingSquare square = new CountingSquare();
+    ValueNode<Integer> input = ValueNode.of(1);
+    MemoizingTransformNode<Integer, Integer> node = new MemoizingTransformNode.Builder<Integer, Integer>(square, input)
+        .maximumSize(2)
+        .build();
+    BlockingQueue<NodeResult<Integer>> queue = Graphy.sinkToBlockingDeque(node, 5);
+    assertEquals(1, queue.take().getResult().intValue());
+
+    input.setValue(2);
+    assertEquals(4, queue.take().getResult().intValue());
+    input.setValue(3);
+    assertEquals(9, queue.take().getResult().intValue());
+    input.setValue(1);
+    assertEquals(1, queue.take().getResult().intValue());
+
+    assertEquals(4, square.calls.get());
+    assertEquals(2, node.getCacheStats().getEvictionCount());
+    assertEquals(2, node.getCacheStats().getSize());
+  }
+}